@@ -2,6 +2,9 @@
 -- This file is for YOUR custom SQL. It runs only on the very first
 -- initialization of the data directory (i.e., when /var/lib/mysql is empty).
 -- The database, user, and grants are handled via docker-compose env vars.
+--
+-- Schema changes after that are in migrations/, numbered in the order they're applied. A new
+-- database doesn't need them, as this file already has every table in its latest shape.
 
 -- Example: create a table or seed data (safe to leave commented out)
 USE homecontrols;
@@ -14,4 +17,64 @@ CREATE TABLE favorite_colors (
     color VARCHAR(64) NOT NULL,
 
     PRIMARY KEY (favorite_color_id)
-);
\ No newline at end of file
+);
+-- One row per light or group in a saved scene; xy is worked out when the scene is saved
+CREATE TABLE scene_targets (
+    scene_target_id VARCHAR(64) NOT NULL,
+    scene_id VARCHAR(64) NOT NULL,
+    scene_name VARCHAR(255) NOT NULL,
+    control_device_id VARCHAR(128) NOT NULL,
+    light_id VARCHAR(128) NULL,
+    group_id VARCHAR(128) NULL,
+    is_on TINYINT NULL,
+    brightness DOUBLE NULL,
+    color VARCHAR(64) NULL,
+    color_x DOUBLE NULL,
+    color_y DOUBLE NULL,
+    index_num INT NOT NULL,
+
+    PRIMARY KEY (scene_target_id),
+    KEY idx_scene_targets_scene_id (scene_id),
+    KEY idx_scene_targets_control_device_id (control_device_id)
+);
+-- Last known state of each bulb, keyed by its Hue light id
+CREATE TABLE light_bulbs (
+    light_id VARCHAR(128) NOT NULL,
+    device_id VARCHAR(128) NOT NULL,
+    brightness DOUBLE NOT NULL,
+    red DOUBLE NOT NULL,
+    green DOUBLE NOT NULL,
+    blue DOUBLE NOT NULL,
+    is_on TINYINT NOT NULL,
+    name VARCHAR(255) NOT NULL,
+
+    PRIMARY KEY (light_id),
+    KEY idx_light_bulbs_device_id (device_id)
+);
+-- NWS gridpoint each location falls in, keyed by "lat,lon" as sent to /points
+CREATE TABLE nws_gridpoints (
+    location VARCHAR(64) NOT NULL,
+    grid_id VARCHAR(8) NOT NULL,
+    grid_x INT NOT NULL,
+    grid_y INT NOT NULL,
+    forecast_path VARCHAR(255) NOT NULL,
+    forecast_hourly_path VARCHAR(255) NOT NULL,
+    fetched_time DATETIME(6) NOT NULL,
+
+    PRIMARY KEY (location)
+);
+-- Forecasts fetched from NWS. Rows with a grid_key are snapshots of the forecast cache: the raw
+-- response for that gridpoint and product (in type), one row each, kept so a restart can start warm
+CREATE TABLE forecast_data (
+    forecast_data_id VARCHAR(64) NOT NULL,
+    type VARCHAR(64) NOT NULL,
+    forecast_data LONGTEXT NULL,
+    generated_time DATETIME(6) NOT NULL,
+    grid_key VARCHAR(64) NULL,
+    response MEDIUMTEXT NULL,
+    expires_time DATETIME(6) NULL,
+
+    PRIMARY KEY (forecast_data_id),
+    UNIQUE KEY uk_forecast_data_grid_key_type (grid_key, type),
+    KEY idx_forecast_data_expires_time (expires_time)
+);
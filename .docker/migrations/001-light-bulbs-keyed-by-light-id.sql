@@ -0,0 +1,20 @@
+-- 001-light-bulbs-keyed-by-light-id.sql
+-- light_bulbs used to be keyed by a generated light_bulb_id, with light_id alongside it. Rows
+-- are now upserted by light_id, so that becomes the key and light_bulb_id goes; without this
+-- every upsert fails on the NOT NULL light_bulb_id.
+--
+-- Only for databases created before it: init.sql already makes the new table. Apply once with
+--   docker exec -i home-controls-mysql mysql -uhomecontrols -ppassword homecontrols \
+--     < .docker/migrations/001-light-bulbs-keyed-by-light-id.sql
+USE homecontrols;
+
+-- The old code deleted and re-saved every row on each read, so there should only be one per
+-- light, but keep just one in case. The next sync overwrites it anyway.
+DELETE a FROM light_bulbs a
+JOIN light_bulbs b ON a.light_id = b.light_id AND a.light_bulb_id > b.light_bulb_id;
+
+ALTER TABLE light_bulbs
+    DROP PRIMARY KEY,
+    DROP COLUMN light_bulb_id,
+    MODIFY light_id VARCHAR(128) NOT NULL,
+    ADD PRIMARY KEY (light_id);
@@ -0,0 +1,9 @@
+-- 002-light-bulbs-device-id-index.sql
+-- findAllByIds matches on light_id or device_id, and needs an index on both to avoid a scan.
+--
+-- Only for databases created before it: init.sql already has the index. Apply once with
+--   docker exec -i home-controls-mysql mysql -uhomecontrols -ppassword homecontrols \
+--     < .docker/migrations/002-light-bulbs-device-id-index.sql
+USE homecontrols;
+
+CREATE INDEX idx_light_bulbs_device_id ON light_bulbs (device_id);
@@ -0,0 +1,26 @@
+-- 003-scene-targets.sql
+-- Adds the table saved scenes are kept in, one row per light or group in a scene.
+--
+-- Only for databases created before it: init.sql already has the table. Apply once with
+--   docker exec -i home-controls-mysql mysql -uhomecontrols -ppassword homecontrols \
+--     < .docker/migrations/003-scene-targets.sql
+USE homecontrols;
+
+CREATE TABLE IF NOT EXISTS scene_targets (
+    scene_target_id VARCHAR(64) NOT NULL,
+    scene_id VARCHAR(64) NOT NULL,
+    scene_name VARCHAR(255) NOT NULL,
+    control_device_id VARCHAR(128) NOT NULL,
+    light_id VARCHAR(128) NULL,
+    group_id VARCHAR(128) NULL,
+    is_on TINYINT NULL,
+    brightness DOUBLE NULL,
+    color VARCHAR(64) NULL,
+    color_x DOUBLE NULL,
+    color_y DOUBLE NULL,
+    index_num INT NOT NULL,
+
+    PRIMARY KEY (scene_target_id),
+    KEY idx_scene_targets_scene_id (scene_id),
+    KEY idx_scene_targets_control_device_id (control_device_id)
+);
@@ -0,0 +1,19 @@
+-- 004-nws-gridpoints.sql
+-- Adds the table NWS gridpoint lookups are kept in, so each location is only looked up once.
+--
+-- Only for databases created before it: init.sql already has the table. Apply once with
+--   docker exec -i home-controls-mysql mysql -uhomecontrols -ppassword homecontrols \
+--     < .docker/migrations/004-nws-gridpoints.sql
+USE homecontrols;
+
+CREATE TABLE IF NOT EXISTS nws_gridpoints (
+    location VARCHAR(64) NOT NULL,
+    grid_id VARCHAR(8) NOT NULL,
+    grid_x INT NOT NULL,
+    grid_y INT NOT NULL,
+    forecast_path VARCHAR(255) NOT NULL,
+    forecast_hourly_path VARCHAR(255) NOT NULL,
+    fetched_time DATETIME(6) NOT NULL,
+
+    PRIMARY KEY (location)
+);
@@ -0,0 +1,15 @@
+-- 005-forecast-data-snapshot-columns.sql
+-- Adds the columns forecast cache snapshots are saved in, and lets forecast_data be empty for
+-- them since a snapshot keeps the raw response instead.
+--
+-- Only for databases created before it: init.sql already has these columns. Apply once with
+--   docker exec -i home-controls-mysql mysql -uhomecontrols -ppassword homecontrols \
+--     < .docker/migrations/005-forecast-data-snapshot-columns.sql
+USE homecontrols;
+
+ALTER TABLE forecast_data
+    MODIFY COLUMN forecast_data LONGTEXT NULL,
+    ADD COLUMN grid_key VARCHAR(64) NULL,
+    ADD COLUMN response MEDIUMTEXT NULL,
+    ADD COLUMN expires_time DATETIME(6) NULL,
+    ADD INDEX idx_forecast_data_expires_time (expires_time);
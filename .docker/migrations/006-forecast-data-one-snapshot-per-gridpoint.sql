@@ -0,0 +1,20 @@
+-- 006-forecast-data-one-snapshot-per-gridpoint.sql
+-- Snapshots are now upserted, one row per gridpoint and product, rather than added on every fetch.
+-- Keeps only the newest of each, then adds the unique key the upsert relies on. Rows without a
+-- grid_key aren't snapshots and are left alone.
+--
+-- Only for databases created before it: init.sql already has the key. Apply once with
+--   docker exec -i home-controls-mysql mysql -uhomecontrols -ppassword homecontrols \
+--     < .docker/migrations/006-forecast-data-one-snapshot-per-gridpoint.sql
+USE homecontrols;
+
+DELETE older
+FROM forecast_data older
+JOIN forecast_data newer
+    ON newer.grid_key = older.grid_key
+    AND newer.type = older.type
+    AND (newer.generated_time > older.generated_time
+        OR (newer.generated_time = older.generated_time AND newer.forecast_data_id > older.forecast_data_id));
+
+ALTER TABLE forecast_data
+    ADD UNIQUE KEY uk_forecast_data_grid_key_type (grid_key, type);
@@ -1,15 +1,21 @@
 package com.davidruffner.homecontrollerbackend;
 
 import com.davidruffner.homecontrollerbackend.config.HashUtilConfig;
+import com.davidruffner.homecontrollerbackend.config.HueConfig;
 import com.davidruffner.homecontrollerbackend.config.UserSettingsConfig;
+import com.davidruffner.homecontrollerbackend.config.WeatherConfig;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 @EnableConfigurationProperties({
     UserSettingsConfig.class,
-    HashUtilConfig.class
+    HashUtilConfig.class,
+    HueConfig.class,
+    WeatherConfig.class
 })
 public class HomeControllerBackendApplication {
 
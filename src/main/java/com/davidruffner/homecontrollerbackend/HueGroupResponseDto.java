@@ -1,6 +1,8 @@
 package com.davidruffner.homecontrollerbackend;
 
 import com.davidruffner.homecontrollerbackend.entities.LightBulbTrack;
+import com.davidruffner.homecontrollerbackend.services.HueBridges.HueResource;
+import com.davidruffner.homecontrollerbackend.services.HueBridges.HueResourceResponse;
 import com.davidruffner.homecontrollerbackend.services.LightsService;
 
 import java.util.List;
@@ -20,15 +22,16 @@ public class HueGroupResponseDto {
     ) {}
 
     public record HueGroupDataResponse(
+        String id,
         HueGroupDataOwnerResponse owner,
         HueGroupIsOnResponse on,
         HueGroupDimmingResponse dimming
-    ) {}
+    ) implements HueResource {}
 
     public record HueGroupResponse(
         List<Object> errors,
         List<HueGroupDataResponse> data
-    ) {}
+    ) implements HueResourceResponse<HueGroupDataResponse> {}
 
     public record GetBulbsForGroupResponse(
         String groupedLightId,
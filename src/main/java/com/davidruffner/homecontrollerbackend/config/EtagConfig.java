@@ -0,0 +1,23 @@
+package com.davidruffner.homecontrollerbackend.config;
+
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.filter.ShallowEtagHeaderFilter;
+
+@Configuration
+public class EtagConfig {
+
+    /**
+     * ETags the full light listings from a hash of the body, so unchanged polls come back as an
+     * empty 304. LightsController sets its own cheaper ETag when it can, which this leaves alone.
+     */
+    @Bean
+    public FilterRegistrationBean<ShallowEtagHeaderFilter> lightsEtagFilter() {
+        FilterRegistrationBean<ShallowEtagHeaderFilter> registration =
+            new FilterRegistrationBean<>(new ShallowEtagHeaderFilter());
+        registration.addUrlPatterns("/lights/getRooms", "/lights/getBulbs");
+
+        return registration;
+    }
+}
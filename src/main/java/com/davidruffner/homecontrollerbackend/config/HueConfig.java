@@ -0,0 +1,330 @@
+package com.davidruffner.homecontrollerbackend.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@ConfigurationProperties(prefix = "app.hue")
+public class HueConfig {
+    private Map<String, Bridge> bridges = new LinkedHashMap<>();
+    private EventStream eventStream = new EventStream();
+    private TopologyCache topologyCache = new TopologyCache();
+    private Scheduler scheduler = new Scheduler();
+    private Fetch fetch = new Fetch();
+    private GroupAggregate groupAggregate = new GroupAggregate();
+    private WriteBuffer writeBuffer = new WriteBuffer();
+    private LightEvents lightEvents = new LightEvents();
+    private Optimistic optimistic = new Optimistic();
+
+    public Map<String, Bridge> getBridges() {
+        return bridges;
+    }
+
+    public void setBridges(Map<String, Bridge> bridges) {
+        this.bridges = bridges;
+    }
+
+    public EventStream getEventStream() {
+        return eventStream;
+    }
+
+    public void setEventStream(EventStream eventStream) {
+        this.eventStream = eventStream;
+    }
+
+    public TopologyCache getTopologyCache() {
+        return topologyCache;
+    }
+
+    public void setTopologyCache(TopologyCache topologyCache) {
+        this.topologyCache = topologyCache;
+    }
+
+    public Scheduler getScheduler() {
+        return scheduler;
+    }
+
+    public void setScheduler(Scheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    public Fetch getFetch() {
+        return fetch;
+    }
+
+    public void setFetch(Fetch fetch) {
+        this.fetch = fetch;
+    }
+
+    public GroupAggregate getGroupAggregate() {
+        return groupAggregate;
+    }
+
+    public void setGroupAggregate(GroupAggregate groupAggregate) {
+        this.groupAggregate = groupAggregate;
+    }
+
+    public WriteBuffer getWriteBuffer() {
+        return writeBuffer;
+    }
+
+    public void setWriteBuffer(WriteBuffer writeBuffer) {
+        this.writeBuffer = writeBuffer;
+    }
+
+    public LightEvents getLightEvents() {
+        return lightEvents;
+    }
+
+    public void setLightEvents(LightEvents lightEvents) {
+        this.lightEvents = lightEvents;
+    }
+
+    public Optimistic getOptimistic() {
+        return optimistic;
+    }
+
+    public void setOptimistic(Optimistic optimistic) {
+        this.optimistic = optimistic;
+    }
+
+    // Keyed by a name for the bridge, so its key can be set separately (in secrets)
+    public static class Bridge {
+        private String url;
+        private String applicationKey;
+        private int maxConnections = 8;
+
+        public String getUrl() {
+            return url;
+        }
+
+        public void setUrl(String url) {
+            this.url = url;
+        }
+
+        public String getApplicationKey() {
+            return applicationKey;
+        }
+
+        public void setApplicationKey(String applicationKey) {
+            this.applicationKey = applicationKey;
+        }
+
+        public int getMaxConnections() {
+            return maxConnections;
+        }
+
+        public void setMaxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+        }
+    }
+
+    public static class EventStream {
+        private boolean enabled = true;
+        private Duration initialBackoff = Duration.ofSeconds(1);
+        private Duration maxBackoff = Duration.ofSeconds(30);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Duration getInitialBackoff() {
+            return initialBackoff;
+        }
+
+        public void setInitialBackoff(Duration initialBackoff) {
+            this.initialBackoff = initialBackoff;
+        }
+
+        public Duration getMaxBackoff() {
+            return maxBackoff;
+        }
+
+        public void setMaxBackoff(Duration maxBackoff) {
+            this.maxBackoff = maxBackoff;
+        }
+    }
+
+    public static class TopologyCache {
+        private Duration ttl = Duration.ofMinutes(10);
+        // An unknown group ID reloads the topology at most this often, in case its room is new
+        private Duration missReloadInterval = Duration.ofSeconds(10);
+
+        public Duration getTtl() {
+            return ttl;
+        }
+
+        public void setTtl(Duration ttl) {
+            this.ttl = ttl;
+        }
+
+        public Duration getMissReloadInterval() {
+            return missReloadInterval;
+        }
+
+        public void setMissReloadInterval(Duration missReloadInterval) {
+            this.missReloadInterval = missReloadInterval;
+        }
+    }
+
+    public static class Scheduler {
+        private double lightCommandsPerSecond = 10;
+        private double groupCommandsPerSecond = 1;
+        private int queueCapacity = 32;
+        private Duration timeout = Duration.ofSeconds(10);
+        private int maxConcurrency = 8;
+
+        public double getLightCommandsPerSecond() {
+            return lightCommandsPerSecond;
+        }
+
+        public void setLightCommandsPerSecond(double lightCommandsPerSecond) {
+            this.lightCommandsPerSecond = lightCommandsPerSecond;
+        }
+
+        public double getGroupCommandsPerSecond() {
+            return groupCommandsPerSecond;
+        }
+
+        public void setGroupCommandsPerSecond(double groupCommandsPerSecond) {
+            this.groupCommandsPerSecond = groupCommandsPerSecond;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+
+        public Duration getTimeout() {
+            return timeout;
+        }
+
+        public void setTimeout(Duration timeout) {
+            this.timeout = timeout;
+        }
+
+        public int getMaxConcurrency() {
+            return maxConcurrency;
+        }
+
+        public void setMaxConcurrency(int maxConcurrency) {
+            this.maxConcurrency = maxConcurrency;
+        }
+    }
+
+    public static class Fetch {
+        private boolean parallel = true;
+        private int maxConcurrency = 4;
+
+        public boolean isParallel() {
+            return parallel;
+        }
+
+        public void setParallel(boolean parallel) {
+            this.parallel = parallel;
+        }
+
+        public int getMaxConcurrency() {
+            return maxConcurrency;
+        }
+
+        public void setMaxConcurrency(int maxConcurrency) {
+            this.maxConcurrency = maxConcurrency;
+        }
+    }
+
+    public static class GroupAggregate {
+        // For groups loaded while the event stream is down
+        private Duration ttl = Duration.ofSeconds(30);
+        // For groups the event stream keeps current; only matters if an event goes missing
+        private Duration syncedTtl = Duration.ofMinutes(10);
+
+        public Duration getTtl() {
+            return ttl;
+        }
+
+        public void setTtl(Duration ttl) {
+            this.ttl = ttl;
+        }
+
+        public Duration getSyncedTtl() {
+            return syncedTtl;
+        }
+
+        public void setSyncedTtl(Duration syncedTtl) {
+            this.syncedTtl = syncedTtl;
+        }
+    }
+
+    public static class WriteBuffer {
+        private Duration flushInterval = Duration.ofMillis(250);
+
+        public Duration getFlushInterval() {
+            return flushInterval;
+        }
+
+        public void setFlushInterval(Duration flushInterval) {
+            this.flushInterval = flushInterval;
+        }
+    }
+
+    public static class LightEvents {
+        private Duration heartbeat = Duration.ofSeconds(15);
+        private Duration timeout = Duration.ofMinutes(30);
+        private int historySize = 1024;
+        private int clientQueueSize = 32;
+
+        public Duration getHeartbeat() {
+            return heartbeat;
+        }
+
+        public void setHeartbeat(Duration heartbeat) {
+            this.heartbeat = heartbeat;
+        }
+
+        public Duration getTimeout() {
+            return timeout;
+        }
+
+        public void setTimeout(Duration timeout) {
+            this.timeout = timeout;
+        }
+
+        public int getHistorySize() {
+            return historySize;
+        }
+
+        public void setHistorySize(int historySize) {
+            this.historySize = historySize;
+        }
+
+        public int getClientQueueSize() {
+            return clientQueueSize;
+        }
+
+        public void setClientQueueSize(int clientQueueSize) {
+            this.clientQueueSize = clientQueueSize;
+        }
+    }
+
+    public static class Optimistic {
+        private boolean enabled = false;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+    }
+}
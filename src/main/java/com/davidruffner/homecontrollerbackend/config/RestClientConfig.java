@@ -1,13 +1,22 @@
 package com.davidruffner.homecontrollerbackend.config;
 
+import com.davidruffner.homecontrollerbackend.services.HueBridges;
+import com.davidruffner.homecontrollerbackend.services.HueBridges.HueBridge;
+import com.davidruffner.homecontrollerbackend.services.HueCommandScheduler;
+import com.davidruffner.homecontrollerbackend.services.ParallelFetchExecutor;
 import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.client.RestClient;
 import org.springframework.http.client.ReactorClientHttpRequestFactory;
+import org.springframework.web.reactive.function.client.WebClient;
 import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
 
 import javax.net.ssl.SSLException;
+import java.util.ArrayList;
+import java.util.List;
 
 @Configuration
 public class RestClientConfig {
@@ -36,28 +45,50 @@ public class RestClientConfig {
             .build();
     }
 
-    @Bean("HueRestClient")
-    RestClient hueRestClient(RestClient.Builder builder) {
-        HttpClient httpClient = HttpClient.create()
-            .secure(ssl -> {
-                try {
-                    ssl.sslContext(
-                        io.netty.handler.ssl.SslContextBuilder.forClient()
-                            .trustManager(InsecureTrustManagerFactory.INSTANCE)
-                            .build()
-                    );
-                } catch (SSLException e) {
-                    throw new RuntimeException(e);
-                }
-            });
+    /**
+     * A client pair per bridge under app.hue.bridges, each on its own connection pool so a slow
+     * bridge can't hold up the others. The WebClient is for the bridge's SSE event stream, which
+     * needs to be consumed as it arrives.
+     */
+    @Bean
+    HueBridges hueBridges(HueConfig hueConfig, ParallelFetchExecutor parallelFetchExecutor,
+        HueCommandScheduler hueCommandScheduler, RestClient.Builder restClientBuilder,
+        WebClient.Builder webClientBuilder) {
 
-        ReactorClientHttpRequestFactory requestFactory = new ReactorClientHttpRequestFactory(httpClient);
+        List<HueBridge> bridges = new ArrayList<>();
+        hueConfig.getBridges().forEach((id, bridge) -> {
+            ConnectionProvider pool = ConnectionProvider.builder("hue-" + id)
+                .maxConnections(bridge.getMaxConnections())
+                .build();
 
-        return builder
-            .baseUrl("https://192.168.50.231") // TODO: Configify this value
-            .defaultHeader("Accept", "application/json")
-            .requestFactory(requestFactory)
-            .build();
+            HttpClient httpClient = HttpClient.create(pool)
+                .secure(ssl -> {
+                    try {
+                        ssl.sslContext(
+                            io.netty.handler.ssl.SslContextBuilder.forClient()
+                                .trustManager(InsecureTrustManagerFactory.INSTANCE)
+                                .build()
+                        );
+                    } catch (SSLException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+
+            RestClient restClient = restClientBuilder.clone()
+                .baseUrl(bridge.getUrl())
+                .defaultHeader("Accept", "application/json")
+                .requestFactory(new ReactorClientHttpRequestFactory(httpClient))
+                .build();
+
+            WebClient webClient = webClientBuilder.clone()
+                .baseUrl(bridge.getUrl())
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .build();
+
+            bridges.add(new HueBridge(id, restClient, webClient, bridge.getApplicationKey()));
+        });
+
+        return new HueBridges(bridges, parallelFetchExecutor, hueCommandScheduler);
     }
 
     @Bean("NWSRestClient")
@@ -0,0 +1,181 @@
+package com.davidruffner.homecontrollerbackend.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@ConfigurationProperties(prefix = "app.weather")
+public class WeatherConfig {
+    private Gridpoints gridpoints = new Gridpoints();
+    private Forecasts forecasts = new Forecasts();
+    private Prefetch prefetch = new Prefetch();
+    private Snapshots snapshots = new Snapshots();
+
+    public Gridpoints getGridpoints() {
+        return gridpoints;
+    }
+
+    public void setGridpoints(Gridpoints gridpoints) {
+        this.gridpoints = gridpoints;
+    }
+
+    public Forecasts getForecasts() {
+        return forecasts;
+    }
+
+    public void setForecasts(Forecasts forecasts) {
+        this.forecasts = forecasts;
+    }
+
+    public Prefetch getPrefetch() {
+        return prefetch;
+    }
+
+    public void setPrefetch(Prefetch prefetch) {
+        this.prefetch = prefetch;
+    }
+
+    public Snapshots getSnapshots() {
+        return snapshots;
+    }
+
+    public void setSnapshots(Snapshots snapshots) {
+        this.snapshots = snapshots;
+    }
+
+    public static class Gridpoints {
+        // A location's gridpoint only moves when NWS redraws its grid, so this can be long
+        private Duration refreshAfter = Duration.ofDays(30);
+
+        public Duration getRefreshAfter() {
+            return refreshAfter;
+        }
+
+        public void setRefreshAfter(Duration refreshAfter) {
+            this.refreshAfter = refreshAfter;
+        }
+    }
+
+    public static class Forecasts {
+        // Used when NWS sends neither Cache-Control max-age nor Expires
+        private Duration defaultTtl = Duration.ofMinutes(15);
+        // Kept for at least this long even if NWS says not to cache, so one dashboard load is one fetch
+        private Duration minTtl = Duration.ofSeconds(30);
+        private Duration maxTtl = Duration.ofHours(1);
+        // How long past expiry a forecast is still served (while it's refreshed in the background)
+        private Duration serveStaleFor = Duration.ofHours(6);
+
+        public Duration getDefaultTtl() {
+            return defaultTtl;
+        }
+
+        public void setDefaultTtl(Duration defaultTtl) {
+            this.defaultTtl = defaultTtl;
+        }
+
+        public Duration getMinTtl() {
+            return minTtl;
+        }
+
+        public void setMinTtl(Duration minTtl) {
+            this.minTtl = minTtl;
+        }
+
+        public Duration getMaxTtl() {
+            return maxTtl;
+        }
+
+        public void setMaxTtl(Duration maxTtl) {
+            this.maxTtl = maxTtl;
+        }
+
+        public Duration getServeStaleFor() {
+            return serveStaleFor;
+        }
+
+        public void setServeStaleFor(Duration serveStaleFor) {
+            this.serveStaleFor = serveStaleFor;
+        }
+    }
+
+    public static class Prefetch {
+        private boolean enabled = true;
+        private Duration interval = Duration.ofMinutes(5);
+        // Forecasts expiring within this are refreshed, so it should be at least the interval
+        private Duration refreshAhead = Duration.ofMinutes(6);
+        // Each refresh waits a random part of this first, so they don't all hit NWS at once
+        private Duration jitter = Duration.ofSeconds(30);
+        private int maxConcurrency = 2;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Duration getInterval() {
+            return interval;
+        }
+
+        public void setInterval(Duration interval) {
+            this.interval = interval;
+        }
+
+        public Duration getRefreshAhead() {
+            return refreshAhead;
+        }
+
+        public void setRefreshAhead(Duration refreshAhead) {
+            this.refreshAhead = refreshAhead;
+        }
+
+        public Duration getJitter() {
+            return jitter;
+        }
+
+        public void setJitter(Duration jitter) {
+            this.jitter = jitter;
+        }
+
+        public int getMaxConcurrency() {
+            return maxConcurrency;
+        }
+
+        public void setMaxConcurrency(int maxConcurrency) {
+            this.maxConcurrency = maxConcurrency;
+        }
+    }
+
+    public static class Snapshots {
+        // How long after expiring a snapshot is kept; past forecasts.serveStaleFor it's no use to a restart
+        private Duration retention = Duration.ofDays(1);
+        private Duration purgeInterval = Duration.ofHours(1);
+        private Duration flushInterval = Duration.ofSeconds(5);
+
+        public Duration getRetention() {
+            return retention;
+        }
+
+        public void setRetention(Duration retention) {
+            this.retention = retention;
+        }
+
+        public Duration getPurgeInterval() {
+            return purgeInterval;
+        }
+
+        public void setPurgeInterval(Duration purgeInterval) {
+            this.purgeInterval = purgeInterval;
+        }
+
+        public Duration getFlushInterval() {
+            return flushInterval;
+        }
+
+        public void setFlushInterval(Duration flushInterval) {
+            this.flushInterval = flushInterval;
+        }
+    }
+}
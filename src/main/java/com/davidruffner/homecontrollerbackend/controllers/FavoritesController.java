@@ -2,7 +2,10 @@ package com.davidruffner.homecontrollerbackend.controllers;
 
 import com.davidruffner.homecontrollerbackend.entities.FavoriteColor;
 import com.davidruffner.homecontrollerbackend.entities.RGB;
+import com.davidruffner.homecontrollerbackend.entities.SceneTarget.SceneTargetDTO;
 import com.davidruffner.homecontrollerbackend.repositories.FavoriteColorRepository;
+import com.davidruffner.homecontrollerbackend.services.FavoritesService;
+import com.davidruffner.homecontrollerbackend.services.FavoritesService.SceneDto;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -17,6 +20,9 @@ public class FavoritesController {
     @Autowired
     FavoriteColorRepository favoriteColorRepo;
 
+    @Autowired
+    FavoritesService favoritesService;
+
     public record GetFavoritesRequestDto(
         String lightId,
         String groupId,
@@ -71,4 +77,26 @@ public class FavoritesController {
 
         return ResponseEntity.ok(favoriteColor);
     }
+
+    public record AddSceneRequestDto(
+        String sceneId,
+        String name,
+        String controlDeviceId,
+        List<SceneTargetDTO> targets
+    ) {}
+
+    @PostMapping("/addScene")
+    public ResponseEntity<SceneDto> addScene(@RequestBody AddSceneRequestDto body) {
+        return ResponseEntity.ok(this.favoritesService.saveScene(body.sceneId(), body.name(),
+            body.controlDeviceId(), body.targets()));
+    }
+
+    public record GetScenesRequestDto(
+        String controlDeviceId
+    ) {}
+
+    @PostMapping("/getScenes")
+    public ResponseEntity<List<SceneDto>> getScenes(@RequestBody GetScenesRequestDto body) {
+        return ResponseEntity.ok(this.favoritesService.getScenes(body.controlDeviceId()));
+    }
 }
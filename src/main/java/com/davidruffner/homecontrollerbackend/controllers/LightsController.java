@@ -4,42 +4,114 @@ import com.davidruffner.homecontrollerbackend.HueGroupResponseDto;
 import com.davidruffner.homecontrollerbackend.HueGroupResponseDto.GetBulbsForGroupResponse;
 import com.davidruffner.homecontrollerbackend.entities.*;
 import com.davidruffner.homecontrollerbackend.entities.ModifyLightRequest.ModifyLightRequestDTO;
+import com.davidruffner.homecontrollerbackend.entities.SceneTarget.SceneTargetDTO;
 import com.davidruffner.homecontrollerbackend.repositories.LightBulbTrackRepository;
-import com.davidruffner.homecontrollerbackend.services.ColorConversionService;
 import com.davidruffner.homecontrollerbackend.services.ColorConversionService.RgbToXyDto;
+import com.davidruffner.homecontrollerbackend.services.FavoritesService;
+import com.davidruffner.homecontrollerbackend.services.HueStateRegistry;
+import com.davidruffner.homecontrollerbackend.services.LightChangeLog;
+import com.davidruffner.homecontrollerbackend.services.LightChangeLog.LightChange;
+import com.davidruffner.homecontrollerbackend.services.LightCommandCoalescer;
+import com.davidruffner.homecontrollerbackend.services.LightCommandCoalescer.Target;
+import com.davidruffner.homecontrollerbackend.services.LightEventStream;
+import com.davidruffner.homecontrollerbackend.services.LightStateWriteBuffer;
 import com.davidruffner.homecontrollerbackend.services.LightsService;
-import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Supplier;
 
 @RestController
 @RequestMapping("/lights")
 public class LightsController {
 
-    @Autowired
-    LightsService lightsService;
+    final LightsService lightsService;
+    final LightBulbTrackRepository lightBulbTrackRepo;
+    final LightCommandCoalescer lightCommandCoalescer;
+    final LightStateWriteBuffer lightStateWriteBuffer;
+    final LightEventStream lightEventStream;
+    final LightChangeLog lightChangeLog;
+    final HueStateRegistry hueStateRegistry;
+    final FavoritesService favoritesService;
+
+    public LightsController(
+        LightsService lightsService,
+        LightBulbTrackRepository lightBulbTrackRepo,
+        LightCommandCoalescer lightCommandCoalescer,
+        LightStateWriteBuffer lightStateWriteBuffer,
+        LightEventStream lightEventStream,
+        LightChangeLog lightChangeLog,
+        HueStateRegistry hueStateRegistry,
+        FavoritesService favoritesService) {
+
+        this.lightsService = lightsService;
+        this.lightBulbTrackRepo = lightBulbTrackRepo;
+        this.lightCommandCoalescer = lightCommandCoalescer;
+        this.lightStateWriteBuffer = lightStateWriteBuffer;
+        this.lightEventStream = lightEventStream;
+        this.lightChangeLog = lightChangeLog;
+        this.hueStateRegistry = hueStateRegistry;
+        this.favoritesService = favoritesService;
+    }
+
+    @GetMapping("/getRooms")
+    public ResponseEntity<Map<String, HueRoom>> getRooms(WebRequest request) {
+        return withStateETag(request, this.lightsService::getLightBulbsMappedByRoom);
+    }
 
-    @Autowired
-    ColorConversionService colorConversionService;
+    @GetMapping("/getBulbs")
+    public ResponseEntity<List<LightBulb>> getBulbs(WebRequest request) {
+        return withStateETag(request, this.lightsService::getAllLightBulbs);
+    }
 
-    @Autowired
-    LightBulbTrackRepository lightBulbTrackRepo;
+    /**
+     * While the bridge's event stream is up every change goes through the change log, so its
+     * version can be the ETag and an unchanged If-None-Match is answered without building the
+     * body at all. Otherwise the body is built and ShallowEtagHeaderFilter hashes it instead.
+     */
+    private <T> ResponseEntity<T> withStateETag(WebRequest request, Supplier<T> body) {
+        if (!this.hueStateRegistry.isSynced()) {
+            return ResponseEntity.ok(body.get());
+        }
 
+        // Read before building, so a change made meanwhile can only make the tag too old
+        String eTag = "\"lights-" + this.lightChangeLog.getLatestVersion() + "\"";
+        if (request.checkNotModified(eTag)) {
+            return null;
+        }
 
-    @GetMapping("/getRooms")
-    public ResponseEntity<Map<String, HueRoom>> getRooms() {
-        return ResponseEntity.ok(this.lightsService.getLightBulbsMappedByRoom());
+        return ResponseEntity.ok().eTag(eTag).body(body.get());
     }
 
-    @GetMapping("/getBulbs")
-    public ResponseEntity<List<LightBulb>> getBulbs() {
-        return ResponseEntity.ok(this.lightsService.getAllLightBulbs());
+    public record LightChangesResponseDTO(
+        long version,
+        boolean resync,
+        List<LightChange> changes
+    ) {}
+
+    /**
+     * Everything that changed after version {@code since}. When that's further back than the change
+     * log goes (or {@code since} is missing), {@code resync} is set and the caller should reload
+     * with getRooms/getBulbs, then carry on from {@code version}.
+     */
+    @GetMapping("/changes")
+    public ResponseEntity<LightChangesResponseDTO> getChanges(@RequestParam(required = false) Long since) {
+        long version = this.lightChangeLog.getLatestVersion();
+        Optional<List<LightChange>> changes = since != null ? this.lightChangeLog.since(since) : Optional.empty();
+
+        return changes
+            .map(list -> new LightChangesResponseDTO(
+                list.isEmpty() ? since : list.getLast().version(), false, list))
+            .map(ResponseEntity::ok)
+            .orElseGet(() -> ResponseEntity.ok(new LightChangesResponseDTO(version, true, List.of())));
     }
 
     public record ToggleGroupLightRequestDTO(
@@ -80,39 +152,55 @@ public class LightsController {
     public ResponseEntity<Boolean> modifyLight(@RequestBody ModifyLightRequestDTO body) throws Exception {
         ModifyLightRequest request = new ModifyLightRequest(body); // Validation in constructor
 
-        if (request.getDimPercent().isPresent()) {
-            // Dim the lights
-            Double dimPercent = request.getDimPercent().get();
-
-            if (request.getLightId().isPresent()) {
-                // Only one light
-                this.lightsService.modifyLightBrightness(request.getLightId().get(), dimPercent);
-            } else {
-                // A light group
-                this.lightsService.modifyGroupBrightness(request.getGroupId().get(), dimPercent);
-            }
+        // Slider drags send a request per tick, so these are coalesced rather than sent straight through
+        Target target = request.getLightId().isPresent()
+            ? Target.light(request.getLightId().get())
+            : Target.group(request.getGroupId().get());
+
+        RGB rgb = request.getRgb().orElse(null);
+        RgbToXyDto xy = null;
+        if (rgb != null) {
+            xy = request.getLightId().isPresent()
+                ? this.lightsService.rgbToXyForLight(request.getLightId().get(), rgb)
+                : this.lightsService.rgbToXyForGroup(request.getGroupId().get(), rgb);
         }
 
-        if (request.getRgb().isPresent()) {
-            // Modify the color
-            RGB rgb = request.getRgb().get();
-            RgbToXyDto xy = this.colorConversionService.rgbToXy(rgb);
-
-            if (request.getLightId().isPresent()) {
-                // Only one light
-                this.lightsService.modifyLightColor(request.getLightId().get(), xy);
-            } else {
-                // Group of lights
-                this.lightsService.modifyGroupColor(request.getGroupId().get(), xy, rgb);
-            }
-        }
+        this.lightCommandCoalescer.submit(target, request.getDimPercent().orElse(null), xy);
 
         return ResponseEntity.ok(true);
     }
 
+    public record ApplySceneRequestDTO(
+        String sceneId,
+        String controlDeviceId,
+        List<SceneTargetDTO> targets
+    ) {}
+
+    public record ApplySceneResponseDTO(
+        Boolean status,
+        List<LightsService.SceneTargetResult> results
+    ) {}
+
+    /**
+     * Applies a scene {@code controlDeviceId} saved, by {@code sceneId}, or the {@code targets}
+     * given, in one request. {@code status} is true only if every target succeeded.
+     */
+    @PostMapping("/applyScene")
+    public ResponseEntity<ApplySceneResponseDTO> applyScene(@RequestBody ApplySceneRequestDTO body) {
+        List<SceneTarget> targets = body.sceneId() != null
+            ? this.favoritesService.getSceneTargets(body.sceneId(), body.controlDeviceId())
+            : this.favoritesService.buildTargets(body.targets());
+
+        List<LightsService.SceneTargetResult> results = this.lightsService.applyScene(targets);
+
+        return ResponseEntity.ok(new ApplySceneResponseDTO(
+            results.stream().allMatch(LightsService.SceneTargetResult::status), results));
+    }
+
     @GetMapping("/getCachedLightBulb/{id}")
     public ResponseEntity<Optional<LightBulbTrack>> getCachedLightBulb(@PathVariable String id) {
-        return ResponseEntity.ok(this.lightBulbTrackRepo.getCachedBulb(id));
+        return ResponseEntity.ok(this.lightBulbTrackRepo.getCachedBulb(id)
+            .map(this.lightStateWriteBuffer::overlay));
     }
 
     @GetMapping("/getBulbsForGroup/{groupId}")
@@ -121,4 +209,19 @@ public class LightsController {
 
         return response;
     }
+
+    /**
+     * Streams light changes as they happen. With no lightIds or groupIds every change is sent.
+     * Browsers resume on their own through Last-Event-ID; {@code since} does the same for
+     * clients that can't set it.
+     */
+    @GetMapping(path = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter events(
+        @RequestParam(required = false, defaultValue = "") List<String> lightIds,
+        @RequestParam(required = false, defaultValue = "") List<String> groupIds,
+        @RequestParam(required = false) Long since,
+        @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId
+    ) throws Exception {
+        return this.lightEventStream.subscribe(lightIds, groupIds, lastEventId != null ? lastEventId : since);
+    }
 }
@@ -3,33 +3,37 @@ package com.davidruffner.homecontrollerbackend.dtoConverters;
 import com.davidruffner.homecontrollerbackend.dtos.ForecastData;
 import jakarta.persistence.AttributeConverter;
 import jakarta.persistence.Converter;
+import tools.jackson.core.type.TypeReference;
 import tools.jackson.databind.ObjectMapper;
 
+import java.util.List;
+
 @Converter
-public class ForecastDataConverter implements AttributeConverter<ForecastData, String> {
+public class ForecastDataConverter implements AttributeConverter<List<ForecastData>, String> {
 
     private static final ObjectMapper mapper = new ObjectMapper();
+    private static final TypeReference<List<ForecastData>> FORECAST_DATA_LIST = new TypeReference<>() {};
 
 
     @Override
-    public String convertToDatabaseColumn(ForecastData forecastData) {
+    public String convertToDatabaseColumn(List<ForecastData> forecastData) {
         if (forecastData == null) return null;
 
         try {
             return mapper.writeValueAsString(forecastData);
         } catch (Exception ex) {
-            throw new IllegalArgumentException("failed to serialize ForecastData object");
+            throw new IllegalArgumentException("failed to serialize ForecastData list");
         }
     }
 
     @Override
-    public ForecastData convertToEntityAttribute(String s) {
+    public List<ForecastData> convertToEntityAttribute(String s) {
         if (s == null || s.isBlank()) return null;
 
         try {
-            return mapper.readValue(s, ForecastData.class);
+            return mapper.readValue(s, FORECAST_DATA_LIST);
         } catch (Exception ex) {
-            throw new IllegalArgumentException("Failed to deserialize ForecastData object");
+            throw new IllegalArgumentException("Failed to deserialize ForecastData list");
         }
     }
 }
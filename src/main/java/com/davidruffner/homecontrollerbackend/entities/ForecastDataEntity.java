@@ -8,8 +8,17 @@ import java.time.LocalDateTime;
 import java.util.List;
 import java.util.UUID;
 
+/**
+ * A forecast as fetched from NWS. Rows with a grid key are snapshots of the forecast cache: the
+ * raw response for that gridpoint and product (in type), one row each, kept so a restart can
+ * start warm.
+ */
 @Entity
-@Table(name = "forecast_data")
+@Table(name = "forecast_data", uniqueConstraints = {
+    @UniqueConstraint(name = "uk_forecast_data_grid_key_type", columnNames = {"grid_key", "type"})
+}, indexes = {
+    @Index(name = "idx_forecast_data_expires_time", columnList = "expires_time")
+})
 public class ForecastDataEntity {
     @Id
     @Column(name = "forecast_data_id", nullable = false)
@@ -19,12 +28,21 @@ public class ForecastDataEntity {
     private String type;
 
     @Convert(converter = ForecastDataConverter.class)
-    @Column(name = "forecast_data", nullable = false)
+    @Column(name = "forecast_data")
     private List<ForecastData> forecastData;
 
     @Column(name = "generated_time", nullable = false)
     private LocalDateTime generatedTime;
 
+    @Column(name = "grid_key")
+    private String gridKey;
+
+    @Column(name = "response", columnDefinition = "MEDIUMTEXT")
+    private String response;
+
+    @Column(name = "expires_time")
+    private LocalDateTime expiresTime;
+
     public ForecastDataEntity() {
         this.forecastDataId = UUID.randomUUID().toString();
     }
@@ -60,4 +78,28 @@ public class ForecastDataEntity {
     public void setGeneratedTime(LocalDateTime generatedTime) {
         this.generatedTime = generatedTime;
     }
+
+    public String getGridKey() {
+        return gridKey;
+    }
+
+    public void setGridKey(String gridKey) {
+        this.gridKey = gridKey;
+    }
+
+    public String getResponse() {
+        return response;
+    }
+
+    public void setResponse(String response) {
+        this.response = response;
+    }
+
+    public LocalDateTime getExpiresTime() {
+        return expiresTime;
+    }
+
+    public void setExpiresTime(LocalDateTime expiresTime) {
+        this.expiresTime = expiresTime;
+    }
 }
@@ -3,18 +3,18 @@ package com.davidruffner.homecontrollerbackend.entities;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.Table;
 
-import java.util.UUID;
+import java.util.Objects;
 
 @Entity
-@Table(name = "light_bulbs")
+@Table(name = "light_bulbs", indexes = {
+    @Index(name = "idx_light_bulbs_device_id", columnList = "device_id")
+})
 public class LightBulbTrack {
 
     @Id
-    @Column(name = "light_bulb_id", nullable = false)
-    private String lightBulbId;
-
     @Column(name = "light_id", nullable = false)
     private String lightId;
 
@@ -39,13 +39,7 @@ public class LightBulbTrack {
     @Column(name = "name", nullable = false)
     private String name;
 
-    public LightBulbTrack() {
-        this.lightBulbId = UUID.randomUUID().toString();
-    }
-
-    public String getLightBulbId() {
-        return lightBulbId;
-    }
+    public LightBulbTrack() {}
 
     public String getLightId() {
         return lightId;
@@ -115,6 +109,20 @@ public class LightBulbTrack {
         this.name = name;
     }
 
+    /**
+     * True when every tracked column matches, i.e. writing this row over {@code other} would be a no-op.
+     */
+    public boolean hasSameState(LightBulbTrack other) {
+        return Objects.equals(lightId, other.lightId)
+            && Objects.equals(deviceId, other.deviceId)
+            && Objects.equals(brightness, other.brightness)
+            && Objects.equals(red, other.red)
+            && Objects.equals(green, other.green)
+            && Objects.equals(blue, other.blue)
+            && Objects.equals(isOn, other.isOn)
+            && Objects.equals(name, other.name);
+    }
+
     public String getRGBAString() {
         StringBuilder builder = new StringBuilder("rgba(");
         builder.append(this.getRed())
@@ -0,0 +1,113 @@
+package com.davidruffner.homecontrollerbackend.entities;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+
+import java.time.LocalDateTime;
+
+/**
+ * The NWS gridpoint (forecast office and grid cell) a location falls in, as reported by
+ * /points/{lat},{lon}, along with the forecast URLs for it. Keyed by the lat/lon as sent to NWS.
+ */
+@Entity
+@Table(name = "nws_gridpoints")
+public class NWSGridpoint {
+
+    @Id
+    @Column(name = "location", nullable = false)
+    private String location;
+
+    @Column(name = "grid_id", nullable = false)
+    private String gridId;
+
+    @Column(name = "grid_x", nullable = false)
+    private Integer gridX;
+
+    @Column(name = "grid_y", nullable = false)
+    private Integer gridY;
+
+    @Column(name = "forecast_path", nullable = false)
+    private String forecastPath;
+
+    @Column(name = "forecast_hourly_path", nullable = false)
+    private String forecastHourlyPath;
+
+    @Column(name = "fetched_time", nullable = false)
+    private LocalDateTime fetchedTime;
+
+    public NWSGridpoint() {}
+
+    public NWSGridpoint(String location, String gridId, Integer gridX, Integer gridY, String forecastPath,
+                        String forecastHourlyPath, LocalDateTime fetchedTime) {
+        this.location = location;
+        this.gridId = gridId;
+        this.gridX = gridX;
+        this.gridY = gridY;
+        this.forecastPath = forecastPath;
+        this.forecastHourlyPath = forecastHourlyPath;
+        this.fetchedTime = fetchedTime;
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+    public void setLocation(String location) {
+        this.location = location;
+    }
+
+    public String getGridId() {
+        return gridId;
+    }
+
+    public void setGridId(String gridId) {
+        this.gridId = gridId;
+    }
+
+    public Integer getGridX() {
+        return gridX;
+    }
+
+    public void setGridX(Integer gridX) {
+        this.gridX = gridX;
+    }
+
+    public Integer getGridY() {
+        return gridY;
+    }
+
+    public void setGridY(Integer gridY) {
+        this.gridY = gridY;
+    }
+
+    public String getForecastPath() {
+        return forecastPath;
+    }
+
+    public void setForecastPath(String forecastPath) {
+        this.forecastPath = forecastPath;
+    }
+
+    public String getForecastHourlyPath() {
+        return forecastHourlyPath;
+    }
+
+    public void setForecastHourlyPath(String forecastHourlyPath) {
+        this.forecastHourlyPath = forecastHourlyPath;
+    }
+
+    public LocalDateTime getFetchedTime() {
+        return fetchedTime;
+    }
+
+    public void setFetchedTime(LocalDateTime fetchedTime) {
+        this.fetchedTime = fetchedTime;
+    }
+
+    // The gridpoint's own key, shared by every location that falls in it
+    public String getGridKey() {
+        return this.gridId + "/" + this.gridX + "," + this.gridY;
+    }
+}
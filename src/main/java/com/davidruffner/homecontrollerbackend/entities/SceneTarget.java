@@ -0,0 +1,173 @@
+package com.davidruffner.homecontrollerbackend.entities;
+
+import com.davidruffner.homecontrollerbackend.entities.ModifyLightRequest.RGBDTO;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+
+import java.util.UUID;
+
+/**
+ * One light or group's part of a saved scene; a scene is every row sharing a scene ID. The
+ * colour is kept as the xy it was converted to when the scene was saved, already clamped to the
+ * target's gamut, and as the RGB that xy shows (for the UI and cached state), so applying it
+ * needs no colour math.
+ */
+@Entity
+@Table(name = "scene_targets")
+public class SceneTarget {
+
+    public record SceneTargetDTO(
+        String lightId,
+        String groupId,
+        Boolean on,
+        Double brightness,
+        RGBDTO rgb
+    ) {}
+
+    @Id
+    @Column(name = "scene_target_id", nullable = false)
+    private String sceneTargetId;
+
+    @Column(name = "scene_id", nullable = false)
+    private String sceneId;
+
+    @Column(name = "scene_name", nullable = false)
+    private String sceneName;
+
+    @Column(name = "control_device_id", nullable = false)
+    private String controlDeviceId;
+
+    @Column(name = "light_id")
+    private String lightId;
+
+    @Column(name = "group_id")
+    private String groupId;
+
+    @Column(name = "is_on")
+    private Boolean isOn;
+
+    @Column(name = "brightness")
+    private Double brightness;
+
+    @Column(name = "color")
+    private String color; // Stored as red,green,blue,alpha
+
+    @Column(name = "color_x")
+    private Double colorX;
+
+    @Column(name = "color_y")
+    private Double colorY;
+
+    @Column(name = "index_num", nullable = false)
+    private Integer index;
+
+    public SceneTarget() {
+        this.sceneTargetId = UUID.randomUUID().toString();
+    }
+
+    public String getSceneTargetId() {
+        return sceneTargetId;
+    }
+
+    public void setSceneTargetId(String sceneTargetId) {
+        this.sceneTargetId = sceneTargetId;
+    }
+
+    public String getSceneId() {
+        return sceneId;
+    }
+
+    public void setSceneId(String sceneId) {
+        this.sceneId = sceneId;
+    }
+
+    public String getSceneName() {
+        return sceneName;
+    }
+
+    public void setSceneName(String sceneName) {
+        this.sceneName = sceneName;
+    }
+
+    public String getControlDeviceId() {
+        return controlDeviceId;
+    }
+
+    public void setControlDeviceId(String controlDeviceId) {
+        this.controlDeviceId = controlDeviceId;
+    }
+
+    public String getLightId() {
+        return lightId;
+    }
+
+    public void setLightId(String lightId) {
+        this.lightId = lightId;
+    }
+
+    public String getGroupId() {
+        return groupId;
+    }
+
+    public void setGroupId(String groupId) {
+        this.groupId = groupId;
+    }
+
+    public Boolean getIsOn() {
+        return isOn;
+    }
+
+    public void setIsOn(Boolean isOn) {
+        this.isOn = isOn;
+    }
+
+    public Double getBrightness() {
+        return brightness;
+    }
+
+    public void setBrightness(Double brightness) {
+        this.brightness = brightness;
+    }
+
+    public String getColor() {
+        return color;
+    }
+
+    public RGB getColorAsRGB() {
+        return this.color != null ? new RGB(this.color) : null;
+    }
+
+    public void setColor(String color) {
+        this.color = color;
+    }
+
+    public void setColorFromRGB(RGB rgbColor) {
+        this.color = rgbColor != null ? rgbColor.toString() : null;
+    }
+
+    public Double getColorX() {
+        return colorX;
+    }
+
+    public void setColorX(Double colorX) {
+        this.colorX = colorX;
+    }
+
+    public Double getColorY() {
+        return colorY;
+    }
+
+    public void setColorY(Double colorY) {
+        this.colorY = colorY;
+    }
+
+    public Integer getIndex() {
+        return index;
+    }
+
+    public void setIndex(Integer index) {
+        this.index = index;
+    }
+}
@@ -0,0 +1,112 @@
+package com.davidruffner.homecontrollerbackend.enums;
+
+import java.util.Map;
+import java.util.Optional;
+
+import static java.util.Map.entry;
+
+/**
+ * The colour gamuts Hue lights report in {@code color.gamut_type}, as the red, green and blue
+ * corners of the triangle (CIE xy) each one can actually show. OTHER is anything we don't know
+ * the corners for, and is left unclamped.
+ */
+public enum ColorGamut {
+    A("A", 0.704, 0.296, 0.2151, 0.7106, 0.138, 0.08),
+    B("B", 0.675, 0.322, 0.409, 0.518, 0.167, 0.04),
+    C("C", 0.6915, 0.3083, 0.17, 0.7, 0.1532, 0.0475),
+    OTHER("other", 0, 0, 0, 0, 0, 0);
+
+    private final String value;
+    private final double redX, redY, greenX, greenY, blueX, blueY;
+    private static final Map<String, ColorGamut> strMap = Map.ofEntries(
+        entry("A", A),
+        entry("B", B),
+        entry("C", C),
+        entry("other", OTHER)
+    );
+
+    ColorGamut(String value, double redX, double redY, double greenX, double greenY,
+        double blueX, double blueY) {
+
+        this.value = value;
+        this.redX = redX;
+        this.redY = redY;
+        this.greenX = greenX;
+        this.greenY = greenY;
+        this.blueX = blueX;
+        this.blueY = blueY;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public static Optional<ColorGamut> fromStrVal(String strVal) {
+        if (strVal == null || !strMap.containsKey(strVal)) {
+            return Optional.empty();
+        } else {
+            return Optional.of(strMap.get(strVal));
+        }
+    }
+
+    /**
+     * Moves xy onto the nearest point the light can show, writing the result into {@code xyOut}.
+     * Points already inside the triangle come back as they are. This is what the bridge does to
+     * anything out of range, so clamping first means what we cache is what the bulb reports.
+     */
+    public void clamp(double x, double y, double[] xyOut) {
+        if (this == OTHER || contains(x, y)) {
+            xyOut[0] = x;
+            xyOut[1] = y;
+            return;
+        }
+
+        double[] best = closestOnEdge(x, y, redX, redY, greenX, greenY);
+        double[] candidate = closestOnEdge(x, y, greenX, greenY, blueX, blueY);
+        if (distanceSquared(x, y, candidate) < distanceSquared(x, y, best)) {
+            best = candidate;
+        }
+        candidate = closestOnEdge(x, y, blueX, blueY, redX, redY);
+        if (distanceSquared(x, y, candidate) < distanceSquared(x, y, best)) {
+            best = candidate;
+        }
+
+        xyOut[0] = best[0];
+        xyOut[1] = best[1];
+    }
+
+    private boolean contains(double x, double y) {
+        double d1 = cross(x, y, redX, redY, greenX, greenY);
+        double d2 = cross(x, y, greenX, greenY, blueX, blueY);
+        double d3 = cross(x, y, blueX, blueY, redX, redY);
+
+        boolean hasNegative = d1 < 0 || d2 < 0 || d3 < 0;
+        boolean hasPositive = d1 > 0 || d2 > 0 || d3 > 0;
+
+        return !(hasNegative && hasPositive);
+    }
+
+    private static double cross(double x, double y, double ax, double ay, double bx, double by) {
+        return (x - bx) * (ay - by) - (ax - bx) * (y - by);
+    }
+
+    private static double[] closestOnEdge(double x, double y, double ax, double ay, double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double t = ((x - ax) * dx + (y - ay) * dy) / (dx * dx + dy * dy);
+        t = Math.min(Math.max(t, 0), 1);
+
+        return new double[] { ax + t * dx, ay + t * dy };
+    }
+
+    private static double distanceSquared(double x, double y, double[] point) {
+        double dx = x - point[0];
+        double dy = y - point[1];
+        return dx * dx + dy * dy;
+    }
+
+    @Override
+    public String toString() {
+        return this.getValue();
+    }
+}
@@ -11,6 +11,7 @@ import java.util.stream.Collectors;
 public enum ResponseCode {
     OK(200),
     BAD_REQUEST(400),
+    NOT_FOUND(404),
     SYSTEM_EXCEPTION(500);
 
     private int responseCodeInt;
@@ -25,6 +26,7 @@ public enum ResponseCode {
     private static final Map<ResponseCode, HttpStatus> HTTP_STATUS_LOOKUP = Map.of(
         OK, HttpStatus.OK,
         BAD_REQUEST, HttpStatus.BAD_REQUEST,
+        NOT_FOUND, HttpStatus.NOT_FOUND,
         SYSTEM_EXCEPTION, HttpStatus.INTERNAL_SERVER_ERROR
     );
 
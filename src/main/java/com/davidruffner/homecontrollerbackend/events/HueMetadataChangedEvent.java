@@ -0,0 +1,9 @@
+package com.davidruffner.homecontrollerbackend.events;
+
+/**
+ * Published when a light, device or room on the bridge is renamed without the topology changing,
+ * so anything showing names (the room and bulb listings, their ETags) knows to refresh.
+ */
+public record HueMetadataChangedEvent(
+    String resourceType
+) {}
@@ -0,0 +1,10 @@
+package com.davidruffner.homecontrollerbackend.events;
+
+/**
+ * Published whenever lights, rooms, grouped lights or devices are added or removed on the bridge,
+ * or lights move between rooms, so anything derived from the room layout can be rebuilt. Plain
+ * state updates don't count, and renames are a {@link HueMetadataChangedEvent}.
+ */
+public record HueTopologyChangedEvent(
+    String resourceType
+) {}
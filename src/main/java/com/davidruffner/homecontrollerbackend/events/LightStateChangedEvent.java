@@ -0,0 +1,14 @@
+package com.davidruffner.homecontrollerbackend.events;
+
+import com.davidruffner.homecontrollerbackend.entities.RGB;
+
+/**
+ * A change to one bulb's state. {@code id} is either its light ID or its device ID, the same as
+ * the cached bulb lookups accept. Null fields didn't change.
+ */
+public record LightStateChangedEvent(
+    String id,
+    Boolean isOn,
+    Double brightness,
+    RGB color
+) {}
@@ -2,7 +2,9 @@ package com.davidruffner.homecontrollerbackend.repositories;
 
 import com.davidruffner.homecontrollerbackend.dtos.ForecastData;
 import com.davidruffner.homecontrollerbackend.entities.ForecastDataEntity;
+import jakarta.transaction.Transactional;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
@@ -12,7 +14,9 @@ import java.time.OffsetDateTime;
 import java.util.List;
 
 @Repository
-public interface ForecastDataRepository extends JpaRepository<ForecastDataEntity, String> {
+public interface ForecastDataRepository extends JpaRepository<ForecastDataEntity, String>,
+    ForecastDataRepositoryCustom {
+
     @Query("""
     SELECT f
     FROM ForecastDataEntity f
@@ -24,6 +28,21 @@ public interface ForecastDataRepository extends JpaRepository<ForecastDataEntity
         @Param("end") LocalDateTime end
     );
 
+    @Query("""
+        select f from ForecastDataEntity f
+        where f.gridKey is not null
+            and f.expiresTime > :cutoff
+    """)
+    List<ForecastDataEntity> findSnapshotsExpiringAfter(@Param("cutoff") LocalDateTime cutoff);
+
+    @Modifying
+    @Transactional
+    @Query("""
+        delete from ForecastDataEntity f
+        where f.expiresTime < :cutoff
+    """)
+    int deleteSnapshotsExpiredBefore(@Param("cutoff") LocalDateTime cutoff);
+
 //    @Query("""
 //        delete ForecastDataEntity f
 //        where f.type = "today"
@@ -0,0 +1,13 @@
+package com.davidruffner.homecontrollerbackend.repositories;
+
+import com.davidruffner.homecontrollerbackend.entities.ForecastDataEntity;
+
+import java.util.Collection;
+
+public interface ForecastDataRepositoryCustom {
+    /**
+     * Writes each snapshot over the row already kept for its grid key and type, or adds one if
+     * there isn't one yet, in one JDBC batch.
+     */
+    void upsertSnapshots(Collection<ForecastDataEntity> snapshots);
+}
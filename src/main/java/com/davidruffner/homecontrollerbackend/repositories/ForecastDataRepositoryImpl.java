@@ -0,0 +1,42 @@
+package com.davidruffner.homecontrollerbackend.repositories;
+
+import com.davidruffner.homecontrollerbackend.entities.ForecastDataEntity;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.util.Collection;
+
+public class ForecastDataRepositoryImpl implements ForecastDataRepositoryCustom {
+
+    // Relies on uk_forecast_data_grid_key_type; forecast_data_id is only used for a new row
+    private static final String UPSERT_SNAPSHOT = """
+        insert into forecast_data (forecast_data_id, type, generated_time, grid_key, response, expires_time)
+        values (?, ?, ?, ?, ?, ?)
+        on duplicate key update
+            generated_time = values(generated_time),
+            response = values(response),
+            expires_time = values(expires_time)
+        """;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Override
+    @Transactional
+    public void upsertSnapshots(Collection<ForecastDataEntity> snapshots) {
+        if (snapshots.isEmpty()) {
+            return;
+        }
+
+        this.jdbcTemplate.batchUpdate(UPSERT_SNAPSHOT, snapshots, snapshots.size(), (ps, snapshot) -> {
+            ps.setString(1, snapshot.getForecastDataId());
+            ps.setString(2, snapshot.getType());
+            ps.setTimestamp(3, Timestamp.valueOf(snapshot.getGeneratedTime()));
+            ps.setString(4, snapshot.getGridKey());
+            ps.setString(5, snapshot.getResponse());
+            ps.setTimestamp(6, Timestamp.valueOf(snapshot.getExpiresTime()));
+        });
+    }
+}
@@ -0,0 +1,39 @@
+package com.davidruffner.homecontrollerbackend.repositories;
+
+import com.davidruffner.homecontrollerbackend.entities.LightBulbTrack;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface LightBulbTrackRepositoryCustom {
+    /**
+     * New state for the bulb whose light or device ID is {@code id}. Null values are left as they are.
+     */
+    record LightStateUpdate(
+        String id,
+        Boolean isOn,
+        Double brightness,
+        Double red,
+        Double green,
+        Double blue
+    ) {}
+
+    record TrackDiff(
+        List<LightBulbTrack> upserts,
+        List<String> deletes
+    ) {}
+
+    /**
+     * Makes the light_bulbs table match {@code tracks}: rows whose state changed (or are new) are
+     * upserted, rows for lights no longer on the bridge are deleted, and everything else is left
+     * untouched.
+     *
+     * @return the rows that were written and the light IDs that were deleted
+     */
+    TrackDiff syncAll(Collection<LightBulbTrack> tracks);
+
+    /**
+     * Applies every update in one JDBC batch.
+     */
+    void updateStates(List<LightStateUpdate> updates);
+}
@@ -0,0 +1,125 @@
+package com.davidruffner.homecontrollerbackend.repositories;
+
+import com.davidruffner.homecontrollerbackend.entities.LightBulbTrack;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Types;
+import java.util.*;
+
+public class LightBulbTrackRepositoryImpl implements LightBulbTrackRepositoryCustom {
+
+    private static final String SELECT_ALL = """
+        select light_id, device_id, brightness, red, green, blue, is_on, name
+        from light_bulbs
+        """;
+
+    private static final String UPSERT = """
+        insert into light_bulbs (light_id, device_id, brightness, red, green, blue, is_on, name)
+        values (?, ?, ?, ?, ?, ?, ?, ?)
+        on duplicate key update
+            device_id = values(device_id),
+            brightness = values(brightness),
+            red = values(red),
+            green = values(green),
+            blue = values(blue),
+            is_on = values(is_on),
+            name = values(name)
+        """;
+
+    private static final String DELETE = "delete from light_bulbs where light_id = ?";
+
+    private static final String UPDATE_STATE = """
+        update light_bulbs
+            set is_on = coalesce(?, is_on),
+                brightness = coalesce(?, brightness),
+                red = coalesce(?, red),
+                green = coalesce(?, green),
+                blue = coalesce(?, blue)
+        where light_id = ?
+        or device_id = ?
+        """;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Override
+    @Transactional
+    public TrackDiff syncAll(Collection<LightBulbTrack> tracks) {
+        Map<String, LightBulbTrack> existing = new HashMap<>();
+        this.jdbcTemplate.query(SELECT_ALL, rs -> {
+            LightBulbTrack track = new LightBulbTrack();
+            track.setLightId(rs.getString("light_id"));
+            track.setDeviceId(rs.getString("device_id"));
+            track.setBrightness(rs.getDouble("brightness"));
+            track.setRed(rs.getDouble("red"));
+            track.setGreen(rs.getDouble("green"));
+            track.setBlue(rs.getDouble("blue"));
+            track.setIsOn(rs.getInt("is_on") == 1);
+            track.setName(rs.getString("name"));
+
+            existing.put(track.getLightId(), track);
+        });
+
+        TrackDiff diff = diff(existing, tracks);
+
+        if (!diff.upserts().isEmpty()) {
+            this.jdbcTemplate.batchUpdate(UPSERT, diff.upserts(), diff.upserts().size(), (ps, track) -> {
+                ps.setString(1, track.getLightId());
+                ps.setString(2, track.getDeviceId());
+                ps.setDouble(3, track.getBrightness());
+                ps.setDouble(4, track.getRed());
+                ps.setDouble(5, track.getGreen());
+                ps.setDouble(6, track.getBlue());
+                ps.setInt(7, track.getIsOn() ? 1 : 0);
+                ps.setString(8, track.getName());
+            });
+        }
+
+        if (!diff.deletes().isEmpty()) {
+            this.jdbcTemplate.batchUpdate(DELETE, diff.deletes(), diff.deletes().size(),
+                (ps, lightId) -> ps.setString(1, lightId));
+        }
+
+        return diff;
+    }
+
+    @Override
+    @Transactional
+    public void updateStates(List<LightStateUpdate> updates) {
+        if (updates.isEmpty()) {
+            return;
+        }
+
+        this.jdbcTemplate.batchUpdate(UPDATE_STATE, updates, updates.size(), (ps, update) -> {
+            ps.setObject(1, update.isOn() != null ? (update.isOn() ? 1 : 0) : null, Types.INTEGER);
+            ps.setObject(2, update.brightness(), Types.DOUBLE);
+            ps.setObject(3, update.red(), Types.DOUBLE);
+            ps.setObject(4, update.green(), Types.DOUBLE);
+            ps.setObject(5, update.blue(), Types.DOUBLE);
+            ps.setString(6, update.id());
+            ps.setString(7, update.id());
+        });
+    }
+
+    static TrackDiff diff(Map<String, LightBulbTrack> existing, Collection<LightBulbTrack> tracks) {
+        List<LightBulbTrack> upserts = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+
+        tracks.forEach(track -> {
+            seen.add(track.getLightId());
+
+            LightBulbTrack current = existing.get(track.getLightId());
+            if (current == null || !current.hasSameState(track)) {
+                upserts.add(track);
+            }
+        });
+
+        List<String> deletes = existing.keySet().stream()
+            .filter(lightId -> !seen.contains(lightId))
+            .toList();
+
+        return new TrackDiff(upserts, deletes);
+    }
+}
@@ -0,0 +1,9 @@
+package com.davidruffner.homecontrollerbackend.repositories;
+
+import com.davidruffner.homecontrollerbackend.entities.NWSGridpoint;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface NWSGridpointRepository extends JpaRepository<NWSGridpoint, String> {
+}
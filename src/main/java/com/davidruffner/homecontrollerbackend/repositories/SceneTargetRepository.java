@@ -0,0 +1,37 @@
+package com.davidruffner.homecontrollerbackend.repositories;
+
+import com.davidruffner.homecontrollerbackend.entities.SceneTarget;
+import jakarta.transaction.Transactional;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface SceneTargetRepository extends JpaRepository<SceneTarget, String> {
+
+    @Query("""
+        select t from SceneTarget t
+        where t.sceneId = :sceneId
+        order by t.index
+    """)
+    public List<SceneTarget> getTargetsForScene(@Param("sceneId") String sceneId);
+
+    @Query("""
+        select t from SceneTarget t
+        where t.controlDeviceId = :controlDeviceId
+        order by t.sceneName, t.sceneId, t.index
+    """)
+    public List<SceneTarget> getScenesForDevice(@Param("controlDeviceId") String controlDeviceId);
+
+    @Modifying
+    @Transactional
+    @Query("""
+        delete from SceneTarget t
+        where t.sceneId = :sceneId
+    """)
+    public void deleteBySceneId(@Param("sceneId") String sceneId);
+}
@@ -37,4 +37,16 @@ public interface UserSettingsRepository extends JpaRepository<UserSettings, Stri
         select us.username, us.name from UserSettings us
     """)
     public List<UserAndName> getAllUsers();
+
+    interface UserLocation {
+        String getLat();
+        String getLon();
+    }
+
+    @Query("""
+        select distinct us.lat as lat, us.lon as lon from UserSettings us
+        where us.lat is not null
+            and us.lon is not null
+    """)
+    List<UserLocation> getDistinctLocations();
 }
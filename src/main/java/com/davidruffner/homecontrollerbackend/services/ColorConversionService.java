@@ -1,71 +1,161 @@
 package com.davidruffner.homecontrollerbackend.services;
 
 import com.davidruffner.homecontrollerbackend.entities.RGB;
+import com.davidruffner.homecontrollerbackend.enums.ColorGamut;
 import org.springframework.stereotype.Service;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * sRGB <-> CIE xy (D65) conversions for the Hue API.
+ *
+ * Gamma is done with lookup tables rather than Math.pow. Going from 8-bit sRGB to linear there
+ * are only 256 possible inputs, so that table is exact. Going back, the result is rounded to
+ * 8 bits anyway, so a table of the linear values where each output level starts gives the same
+ * answer as the formula; a finer table indexed by the linear value picks the starting level so
+ * it's at most a step or two of search.
+ *
+ * Colours headed for a particular light go through {@link #rgbToXy(RGB, ColorGamut)}, which clamps
+ * into the light's gamut and remembers the answer, since the same favourites and presets get
+ * applied over and over.
+ */
 @Service
 public class ColorConversionService {
 
-    public record xyToXYZDTO(
-        Double X,
-        Double Y,
-        Double Z
-    ) {}
+    public record RgbToXyDto(Double x, Double y) {}
 
-    private xyToXYZDTO xyToXYZ(double x, double y, double Y) {
-        if (y == 0) {
-            return new xyToXYZDTO(0d, 0d, 0d);
+    private static final int FORWARD_STEPS = 4096;
+    private static final int MAX_CACHED_CONVERSIONS = 4096;
+
+    // 8-bit sRGB channel -> linear 0..1
+    private static final double[] INVERSE_GAMMA = new double[256];
+
+    // ENCODE_THRESHOLDS[k] is the smallest linear value that encodes to 8-bit level k
+    private static final double[] ENCODE_THRESHOLDS = new double[257];
+
+    // 8-bit level of linear i / FORWARD_STEPS, a lower bound for anything in that step
+    private static final byte[] FORWARD_GAMMA = new byte[FORWARD_STEPS + 1];
+
+    // (gamut, 8-bit RGB) -> clamped xy, least recently used dropped first
+    private final Map<Integer, RgbToXyDto> gamutConversions =
+        new LinkedHashMap<>(MAX_CACHED_CONVERSIONS, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, RgbToXyDto> eldest) {
+                return size() > MAX_CACHED_CONVERSIONS;
+            }
+        };
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            INVERSE_GAMMA[i] = inverseGammaCorrect(i / 255.0);
         }
 
-        return new xyToXYZDTO(
-            (x * Y) / y,
-            Y,
-            ((1 - x - y) * Y) / y
-        );
+        ENCODE_THRESHOLDS[0] = Double.NEGATIVE_INFINITY;
+        for (int level = 1; level < 256; level++) {
+            ENCODE_THRESHOLDS[level] = findThreshold(level);
+        }
+        ENCODE_THRESHOLDS[256] = Double.POSITIVE_INFINITY;
+
+        for (int i = 0; i <= FORWARD_STEPS; i++) {
+            FORWARD_GAMMA[i] = (byte) encodeGamma((double) i / FORWARD_STEPS);
+        }
     }
 
-    private RGB xyToLinearRgb(double X, double Y, double Z) {
-        return new RGB(
-            3.2406 * X - 1.5372 * Y - 0.4986 * Z,
-            -0.9689 * X + 1.8758 * Y + 0.0415 * Z,
-            0.0557 * X - 0.2040 * Y + 1.0570 * Z
-        );
+    /**
+     * Inverse gamma correction for sRGB.
+     * Converts gamma-encoded sRGB (0..1) to linear RGB.
+     */
+    private static double inverseGammaCorrect(double val) {
+        return val <= 0.04045
+            ? (val / 12.92)
+            : Math.pow((val + 0.055) / 1.055, 2.4);
     }
 
-    private Double gammaCorrect(Double val) {
+    private static double gammaCorrect(double val) {
         return val <= 0.0031308
             ? 12.92 * val
             : 1.055 * Math.pow(val, 1 / 2.4) - 0.055;
     }
 
-    private RGB toRGB255(RGB rgb) {
-        return new RGB(
-            (double) Math.round(Math.min(Math.max(gammaCorrect(rgb.getRed()), 0), 1) * 255),
-            (double) Math.round(Math.min(Math.max(gammaCorrect(rgb.getGreen()), 0), 1) * 255),
-            (double) Math.round(Math.min(Math.max(gammaCorrect(rgb.getBlue()), 0), 1) * 255)
-        );
+    private static long gammaCorrect255(double linear) {
+        return Math.round(Math.min(Math.max(gammaCorrect(linear), 0), 1) * 255);
     }
 
-    public record RgbToXyDto(Double x, Double y) {}
+    // Bisects for the smallest linear value whose gamma-corrected 8-bit value reaches level
+    private static double findThreshold(int level) {
+        double lo = 0;
+        double hi = 1;
+
+        while (true) {
+            double mid = (lo + hi) / 2;
+            if (mid <= lo || mid >= hi) {
+                return hi;
+            }
+
+            if (gammaCorrect255(mid) >= level) {
+                hi = mid;
+            } else {
+                lo = mid;
+            }
+        }
+    }
 
     /**
-     * Inverse gamma correction for sRGB.
-     * Converts gamma-encoded sRGB (0..1) to linear RGB.
+     * Linear 0..1 -> gamma-encoded 8-bit channel, clamped.
      */
-    private Double inverseGammaCorrect(Double val) {
-        if (val == null) return 0d;
+    private static int encodeGamma(double linear) {
+        if (!(linear > 0)) {
+            return 0;
+        }
+        if (linear >= 1) {
+            return 255;
+        }
 
-        double v = val;
-        return v <= 0.04045
-            ? (v / 12.92)
-            : Math.pow((v + 0.055) / 1.055, 2.4);
+        int level = FORWARD_GAMMA[(int) (linear * FORWARD_STEPS)] & 0xFF;
+        while (linear >= ENCODE_THRESHOLDS[level + 1]) {
+            level++;
+        }
+
+        return level;
     }
 
-    // Overload so you can call inverseGammaCorrect with primitives too
-    private double inverseGammaCorrect(double val) {
-        return val <= 0.04045
-            ? (val / 12.92)
-            : Math.pow((val + 0.055) / 1.055, 2.4);
+    /**
+     * Converts CIE xy plus luminance to 8-bit sRGB, packed as 0xRRGGBB. Allocation free.
+     */
+    public int xyToPackedRgb(double x, double y, double Y) {
+        if (y == 0) {
+            return 0;
+        }
+
+        // xyY -> XYZ
+        double X = (x * Y) / y;
+        double Z = ((1 - x - y) * Y) / y;
+
+        // XYZ -> linear RGB (D65)
+        double r = 3.2406 * X - 1.5372 * Y - 0.4986 * Z;
+        double g = -0.9689 * X + 1.8758 * Y + 0.0415 * Z;
+        double b = 0.0557 * X - 0.2040 * Y + 1.0570 * Z;
+
+        return encodeGamma(r) << 16 | encodeGamma(g) << 8 | encodeGamma(b);
+    }
+
+    public RGB xyToRGB(Double x, Double y, Double Y) {
+        int packed = xyToPackedRgb(x, y, Y);
+
+        return new RGB(
+            (double) ((packed >> 16) & 0xFF),
+            (double) ((packed >> 8) & 0xFF),
+            (double) (packed & 0xFF)
+        );
+    }
+
+    /**
+     * Converts 8-bit sRGB channels to CIE xy (D65), writing x and y into {@code xyOut}.
+     * Allocation free.
+     */
+    public void rgbToXy(int red, int green, int blue, double[] xyOut) {
+        xyFromLinear(INVERSE_GAMMA[red], INVERSE_GAMMA[green], INVERSE_GAMMA[blue], xyOut);
     }
 
     /**
@@ -75,31 +165,97 @@ public class ColorConversionService {
     public RgbToXyDto rgbToXy(RGB rgb) {
         if (rgb == null) return new RgbToXyDto(0d, 0d);
 
-        // 1) Normalize to 0..1
-        double r = (rgb.getRed() == null ? 0d : rgb.getRed()) / 255.0;
-        double g = (rgb.getGreen() == null ? 0d : rgb.getGreen()) / 255.0;
-        double b = (rgb.getBlue() == null ? 0d : rgb.getBlue()) / 255.0;
+        double[] xy = new double[2];
+        xyFromLinear(toLinear(rgb.getRed()), toLinear(rgb.getGreen()), toLinear(rgb.getBlue()), xy);
 
-        // 2) sRGB -> linear
-        r = inverseGammaCorrect(r);
-        g = inverseGammaCorrect(g);
-        b = inverseGammaCorrect(b);
+        return new RgbToXyDto(xy[0], xy[1]);
+    }
+
+    // Whole 0..255 values (which is all the UI sends) come from the table, anything else is computed
+    private static double toLinear(Double channel) {
+        if (channel == null) {
+            return 0d;
+        }
+
+        double value = channel;
+        if (value >= 0 && value <= 255 && value == Math.rint(value)) {
+            return INVERSE_GAMMA[(int) value];
+        }
 
-        // 3) Linear RGB -> XYZ (D65)
+        return inverseGammaCorrect(value / 255.0);
+    }
+
+    private static void xyFromLinear(double r, double g, double b, double[] xyOut) {
+        // Linear RGB -> XYZ (D65)
         double X = r * 0.4124 + g * 0.3576 + b * 0.1805;
         double Y = r * 0.2126 + g * 0.7152 + b * 0.0722;
         double Z = r * 0.0193 + g * 0.1192 + b * 0.9505;
 
-        // 4) XYZ -> xy
+        // XYZ -> xy
         double sum = X + Y + Z;
-        if (sum == 0.0) return new RgbToXyDto(0d, 0d);
+        if (sum == 0.0) {
+            xyOut[0] = 0;
+            xyOut[1] = 0;
+            return;
+        }
 
-        return new RgbToXyDto(X / sum, Y / sum);
+        xyOut[0] = X / sum;
+        xyOut[1] = Y / sum;
     }
 
-    public RGB xyToRGB(Double x, Double y, Double Y) {
-        xyToXYZDTO xyToXyz = xyToXYZ(x, y, Y);
-        RGB linearRgb = xyToLinearRgb(xyToXyz.X, xyToXyz.Y, xyToXyz.Z);
-        return toRGB255(linearRgb);
+    /**
+     * Converts an RGB colour to xy clamped into {@code gamut}. Channels are rounded to whole
+     * 0..255 values, which is also what the memo is keyed on.
+     */
+    public RgbToXyDto rgbToXy(RGB rgb, ColorGamut gamut) {
+        if (rgb == null) return new RgbToXyDto(0d, 0d);
+
+        int red = quantize(rgb.getRed());
+        int green = quantize(rgb.getGreen());
+        int blue = quantize(rgb.getBlue());
+        int key = gamut.ordinal() << 24 | red << 16 | green << 8 | blue;
+
+        synchronized (this.gamutConversions) {
+            RgbToXyDto cached = this.gamutConversions.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        double[] xy = new double[2];
+        rgbToXy(red, green, blue, xy);
+        gamut.clamp(xy[0], xy[1], xy);
+        RgbToXyDto converted = new RgbToXyDto(xy[0], xy[1]);
+
+        synchronized (this.gamutConversions) {
+            this.gamutConversions.put(key, converted);
+        }
+
+        return converted;
+    }
+
+    public RgbToXyDto clampToGamut(RgbToXyDto xy, ColorGamut gamut) {
+        if (xy == null || gamut == ColorGamut.OTHER) {
+            return xy;
+        }
+
+        double[] clamped = new double[2];
+        gamut.clamp(xy.x(), xy.y(), clamped);
+
+        return clamped[0] == xy.x() && clamped[1] == xy.y() ? xy : new RgbToXyDto(clamped[0], clamped[1]);
+    }
+
+    int getCachedConversionCount() {
+        synchronized (this.gamutConversions) {
+            return this.gamutConversions.size();
+        }
+    }
+
+    private static int quantize(Double channel) {
+        if (channel == null) {
+            return 0;
+        }
+
+        return (int) Math.min(Math.max(Math.round(channel), 0), 255);
     }
 }
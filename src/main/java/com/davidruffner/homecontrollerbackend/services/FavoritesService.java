@@ -1,19 +1,152 @@
 package com.davidruffner.homecontrollerbackend.services;
 
 import com.davidruffner.homecontrollerbackend.entities.RGB;
+import com.davidruffner.homecontrollerbackend.entities.SceneTarget;
+import com.davidruffner.homecontrollerbackend.entities.SceneTarget.SceneTargetDTO;
+import com.davidruffner.homecontrollerbackend.enums.ResponseCode;
+import com.davidruffner.homecontrollerbackend.exceptions.ControllerException;
 import com.davidruffner.homecontrollerbackend.repositories.FavoriteColorRepository;
-import org.springframework.beans.factory.annotation.Autowired;
+import com.davidruffner.homecontrollerbackend.repositories.SceneTargetRepository;
+import com.davidruffner.homecontrollerbackend.services.ColorConversionService.RgbToXyDto;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
 @Service
 public class FavoritesService {
 
-    @Autowired
-    FavoriteColorRepository favoriteColorRepo;
+    final FavoriteColorRepository favoriteColorRepo;
+    final SceneTargetRepository sceneTargetRepo;
+    final LightsService lightsService;
+    final ColorConversionService colorConversionService;
+
+    public FavoritesService(
+        FavoriteColorRepository favoriteColorRepo,
+        SceneTargetRepository sceneTargetRepo,
+        LightsService lightsService,
+        ColorConversionService colorConversionService) {
+
+        this.favoriteColorRepo = favoriteColorRepo;
+        this.sceneTargetRepo = sceneTargetRepo;
+        this.lightsService = lightsService;
+        this.colorConversionService = colorConversionService;
+    }
 
 //    public List<RGB> getFavoriteColorsForSingleLight() {
 //
 //    }
+
+    public record SceneDto(
+        String sceneId,
+        String name,
+        List<SceneTarget> targets
+    ) {}
+
+    /**
+     * Saves a scene, replacing any scene already saved under {@code sceneId} by the same control
+     * device. A new ID is made up when none is given.
+     */
+    @Transactional
+    public SceneDto saveScene(String sceneId, String name, String controlDeviceId, List<SceneTargetDTO> targets) {
+        if (name == null || controlDeviceId == null) {
+            throw new ControllerException("A scene needs a name and control device ID", ResponseCode.BAD_REQUEST);
+        }
+        if (sceneId != null && this.sceneTargetRepo.getTargetsForScene(sceneId).stream()
+            .anyMatch(target -> !controlDeviceId.equals(target.getControlDeviceId()))) {
+            throw new ControllerException(String.format("Scene '%s' belongs to another device", sceneId),
+                ResponseCode.BAD_REQUEST);
+        }
+
+        String id = sceneId != null ? sceneId : UUID.randomUUID().toString();
+        List<SceneTarget> sceneTargets = buildTargets(targets);
+        sceneTargets.forEach(target -> {
+            target.setSceneId(id);
+            target.setSceneName(name);
+            target.setControlDeviceId(controlDeviceId);
+        });
+
+        this.sceneTargetRepo.deleteBySceneId(id);
+        this.sceneTargetRepo.saveAll(sceneTargets);
+
+        return new SceneDto(id, name, sceneTargets);
+    }
+
+    public List<SceneDto> getScenes(String controlDeviceId) {
+        Map<String, List<SceneTarget>> targetsBySceneId = new LinkedHashMap<>();
+        this.sceneTargetRepo.getScenesForDevice(controlDeviceId).forEach(target ->
+            targetsBySceneId.computeIfAbsent(target.getSceneId(), k -> new ArrayList<>()).add(target));
+
+        return targetsBySceneId.entrySet().stream()
+            .map(entry -> new SceneDto(entry.getKey(), entry.getValue().getFirst().getSceneName(), entry.getValue()))
+            .toList();
+    }
+
+    /**
+     * The targets of a scene saved by {@code controlDeviceId}. Like {@link #getScenes}, another
+     * device's scenes aren't visible to it.
+     *
+     * @throws ControllerException with NOT_FOUND if that device has no such scene
+     */
+    public List<SceneTarget> getSceneTargets(String sceneId, String controlDeviceId) {
+        if (controlDeviceId == null) {
+            throw new ControllerException("A saved scene needs a control device ID", ResponseCode.BAD_REQUEST);
+        }
+
+        List<SceneTarget> targets = this.sceneTargetRepo.getTargetsForScene(sceneId);
+        if (targets.isEmpty() || targets.stream()
+            .anyMatch(target -> !controlDeviceId.equals(target.getControlDeviceId()))) {
+            throw new ControllerException(String.format("No scene with ID '%s'", sceneId), ResponseCode.NOT_FOUND);
+        }
+
+        return targets;
+    }
+
+    /**
+     * Turns requested targets into (unsaved) scene rows, converting each colour to xy clamped to
+     * the gamut of the light or group it's for. The RGB kept is what that xy shows, so applying
+     * the scene can send and cache both as they are.
+     */
+    public List<SceneTarget> buildTargets(List<SceneTargetDTO> targets) {
+        if (targets == null || targets.isEmpty()) {
+            throw new ControllerException("A scene needs at least one target", ResponseCode.BAD_REQUEST);
+        }
+
+        List<SceneTarget> sceneTargets = new ArrayList<>(targets.size());
+        for (SceneTargetDTO dto : targets) {
+            if ((dto.lightId() == null) == (dto.groupId() == null)) {
+                throw new ControllerException("Each scene target needs exactly one of lightId or groupId",
+                    ResponseCode.BAD_REQUEST);
+            } else if (dto.on() == null && dto.brightness() == null && dto.rgb() == null) {
+                throw new ControllerException("Each scene target needs on, brightness or rgb",
+                    ResponseCode.BAD_REQUEST);
+            }
+
+            SceneTarget target = new SceneTarget();
+            target.setLightId(dto.lightId());
+            target.setGroupId(dto.groupId());
+            target.setIsOn(dto.on());
+            target.setBrightness(dto.brightness());
+            target.setIndex(sceneTargets.size());
+
+            if (dto.rgb() != null) {
+                RGB rgb = new RGB(dto.rgb().red(), dto.rgb().green(), dto.rgb().blue(), dto.rgb().alpha());
+                RgbToXyDto xy = dto.lightId() != null
+                    ? this.lightsService.rgbToXyForLight(dto.lightId(), rgb)
+                    : this.lightsService.rgbToXyForGroup(dto.groupId(), rgb);
+
+                target.setColorFromRGB(this.colorConversionService.xyToRGB(xy.x(), xy.y(), 1d));
+                target.setColorX(xy.x());
+                target.setColorY(xy.y());
+            }
+
+            sceneTargets.add(target);
+        }
+
+        return sceneTargets;
+    }
 }
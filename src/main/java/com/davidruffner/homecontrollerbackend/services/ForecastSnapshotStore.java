@@ -0,0 +1,134 @@
+package com.davidruffner.homecontrollerbackend.services;
+
+import com.davidruffner.homecontrollerbackend.config.WeatherConfig;
+import com.davidruffner.homecontrollerbackend.entities.ForecastDataEntity;
+import com.davidruffner.homecontrollerbackend.repositories.ForecastDataRepository;
+import com.davidruffner.homecontrollerbackend.services.NWSForecastCache.Product;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The latest forecast NWSForecastCache fetched for each gridpoint and product, kept in
+ * forecast_data so that after a restart the cache starts from them rather than everybody asking
+ * NWS at once. Saves are write-behind: merged per gridpoint and product (latest wins) and
+ * upserted in one JDBC batch every app.weather.snapshots.flushInterval, and once more on
+ * shutdown, so a fetch never waits on the database. Snapshots are purged once they've been
+ * expired for app.weather.snapshots.retention.
+ *
+ * Times are stored in UTC.
+ */
+@Component
+public class ForecastSnapshotStore {
+
+    private static final Logger log = LoggerFactory.getLogger(ForecastSnapshotStore.class);
+
+    @Autowired
+    ForecastDataRepository forecastDataRepo;
+
+    @Autowired
+    WeatherConfig weatherConfig;
+
+    public record Snapshot(
+        String gridKey,
+        Product product,
+        String response,
+        Instant expiresAt
+    ) {}
+
+    // Keyed by grid key and product, so a newer fetch replaces one not yet written
+    private final Map<String, ForecastDataEntity> pending = new ConcurrentHashMap<>();
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    /**
+     * Queues {@code snapshot} to be written on the next flush.
+     */
+    public void save(Snapshot snapshot) {
+        ForecastDataEntity entity = new ForecastDataEntity();
+        entity.setGridKey(snapshot.gridKey());
+        entity.setType(snapshot.product().getValue());
+        entity.setResponse(snapshot.response());
+        entity.setGeneratedTime(LocalDateTime.now(ZoneOffset.UTC));
+        entity.setExpiresTime(toUtc(snapshot.expiresAt()));
+
+        this.pending.put(entity.getGridKey() + ":" + entity.getType(), entity);
+    }
+
+    public int getPendingCount() {
+        return this.pending.size();
+    }
+
+    /**
+     * The snapshot of each gridpoint and product, leaving out any that expired before
+     * {@code expiredAfter}. There's only ever one row for each, so this reads no more than that.
+     */
+    public List<Snapshot> getLatest(Instant expiredAfter) {
+        return this.forecastDataRepo.findSnapshotsExpiringAfter(toUtc(expiredAfter)).stream()
+            .map(entity -> new Snapshot(entity.getGridKey(), Product.fromValue(entity.getType()),
+                entity.getResponse(), entity.getExpiresTime().toInstant(ZoneOffset.UTC)))
+            .toList();
+    }
+
+    @Scheduled(fixedDelayString = "${app.weather.snapshots.flushInterval:5s}")
+    public void flush() {
+        if (this.pending.isEmpty()) {
+            return;
+        }
+
+        // The scheduled flush and the one on shutdown mustn't write the same snapshots twice
+        this.flushLock.lock();
+        try {
+            Map<String, ForecastDataEntity> flushing = new HashMap<>();
+            this.pending.keySet().forEach(key -> this.pending.computeIfPresent(key, (k, entity) -> {
+                flushing.put(key, entity);
+                return null;
+            }));
+
+            try {
+                this.forecastDataRepo.upsertSnapshots(flushing.values());
+            } catch (DataAccessException ex) {
+                // A failure is only logged, since the forecasts themselves are fine
+                log.warn("Couldn't save {} NWS forecast snapshots, will retry: {}", flushing.size(),
+                    ex.getMessage());
+
+                // Unless a newer fetch has already replaced them
+                flushing.forEach(this.pending::putIfAbsent);
+            }
+        } finally {
+            this.flushLock.unlock();
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        flush();
+    }
+
+    @Scheduled(initialDelayString = "${app.weather.snapshots.purgeInterval:1h}",
+        fixedDelayString = "${app.weather.snapshots.purgeInterval:1h}")
+    public void purge() {
+        Instant cutoff = Instant.now().minus(this.weatherConfig.getSnapshots().getRetention());
+        int purged = this.forecastDataRepo.deleteSnapshotsExpiredBefore(toUtc(cutoff));
+
+        if (purged > 0) {
+            log.info("Purged {} NWS forecast snapshots that expired before {}", purged, cutoff);
+        }
+    }
+
+    private static LocalDateTime toUtc(Instant instant) {
+        return LocalDateTime.ofInstant(instant, ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,213 @@
+package com.davidruffner.homecontrollerbackend.services;
+
+import com.davidruffner.homecontrollerbackend.HueGroupResponseDto.GetBulbsForGroupResponse;
+import com.davidruffner.homecontrollerbackend.config.HueConfig;
+import com.davidruffner.homecontrollerbackend.entities.LightBulbTrack;
+import com.davidruffner.homecontrollerbackend.events.HueMetadataChangedEvent;
+import com.davidruffner.homecontrollerbackend.events.HueTopologyChangedEvent;
+import com.davidruffner.homecontrollerbackend.events.LightStateChangedEvent;
+import com.davidruffner.homecontrollerbackend.utils.SingleFlight;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Keeps a ready-made {@link GetBulbsForGroupResponse} per group. Once a group has been loaded,
+ * each {@link LightStateChangedEvent} for one of its bulbs patches that bulb and rebuilds the
+ * response, so reads are a map lookup. Any topology change drops everything.
+ *
+ * Groups loaded while the event stream is down can't be kept current by it, so those expire
+ * after app.hue.groupAggregate.ttl instead. Ones it does keep current still expire after
+ * syncedTtl, in case an event was missed.
+ *
+ * Concurrent misses for a group share one load. A load that a change to one of its bulbs (or
+ * the topology) overtook is handed back but not kept, as the event had nothing to patch yet.
+ */
+@Component
+public class GroupAggregateCache {
+
+    final HueConfig hueConfig;
+    final HueStateRegistry hueStateRegistry;
+
+    public GroupAggregateCache(HueConfig hueConfig, HueStateRegistry hueStateRegistry) {
+        this.hueConfig = hueConfig;
+        this.hueStateRegistry = hueStateRegistry;
+    }
+
+    private record GroupAggregate(
+        GetBulbsForGroupResponse response,
+        Instant expiresAt
+    ) {}
+
+    private final Map<String, GroupAggregate> aggregates = new ConcurrentHashMap<>();
+    private final SingleFlight<String, GetBulbsForGroupResponse> loads = new SingleFlight<>();
+
+    // Light and device IDs -> the groups they're in
+    private final Map<String, Set<String>> groupsByMemberId = new ConcurrentHashMap<>();
+
+    // Every change gets the next number, so a load can tell whether any came in while it ran
+    private final AtomicLong sequence = new AtomicLong();
+    // Light and device IDs -> the number of their latest change
+    private final Map<String, Long> changedAt = new ConcurrentHashMap<>();
+    private volatile long invalidatedAt = 0;
+
+    public GetBulbsForGroupResponse getResponse(String groupId,
+        Function<String, GetBulbsForGroupResponse> loader) {
+
+        GroupAggregate aggregate = this.aggregates.get(groupId);
+        if (aggregate != null && Instant.now().isBefore(aggregate.expiresAt())) {
+            return aggregate.response();
+        }
+
+        return this.loads.execute(groupId, () -> load(groupId, loader));
+    }
+
+    private GetBulbsForGroupResponse load(String groupId, Function<String, GetBulbsForGroupResponse> loader) {
+        long startedAt = this.sequence.get();
+        GetBulbsForGroupResponse response = loader.apply(groupId);
+
+        HueConfig.GroupAggregate config = this.hueConfig.getGroupAggregate();
+        Instant expiresAt = Instant.now().plus(this.hueStateRegistry.isSynced()
+            ? config.getSyncedTtl()
+            : config.getTtl());
+
+        // Indexed first, so any change from here on patches what's stored below
+        response.lightBulbs().forEach(bulb -> {
+            indexMember(bulb.getLightId(), groupId);
+            indexMember(bulb.getDeviceId(), groupId);
+        });
+
+        this.aggregates.compute(groupId, (k, existing) ->
+            changedSince(response, startedAt) ? existing : new GroupAggregate(response, expiresAt));
+
+        return response;
+    }
+
+    private boolean changedSince(GetBulbsForGroupResponse response, long startedAt) {
+        if (this.invalidatedAt > startedAt) {
+            return true;
+        }
+
+        return response.lightBulbs().stream().anyMatch(bulb ->
+            changedSince(bulb.getLightId(), startedAt) || changedSince(bulb.getDeviceId(), startedAt));
+    }
+
+    private boolean changedSince(String memberId, long startedAt) {
+        return memberId != null && this.changedAt.getOrDefault(memberId, 0L) > startedAt;
+    }
+
+    public void invalidate() {
+        this.invalidatedAt = this.sequence.incrementAndGet();
+        this.aggregates.clear();
+        this.groupsByMemberId.clear();
+        this.changedAt.clear();
+    }
+
+    @EventListener
+    public void onTopologyChanged(HueTopologyChangedEvent event) {
+        invalidate();
+    }
+
+    // Room and bulb names are part of each aggregate
+    @EventListener
+    public void onMetadataChanged(HueMetadataChangedEvent event) {
+        invalidate();
+    }
+
+    @EventListener
+    public void onLightStateChanged(LightStateChangedEvent event) {
+        this.changedAt.put(event.id(), this.sequence.incrementAndGet());
+
+        Set<String> groupIds = this.groupsByMemberId.get(event.id());
+        if (groupIds == null) {
+            return;
+        }
+
+        groupIds.forEach(groupId -> this.aggregates.computeIfPresent(groupId, (k, aggregate) -> {
+            GetBulbsForGroupResponse current = aggregate.response();
+
+            // Entries are shared with responses already handed out, so replace rather than mutate
+            List<LightBulbTrack> lightBulbs = current.lightBulbs().stream()
+                .map(bulb -> event.id().equals(bulb.getLightId()) || event.id().equals(bulb.getDeviceId())
+                    ? applyChange(bulb, event) : bulb)
+                .toList();
+
+            return new GroupAggregate(
+                buildResponse(current.groupedLightId(), current.roomName(), lightBulbs),
+                aggregate.expiresAt());
+        }));
+    }
+
+    private void indexMember(String memberId, String groupId) {
+        if (memberId != null) {
+            this.groupsByMemberId.computeIfAbsent(memberId, k -> ConcurrentHashMap.newKeySet()).add(groupId);
+        }
+    }
+
+    private static LightBulbTrack applyChange(LightBulbTrack bulb, LightStateChangedEvent event) {
+        LightBulbTrack updated = new LightBulbTrack();
+        updated.setLightId(bulb.getLightId());
+        updated.setDeviceId(bulb.getDeviceId());
+        updated.setName(bulb.getName());
+        updated.setIsOn(event.isOn() != null ? event.isOn() : bulb.getIsOn());
+        updated.setBrightness(event.brightness() != null ? event.brightness() : bulb.getBrightness());
+        updated.setRed(event.color() != null ? event.color().getRed() : bulb.getRed());
+        updated.setGreen(event.color() != null ? event.color().getGreen() : bulb.getGreen());
+        updated.setBlue(event.color() != null ? event.color().getBlue() : bulb.getBlue());
+
+        return updated;
+    }
+
+    static GetBulbsForGroupResponse buildResponse(String groupId, String roomName,
+        List<LightBulbTrack> lightBulbs) {
+
+        // Check if colors between bulbs are different
+        String firstBulbColor = lightBulbs.getFirst().getRGBAString();
+        AtomicReference<Boolean> isMultiColor = new AtomicReference<>(false);
+
+        // Color gradient is made up of all colors
+        // linear-gradient(135deg, ${firstColorStr}, ${lastColorStr})
+        StringBuilder colorGradient = new StringBuilder("linear-gradient(")
+            .append("135") // TODO: Make this configurable
+            .append("deg");
+
+        // Determine the best color for the string text
+        AtomicReference<String> textColor = new AtomicReference<>("rgba(255, 255, 255, 1)"); // white
+        AtomicReference<Boolean> isGroupOn = new AtomicReference<>(false);
+        AtomicReference<Double> brightness = new AtomicReference<>(0d);
+        AtomicReference<Integer> index = new AtomicReference<>(0);
+
+        lightBulbs.forEach(lightBulb -> {
+            index.set(index.get() + 1);
+
+            if (!firstBulbColor.equals(lightBulb.getRGBAString())) {
+                isMultiColor.set(true);
+            }
+
+            colorGradient.append(", ")
+                .append(lightBulb.getRGBAString());
+
+            if (lightBulb.getRed() > 175 || lightBulb.getGreen() > 175 || lightBulb.getBlue() > 175) {
+                textColor.set("rgba(0, 0, 0, 1)");
+            }
+
+            if (lightBulb.getIsOn()) {
+                isGroupOn.set(true);
+            }
+
+            brightness.set(brightness.get() + lightBulb.getBrightness());
+        });
+        colorGradient.append(")");
+
+        brightness.set(brightness.get() / index.get());
+
+        return new GetBulbsForGroupResponse(groupId, roomName, isMultiColor.get(),
+            colorGradient.toString(), textColor.get(), isGroupOn.get(), brightness.get(), lightBulbs);
+    }
+}
@@ -0,0 +1,192 @@
+package com.davidruffner.homecontrollerbackend.services;
+
+import com.davidruffner.homecontrollerbackend.services.HueCommandScheduler.CommandClass;
+import com.davidruffner.homecontrollerbackend.services.HueCommandScheduler.CommandPriority;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Every bridge configured under app.hue.bridges, and which of them owns each light, device, room
+ * and grouped_light. Ownership is learned from whatever gets read from the bridges, and an ID
+ * nobody has reported yet is found by asking each bridge for it in turn (once).
+ *
+ * With a single bridge there's nothing to route, so everything goes straight to it.
+ */
+public class HueBridges {
+
+    public interface HueResource {
+        String id();
+
+        // IDs that belong to the same bridge as this resource, e.g. a device's light
+        default List<String> ownedIds() {
+            return List.of(id());
+        }
+    }
+
+    public interface HueResourceResponse<T extends HueResource> {
+        List<T> data();
+    }
+
+    public record HueBridge(
+        String id,
+        RestClient restClient,
+        WebClient webClient,
+        String applicationKey
+    ) {
+        public <T> T get(String path, Class<T> responseType) {
+            return this.restClient
+                .get()
+                .uri(path)
+                .header("hue-application-key", this.applicationKey)
+                .retrieve()
+                .body(responseType);
+        }
+
+        public ResponseEntity<Void> put(String path, Object body) {
+            return this.restClient
+                .put()
+                .uri(path)
+                .header("hue-application-key", this.applicationKey)
+                .body(body)
+                .retrieve()
+                .toBodilessEntity();
+        }
+    }
+
+    // One resource type to read from every bridge, e.g. ("light", HueLightResponse.class)
+    public record ResourceRead<T extends HueResource>(
+        String type,
+        Class<? extends HueResourceResponse<T>> responseType
+    ) {}
+
+    /**
+     * What {@link #readAll} got for each of its reads, merged across bridges.
+     */
+    public static final class ResourceReads {
+        private final Map<ResourceRead<?>, List<HueResource>> dataByRead = new HashMap<>();
+
+        private void add(ResourceRead<?> read, List<? extends HueResource> data) {
+            this.dataByRead.computeIfAbsent(read, k -> new ArrayList<>()).addAll(data);
+        }
+
+        // Only ever added to with what was read for that ResourceRead, so the cast holds
+        @SuppressWarnings("unchecked")
+        public <T extends HueResource> List<T> get(ResourceRead<T> read) {
+            List<HueResource> data = this.dataByRead.get(read);
+            if (data == null) {
+                throw new IllegalArgumentException("Nothing was read for " + read);
+            }
+
+            return (List<T>) data;
+        }
+    }
+
+    private final List<HueBridge> bridges;
+    private final ParallelFetchExecutor parallelFetchExecutor;
+    private final HueCommandScheduler hueCommandScheduler;
+    private final Map<String, HueBridge> ownersById = new ConcurrentHashMap<>();
+
+    public HueBridges(List<HueBridge> bridges, ParallelFetchExecutor parallelFetchExecutor,
+        HueCommandScheduler hueCommandScheduler) {
+
+        if (bridges.isEmpty()) {
+            throw new IllegalStateException("No Hue bridges configured under app.hue.bridges");
+        }
+
+        this.bridges = List.copyOf(bridges);
+        this.parallelFetchExecutor = parallelFetchExecutor;
+        this.hueCommandScheduler = hueCommandScheduler;
+    }
+
+    public List<HueBridge> getAll() {
+        return this.bridges;
+    }
+
+    public void remember(HueBridge bridge, Collection<? extends HueResource> resources) {
+        if (this.bridges.size() > 1) {
+            resources.forEach(resource -> resource.ownedIds().forEach(id -> this.ownersById.put(id, bridge)));
+        }
+    }
+
+    /**
+     * The bridge that owns the {@code type} resource {@code id}.
+     *
+     * @throws IllegalArgumentException if every bridge says it doesn't have it
+     * @throws RestClientException if it wasn't found and a bridge couldn't be asked, since that one
+     *     may well have it
+     */
+    public HueBridge forResource(String type, String id) {
+        if (this.bridges.size() == 1) {
+            return this.bridges.getFirst();
+        }
+
+        HueBridge owner = this.ownersById.get(id);
+        if (owner != null) {
+            return owner;
+        }
+
+        // Asked in turn rather than side by side, since this can be reached from inside a
+        // parallel batch (applying a scene) and would otherwise wait on its own permits
+        RestClientException failure = null;
+        for (HueBridge bridge : this.bridges) {
+            try {
+                probe(bridge, type, id);
+                this.ownersById.put(id, bridge);
+                return bridge;
+            } catch (HttpClientErrorException.NotFound ex) {
+                // Not this one
+            } catch (RestClientException ex) {
+                failure = ex;
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+        throw new IllegalArgumentException(String.format("No Hue bridge has a %s with ID '%s'", type, id));
+    }
+
+    // Goes through the scheduler like the command it's for, so probing can't push a bridge past its
+    // rate limit. On the light lane, which has the room, and ahead of anything only changing a value.
+    private void probe(HueBridge bridge, String type, String id) {
+        this.hueCommandScheduler.execute(bridge.id(), CommandClass.LIGHT, CommandPriority.POWER,
+            () -> bridge.get("/clip/v2/resource/" + type + "/" + id, String.class));
+    }
+
+    /**
+     * Reads each resource type from every bridge in one parallel batch, merging what each bridge
+     * returned per read. Everything read is remembered against the bridge it came from.
+     */
+    public ResourceReads readAll(String operation, List<ResourceRead<?>> reads) {
+        List<Callable<List<? extends HueResource>>> fetches = new ArrayList<>();
+        reads.forEach(read -> this.bridges.forEach(bridge -> fetches.add(() -> read(bridge, read))));
+
+        List<List<? extends HueResource>> responses = this.parallelFetchExecutor.fetchAll(operation, fetches);
+
+        ResourceReads merged = new ResourceReads();
+        for (int i = 0; i < responses.size(); i++) {
+            merged.add(reads.get(i / this.bridges.size()), responses.get(i));
+        }
+
+        return merged;
+    }
+
+    private <T extends HueResource> List<T> read(HueBridge bridge, ResourceRead<T> read) {
+        HueResourceResponse<T> response = bridge.get("/clip/v2/resource/" + read.type(), read.responseType());
+        List<T> data = response != null && response.data() != null ? response.data() : List.of();
+
+        remember(bridge, data);
+        return data;
+    }
+}
@@ -0,0 +1,246 @@
+package com.davidruffner.homecontrollerbackend.services;
+
+import com.davidruffner.homecontrollerbackend.config.HueConfig;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * Every command sent to a bridge goes through here. A bridge only manages about 10 light
+ * commands and 1 grouped_light command a second, and past that it queues or drops them on its
+ * own, so each class of command gets a token bucket at that rate, per bridge. Within a class,
+ * queued on/off commands go before brightness, and brightness before colour.
+ *
+ * Queues are bounded per priority; when one is full the command is rejected straight away.
+ */
+@Component
+public class HueCommandScheduler {
+
+    public enum CommandClass {
+        LIGHT,
+        GROUPED_LIGHT
+    }
+
+    // Declared highest priority first
+    public enum CommandPriority {
+        POWER,
+        BRIGHTNESS,
+        COLOR
+    }
+
+    final HueConfig hueConfig;
+    final MeterRegistry meterRegistry;
+
+    private record Job(
+        Supplier<?> command,
+        CompletableFuture<Object> future
+    ) {}
+
+    // Bridge ID -> its lanes, made the first time a command goes to it
+    private final Map<String, Map<CommandClass, Lane>> lanesByBridge = new ConcurrentHashMap<>();
+    private volatile boolean running = true;
+    private final Counter rejectedCounter;
+    private final Semaphore batchPermits;
+
+    public HueCommandScheduler(HueConfig hueConfig, MeterRegistry meterRegistry) {
+        this.hueConfig = hueConfig;
+        this.meterRegistry = meterRegistry;
+        this.rejectedCounter = Counter.builder("hue.commands.rejected")
+            .description("Commands turned away because their queue was full")
+            .register(meterRegistry);
+        this.batchPermits = new Semaphore(hueConfig.getScheduler().getMaxConcurrency());
+    }
+
+    @PreDestroy
+    public void stop() {
+        this.running = false;
+        this.lanesByBridge.values().forEach(lanes -> lanes.values().forEach(Lane::stop));
+    }
+
+    /**
+     * Queues {@code command} for the bridge {@code bridgeId} and blocks until it has been sent,
+     * returning its result.
+     *
+     * @throws RejectedExecutionException if the queue for this bridge, class and priority is full
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String bridgeId, CommandClass commandClass, CommandPriority priority, Supplier<T> command) {
+        Job job = new Job(command, new CompletableFuture<>());
+
+        if (!lanesFor(bridgeId).get(commandClass).offer(priority, job)) {
+            this.rejectedCounter.increment();
+            throw new RejectedExecutionException(
+                "Hue " + commandClass + " " + priority + " queue for bridge " + bridgeId + " is full");
+        }
+
+        try {
+            return (T) job.future().get(this.hueConfig.getScheduler().getTimeout().toMillis(),
+                TimeUnit.MILLISECONDS);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException runtimeEx) {
+                throw runtimeEx;
+            }
+            throw new CompletionException(ex.getCause());
+        } catch (TimeoutException | InterruptedException ex) {
+            // Still queued, so make sure it's skipped rather than sent late
+            job.future().cancel(false);
+            if (ex instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            throw new CompletionException(ex);
+        }
+    }
+
+    /**
+     * Runs a batch of commands (each of which should go through {@link #execute}) side by side,
+     * returning their results in the order given. They don't share {@link ParallelFetchExecutor}'s
+     * permits, so a big scene neither waits behind reads nor holds them up. Their own
+     * (app.hue.scheduler.maxConcurrency) just stop one batch piling more onto the queues than they
+     * can take. Timed as hue.commands.batch.
+     */
+    public <T> List<T> executeAll(String operation, List<Callable<T>> commands) {
+        Timer timer = Timer.builder("hue.commands.batch")
+            .description("Time to complete a batch of bridge commands")
+            .tag("operation", operation)
+            .register(this.meterRegistry);
+
+        return timer.record(() -> ParallelFetchExecutor.runParallel(commands, this.batchPermits));
+    }
+
+    private Map<CommandClass, Lane> lanesFor(String bridgeId) {
+        return this.lanesByBridge.computeIfAbsent(bridgeId, id -> {
+            HueConfig.Scheduler config = this.hueConfig.getScheduler();
+
+            Map<CommandClass, Lane> lanes = new EnumMap<>(CommandClass.class);
+            lanes.put(CommandClass.LIGHT,
+                new Lane(id, CommandClass.LIGHT, config.getLightCommandsPerSecond(), config.getQueueCapacity()));
+            lanes.put(CommandClass.GROUPED_LIGHT,
+                new Lane(id, CommandClass.GROUPED_LIGHT, config.getGroupCommandsPerSecond(), config.getQueueCapacity()));
+            return lanes;
+        });
+    }
+
+    /**
+     * One queue per priority plus a dispatcher thread that releases a job each time the bucket
+     * has a token, always taking the highest priority one waiting.
+     */
+    private class Lane {
+        private final Map<CommandPriority, BlockingQueue<Job>> queues = new EnumMap<>(CommandPriority.class);
+        private final Semaphore queued = new Semaphore(0);
+        private final TokenBucket bucket;
+        private final Thread dispatcher;
+
+        Lane(String bridgeId, CommandClass commandClass, double commandsPerSecond, int capacity) {
+            for (CommandPriority priority : CommandPriority.values()) {
+                this.queues.put(priority, new ArrayBlockingQueue<>(capacity));
+            }
+
+            this.bucket = new TokenBucket(commandsPerSecond);
+            this.dispatcher = Thread.ofVirtual()
+                .name("hue-scheduler-" + bridgeId + "-" + commandClass.name().toLowerCase())
+                .start(this::dispatch);
+        }
+
+        boolean offer(CommandPriority priority, Job job) {
+            if (!this.queues.get(priority).offer(job)) {
+                return false;
+            }
+
+            this.queued.release();
+            return true;
+        }
+
+        void stop() {
+            this.dispatcher.interrupt();
+            this.queues.values().forEach(queue -> queue.forEach(job -> job.future().cancel(false)));
+        }
+
+        private void dispatch() {
+            try {
+                while (running) {
+                    this.queued.acquire();
+                    this.bucket.acquire();
+
+                    Job job = next();
+                    if (job.future().isDone()) {
+                        // Caller gave up waiting, so don't spend the token on it
+                        this.bucket.refund();
+                        continue;
+                    }
+
+                    Thread.ofVirtual().start(() -> {
+                        try {
+                            job.future().complete(job.command().get());
+                        } catch (Exception ex) {
+                            job.future().completeExceptionally(ex);
+                        }
+                    });
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private Job next() {
+            for (CommandPriority priority : CommandPriority.values()) {
+                Job job = this.queues.get(priority).poll();
+                if (job != null) {
+                    return job;
+                }
+            }
+
+            throw new IllegalStateException("Queue permit without a queued job");
+        }
+    }
+
+    /**
+     * Refills at {@code commandsPerSecond}, holding at most one second's worth of tokens.
+     */
+    static class TokenBucket {
+        private final double capacity;
+        private final double tokensPerNano;
+        private double tokens;
+        private long lastRefill;
+
+        TokenBucket(double commandsPerSecond) {
+            this.capacity = Math.max(1, commandsPerSecond);
+            this.tokensPerNano = commandsPerSecond / TimeUnit.SECONDS.toNanos(1);
+            this.tokens = this.capacity;
+            this.lastRefill = System.nanoTime();
+        }
+
+        void acquire() throws InterruptedException {
+            long waitNanos;
+            while ((waitNanos = tryTake()) > 0) {
+                Thread.sleep(Duration.ofNanos(waitNanos));
+            }
+        }
+
+        synchronized void refund() {
+            this.tokens = Math.min(this.capacity, this.tokens + 1);
+        }
+
+        // Takes a token and returns 0, or returns how long until one is available
+        private synchronized long tryTake() {
+            long now = System.nanoTime();
+            this.tokens = Math.min(this.capacity, this.tokens + (now - this.lastRefill) * this.tokensPerNano);
+            this.lastRefill = now;
+
+            if (this.tokens >= 1) {
+                this.tokens -= 1;
+                return 0;
+            }
+
+            return (long) Math.ceil((1 - this.tokens) / this.tokensPerNano);
+        }
+    }
+}
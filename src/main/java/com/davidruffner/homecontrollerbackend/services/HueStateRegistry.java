@@ -0,0 +1,407 @@
+package com.davidruffner.homecontrollerbackend.services;
+
+import com.davidruffner.homecontrollerbackend.HueGroupResponseDto.HueGroupDataResponse;
+import com.davidruffner.homecontrollerbackend.HueGroupResponseDto.HueGroupResponse;
+import com.davidruffner.homecontrollerbackend.config.HueConfig;
+import com.davidruffner.homecontrollerbackend.entities.RGB;
+import com.davidruffner.homecontrollerbackend.events.HueMetadataChangedEvent;
+import com.davidruffner.homecontrollerbackend.events.HueTopologyChangedEvent;
+import com.davidruffner.homecontrollerbackend.events.LightStateChangedEvent;
+import com.davidruffner.homecontrollerbackend.services.HueBridges.HueBridge;
+import com.davidruffner.homecontrollerbackend.services.HueBridges.HueResource;
+import com.davidruffner.homecontrollerbackend.services.LightsService.DeviceDto;
+import com.davidruffner.homecontrollerbackend.services.LightsService.HueDevicesResponse;
+import com.davidruffner.homecontrollerbackend.services.LightsService.HueLightResponse;
+import com.davidruffner.homecontrollerbackend.services.LightsService.HueRoomChildDTO;
+import com.davidruffner.homecontrollerbackend.services.LightsService.HueRoomDataDTO;
+import com.davidruffner.homecontrollerbackend.services.LightsService.HueRoomResponse;
+import com.davidruffner.homecontrollerbackend.services.LightsService.LightDto;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.node.ObjectNode;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Keeps an in-memory copy of each bridge's devices, lights, rooms and grouped lights, kept
+ * current by that bridge's /eventstream/clip/v2 SSE feed. Every (re)connect resyncs that bridge
+ * from a full snapshot, so anything missed while disconnected is picked up again. Reads merge
+ * every bridge's copy.
+ *
+ * Callers should check {@link #isSynced()} and fall back to asking the bridges when it's false,
+ * which it is whenever any one of them is out of touch.
+ */
+@Component
+public class HueStateRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(HueStateRegistry.class);
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final ParameterizedTypeReference<ServerSentEvent<String>> SSE_TYPE =
+        new ParameterizedTypeReference<>() {};
+
+    final HueBridges hueBridges;
+    final HueConfig hueConfig;
+    final ApplicationEventPublisher eventPublisher;
+    final ParallelFetchExecutor parallelFetchExecutor;
+    final ColorConversionService colorConversionService;
+
+    public HueStateRegistry(
+        HueBridges hueBridges,
+        HueConfig hueConfig,
+        ApplicationEventPublisher eventPublisher,
+        ParallelFetchExecutor parallelFetchExecutor,
+        ColorConversionService colorConversionService) {
+
+        this.hueBridges = hueBridges;
+        this.hueConfig = hueConfig;
+        this.eventPublisher = eventPublisher;
+        this.parallelFetchExecutor = parallelFetchExecutor;
+        this.colorConversionService = colorConversionService;
+    }
+
+    // One bridge's copy, and the thread following its event stream
+    private static final class BridgeState {
+        private final HueBridge bridge;
+        private final Map<String, DeviceDto> devices = new ConcurrentHashMap<>();
+        private final Map<String, LightDto> lights = new ConcurrentHashMap<>();
+        private final Map<String, HueRoomDataDTO> rooms = new ConcurrentHashMap<>();
+        private final Map<String, HueGroupDataResponse> groupedLights = new ConcurrentHashMap<>();
+        private volatile boolean synced = false;
+        private Thread streamThread;
+
+        private BridgeState(HueBridge bridge) {
+            this.bridge = bridge;
+        }
+    }
+
+    // What a topology change is: lights, rooms and groups coming and going, or lights moving room
+    private record Topology(
+        Set<String> deviceIds,
+        Set<String> lightIds,
+        Set<String> groupedLightIds,
+        Map<String, List<HueRoomChildDTO>> childrenByRoomId
+    ) {
+        private static Topology of(BridgeState state) {
+            Map<String, List<HueRoomChildDTO>> childrenByRoomId = new HashMap<>();
+            state.rooms.forEach((id, room) -> childrenByRoomId.put(id, room.children()));
+
+            return new Topology(Set.copyOf(state.devices.keySet()), Set.copyOf(state.lights.keySet()),
+                Set.copyOf(state.groupedLights.keySet()), childrenByRoomId);
+        }
+    }
+
+    // The names the room and bulb listings show, by light or room ID
+    private static Map<String, String> namesOf(BridgeState state) {
+        Map<String, String> names = new HashMap<>();
+        state.lights.forEach((id, light) ->
+            names.put(id, light.metadata() != null ? light.metadata().name() : null));
+        state.rooms.forEach((id, room) ->
+            names.put(id, room.metadata() != null ? room.metadata().name() : null));
+
+        return names;
+    }
+
+    private volatile List<BridgeState> states = List.of();
+    private volatile boolean running = false;
+
+    @PostConstruct
+    public void start() {
+        if (!this.hueConfig.getEventStream().isEnabled()) {
+            return;
+        }
+
+        this.running = true;
+        this.states = this.hueBridges.getAll().stream().map(BridgeState::new).toList();
+        this.states.forEach(state -> state.streamThread = Thread.ofVirtual()
+            .name("hue-event-stream-" + state.bridge.id())
+            .start(() -> runEventStream(state)));
+    }
+
+    @PreDestroy
+    public void stop() {
+        this.running = false;
+
+        this.states.forEach(state -> {
+            state.synced = false;
+            if (state.streamThread != null) {
+                state.streamThread.interrupt();
+            }
+        });
+    }
+
+    public boolean isSynced() {
+        List<BridgeState> current = this.states;
+        return !current.isEmpty() && current.stream().allMatch(state -> state.synced);
+    }
+
+    public List<DeviceDto> getDevices() {
+        return merged(state -> state.devices);
+    }
+
+    public List<LightDto> getLights() {
+        return merged(state -> state.lights);
+    }
+
+    public List<HueRoomDataDTO> getRooms() {
+        return merged(state -> state.rooms);
+    }
+
+    public Optional<HueRoomDataDTO> getRoom(String roomId) {
+        return find(state -> state.rooms.get(roomId));
+    }
+
+    public Optional<HueGroupDataResponse> getGroupedLight(String groupId) {
+        return find(state -> state.groupedLights.get(groupId));
+    }
+
+    public Optional<LightDto> getLightForDevice(String deviceId) {
+        return getLights().stream()
+            .filter(light -> light.owner() != null && deviceId.equals(light.owner().rid()))
+            .findFirst();
+    }
+
+    private <T> List<T> merged(Function<BridgeState, Map<String, T>> resources) {
+        return this.states.stream()
+            .flatMap(state -> resources.apply(state).values().stream())
+            .toList();
+    }
+
+    private <T> Optional<T> find(Function<BridgeState, T> lookup) {
+        return this.states.stream()
+            .map(lookup)
+            .filter(Objects::nonNull)
+            .findFirst();
+    }
+
+    private void runEventStream(BridgeState state) {
+        Duration backoff = this.hueConfig.getEventStream().getInitialBackoff();
+
+        while (this.running) {
+            try {
+                Flux<ServerSentEvent<String>> events = state.bridge.webClient()
+                    .get()
+                    .uri("/eventstream/clip/v2")
+                    .header("hue-application-key", state.bridge.applicationKey())
+                    .accept(MediaType.TEXT_EVENT_STREAM)
+                    .retrieve()
+                    .bodyToFlux(SSE_TYPE);
+
+                // The bridge greets every new connection with a ": hi" comment. Taking the snapshot
+                // once the first message arrives means nothing that changes in between is lost.
+                boolean resynced = false;
+                try (Stream<ServerSentEvent<String>> stream = events.toStream()) {
+                    Iterator<ServerSentEvent<String>> iterator = stream.iterator();
+
+                    while (this.running && iterator.hasNext()) {
+                        ServerSentEvent<String> event = iterator.next();
+
+                        if (!resynced) {
+                            resync(state);
+                            resynced = true;
+                            backoff = this.hueConfig.getEventStream().getInitialBackoff();
+                        }
+
+                        if (event.data() != null) {
+                            applyEvents(state, event.data());
+                        }
+                    }
+                }
+            } catch (Exception ex) {
+                if (!this.running) {
+                    break;
+                }
+
+                log.warn("Hue event stream for bridge {} disconnected, retrying in {}: {}", state.bridge.id(),
+                    backoff, ex.getMessage());
+            }
+
+            state.synced = false;
+            if (!sleep(backoff)) {
+                break;
+            }
+            backoff = nextBackoff(backoff);
+        }
+    }
+
+    private Duration nextBackoff(Duration backoff) {
+        Duration doubled = backoff.multipliedBy(2);
+        Duration max = this.hueConfig.getEventStream().getMaxBackoff();
+
+        return doubled.compareTo(max) > 0 ? max : doubled;
+    }
+
+    private boolean sleep(Duration duration) {
+        try {
+            Thread.sleep(duration);
+            return this.running;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void resync(BridgeState state) {
+        HueBridge bridge = state.bridge;
+        List<Object> responses = this.parallelFetchExecutor.fetchAll("registryResync", List.of(
+            () -> bridge.get("/clip/v2/resource/device", HueDevicesResponse.class),
+            () -> bridge.get("/clip/v2/resource/light", HueLightResponse.class),
+            () -> bridge.get("/clip/v2/resource/room", HueRoomResponse.class),
+            () -> bridge.get("/clip/v2/resource/grouped_light", HueGroupResponse.class)));
+
+        HueDevicesResponse deviceResponse = (HueDevicesResponse) responses.get(0);
+        HueLightResponse lightResponse = (HueLightResponse) responses.get(1);
+        HueRoomResponse roomResponse = (HueRoomResponse) responses.get(2);
+        HueGroupResponse groupResponse = (HueGroupResponse) responses.get(3);
+
+        Topology before = Topology.of(state);
+        Map<String, String> namesBefore = namesOf(state);
+        replaceAll(bridge, state.devices, deviceResponse.data());
+        replaceAll(bridge, state.lights, lightResponse.data());
+        replaceAll(bridge, state.rooms, roomResponse.data());
+        replaceAll(bridge, state.groupedLights, groupResponse.data());
+
+        // Every reconnect takes a snapshot, but it only matters if something changed while we
+        // weren't listening; otherwise clients would lose their change history for nothing
+        boolean topologyChanged = !Topology.of(state).equals(before);
+        publishTopologyChange("snapshot", topologyChanged);
+        publishMetadataChange("snapshot", !topologyChanged && !namesOf(state).equals(namesBefore));
+
+        // Only once they've been published, so anyone who sees it synced has heard about them
+        state.synced = true;
+    }
+
+    private <T extends HueResource> void replaceAll(HueBridge bridge, Map<String, T> target, List<T> snapshot) {
+        Map<String, T> fresh = new HashMap<>();
+        snapshot.forEach(item -> fresh.put(item.id(), item));
+
+        target.keySet().retainAll(fresh.keySet());
+        target.putAll(fresh);
+        this.hueBridges.remember(bridge, snapshot);
+    }
+
+    /**
+     * Applies one SSE message from the bridge, which is a JSON array of events each holding
+     * a list of (partial) resources.
+     */
+    private void applyEvents(BridgeState state, String json) {
+        JsonNode events = mapper.readTree(json);
+
+        for (JsonNode event : events) {
+            String eventType = event.path("type").asString();
+            // Updates only change state or names; nothing moves between rooms
+            boolean addedOrRemoved = !eventType.equals("update");
+
+            for (JsonNode resource : event.path("data")) {
+                // An update only carries the fields that changed, so this is a rename
+                boolean renamed = !addedOrRemoved && resource.has("metadata");
+
+                switch (resource.path("type").asString()) {
+                    case "light" -> {
+                        apply(state, state.lights, eventType, resource, LightDto.class);
+                        publishLightState(state.lights.get(resource.path("id").asString()));
+                        publishTopologyChange("light", addedOrRemoved);
+                        publishMetadataChange("light", renamed);
+                    }
+                    case "device" -> {
+                        apply(state, state.devices, eventType, resource, DeviceDto.class);
+                        publishTopologyChange("device", addedOrRemoved);
+                        publishMetadataChange("device", renamed);
+                    }
+                    case "room" -> {
+                        String id = resource.path("id").asString();
+                        HueRoomDataDTO before = state.rooms.get(id);
+                        apply(state, state.rooms, eventType, resource, HueRoomDataDTO.class);
+                        HueRoomDataDTO after = state.rooms.get(id);
+
+                        // Except a room update that moves lights in or out of it
+                        boolean topologyChanged = addedOrRemoved || before == null || after == null
+                            || !Objects.equals(before.children(), after.children());
+                        publishTopologyChange("room", topologyChanged);
+                        publishMetadataChange("room", renamed && !topologyChanged);
+                    }
+                    case "grouped_light" -> {
+                        apply(state, state.groupedLights, eventType, resource, HueGroupDataResponse.class);
+                        publishTopologyChange("grouped_light", addedOrRemoved);
+                    }
+                    default -> {}
+                }
+            }
+        }
+    }
+
+    private void publishTopologyChange(String resourceType, boolean changed) {
+        if (changed) {
+            this.eventPublisher.publishEvent(new HueTopologyChangedEvent(resourceType));
+        }
+    }
+
+    private void publishMetadataChange(String resourceType, boolean changed) {
+        if (changed) {
+            this.eventPublisher.publishEvent(new HueMetadataChangedEvent(resourceType));
+        }
+    }
+
+    private void publishLightState(LightDto light) {
+        if (light == null) {
+            return;
+        }
+
+        Double brightness = light.dimming() != null ? light.dimming().brightness() : null;
+        RGB color = null;
+        if (light.color() != null && brightness != null) {
+            color = this.colorConversionService.xyToRGB(light.color().xy().x(), light.color().xy().y(),
+                brightness / 100);
+        }
+
+        this.eventPublisher.publishEvent(new LightStateChangedEvent(light.id(),
+            light.on() != null ? light.on().on() : null, brightness, color));
+    }
+
+    private <T extends HueResource> void apply(BridgeState state, Map<String, T> target, String eventType,
+        JsonNode resource, Class<T> type) {
+
+        String id = resource.path("id").asString();
+
+        switch (eventType) {
+            case "add" -> {
+                T added = mapper.treeToValue(resource, type);
+                target.put(id, added);
+                this.hueBridges.remember(state.bridge, List.of(added));
+            }
+            case "delete" -> target.remove(id);
+            case "update" -> target.computeIfPresent(id, (k, existing) -> {
+                // Updates only carry the fields that changed, so merge them over what we have
+                ObjectNode merged = mapper.valueToTree(existing);
+                deepMerge(merged, resource);
+                return mapper.treeToValue(merged, type);
+            });
+            default -> {}
+        }
+    }
+
+    private static void deepMerge(ObjectNode target, JsonNode update) {
+        update.properties().forEach(field -> {
+            JsonNode existing = target.get(field.getKey());
+
+            if (existing instanceof ObjectNode existingObj && field.getValue().isObject()) {
+                deepMerge(existingObj, field.getValue());
+            } else {
+                target.set(field.getKey(), field.getValue());
+            }
+        });
+    }
+}
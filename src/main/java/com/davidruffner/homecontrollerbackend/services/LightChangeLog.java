@@ -0,0 +1,116 @@
+package com.davidruffner.homecontrollerbackend.services;
+
+import com.davidruffner.homecontrollerbackend.config.HueConfig;
+import com.davidruffner.homecontrollerbackend.entities.RGB;
+import com.davidruffner.homecontrollerbackend.events.HueMetadataChangedEvent;
+import com.davidruffner.homecontrollerbackend.events.HueTopologyChangedEvent;
+import com.davidruffner.homecontrollerbackend.events.LightStateChangedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Numbers every {@link LightStateChangedEvent} and keeps the last app.hue.lightEvents.historySize
+ * of them, so a client that knows the last version it saw can be sent just what it missed.
+ *
+ * A topology change bumps the version too, but drops the history: the changes before it
+ * describe lights and rooms that may no longer exist, so anyone behind it has to reload. So does
+ * a rename, which isn't a change to any light's state but still has to reach the room and bulb
+ * listings and their ETags.
+ *
+ * Versions start from the clock at startup rather than zero, so they keep going up across
+ * restarts and a version from before one is simply too old rather than ambiguous.
+ */
+@Component
+public class LightChangeLog {
+
+    final HueConfig hueConfig;
+
+    public record LightChange(
+        long version,
+        String id,
+        Boolean isOn,
+        Double brightness,
+        RGB color
+    ) {}
+
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+    private final LightChange[] history;
+    private long latestVersion;
+    private long oldestVersion;
+
+    public LightChangeLog(HueConfig hueConfig) {
+        this.hueConfig = hueConfig;
+        this.history = new LightChange[hueConfig.getLightEvents().getHistorySize()];
+        this.latestVersion = System.currentTimeMillis();
+        this.oldestVersion = this.latestVersion + 1;
+    }
+
+    /**
+     * Runs {@code listener} after every change is added. It's called on the thread that made the
+     * change, so it should only hand off.
+     */
+    public void addListener(Runnable listener) {
+        this.listeners.add(listener);
+    }
+
+    @EventListener
+    public void onLightStateChanged(LightStateChangedEvent event) {
+        synchronized (this) {
+            long version = ++this.latestVersion;
+            this.history[(int) (version % this.history.length)] = new LightChange(version, event.id(),
+                event.isOn(), event.brightness(), event.color());
+
+            if (version - this.oldestVersion >= this.history.length) {
+                this.oldestVersion = version - this.history.length + 1;
+            }
+        }
+
+        this.listeners.forEach(Runnable::run);
+    }
+
+    @EventListener
+    public void onTopologyChanged(HueTopologyChangedEvent event) {
+        dropHistory();
+    }
+
+    @EventListener
+    public void onMetadataChanged(HueMetadataChangedEvent event) {
+        dropHistory();
+    }
+
+    private void dropHistory() {
+        synchronized (this) {
+            this.latestVersion++;
+            this.oldestVersion = this.latestVersion + 1;
+        }
+
+        this.listeners.forEach(Runnable::run);
+    }
+
+    public synchronized long getLatestVersion() {
+        return this.latestVersion;
+    }
+
+    /**
+     * Every change after {@code version}, oldest first. Empty when some of them have already been
+     * dropped (or the version isn't one we handed out), in which case the caller has to reload.
+     */
+    public synchronized Optional<List<LightChange>> since(long version) {
+        if (version < this.oldestVersion - 1 || version > this.latestVersion) {
+            return Optional.empty();
+        }
+
+        List<LightChange> changes = new ArrayList<>((int) (this.latestVersion - version));
+        for (long v = version + 1; v <= this.latestVersion; v++) {
+            changes.add(this.history[(int) (v % this.history.length)]);
+        }
+
+        return Optional.of(changes);
+    }
+}
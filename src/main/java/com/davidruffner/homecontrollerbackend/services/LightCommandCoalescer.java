@@ -0,0 +1,164 @@
+package com.davidruffner.homecontrollerbackend.services;
+
+import com.davidruffner.homecontrollerbackend.services.ColorConversionService.RgbToXyDto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Collapses bursts of brightness/colour changes (e.g. a slider being dragged) into one command
+ * per light or group. A command for a target with nothing under way is sent straight away.
+ * Anything arriving while it's being sent waits, replacing whatever was already waiting, and
+ * goes out as soon as that send finishes, with the latest brightness and colour. So a burst
+ * costs no more than one command per bridge round trip (or per scheduler slot), and a single
+ * change isn't held back at all.
+ */
+@Component
+public class LightCommandCoalescer {
+
+    private static final Logger log = LoggerFactory.getLogger(LightCommandCoalescer.class);
+
+    final LightsService lightsService;
+    final MeterRegistry meterRegistry;
+
+    private final Counter mergedCounter;
+    private final Counter droppedCounter;
+    private final Counter failedCounter;
+
+    public LightCommandCoalescer(LightsService lightsService, MeterRegistry meterRegistry) {
+        this.lightsService = lightsService;
+        this.meterRegistry = meterRegistry;
+        this.mergedCounter = Counter.builder("hue.commands.coalesced")
+            .description("Commands folded into one already waiting for the same light or group")
+            .tag("outcome", "merged")
+            .register(meterRegistry);
+        this.droppedCounter = Counter.builder("hue.commands.coalesced")
+            .description("Brightness or colour values replaced by a newer one before being sent")
+            .tag("outcome", "dropped")
+            .register(meterRegistry);
+        this.failedCounter = Counter.builder("hue.commands.coalesced")
+            .description("Coalesced commands the bridge didn't accept")
+            .tag("outcome", "failed")
+            .register(meterRegistry);
+    }
+
+    public record Target(
+        boolean group,
+        String id
+    ) {
+        public static Target light(String lightId) {
+            return new Target(false, lightId);
+        }
+
+        public static Target group(String groupId) {
+            return new Target(true, groupId);
+        }
+    }
+
+    private record PendingCommand(
+        Double brightness,
+        RgbToXyDto xy
+    ) {}
+
+    // A target's send under way, and the command waiting for it to finish, if any
+    private record InFlight(
+        PendingCommand next
+    ) {}
+
+    // Only ever changed inside compute, so a command can't slip in just as a send finishes
+    private final Map<Target, InFlight> inFlight = new ConcurrentHashMap<>();
+
+    @PreDestroy
+    public void stop() {
+        // Don't lose the last position of a slider on shutdown
+        this.inFlight.keySet().forEach(target -> {
+            PendingCommand next = takeNext(target);
+            if (next != null) {
+                send(target, next);
+            }
+        });
+    }
+
+    /**
+     * Queues a brightness and/or colour change.
+     */
+    public void submit(Target target, Double brightness, RgbToXyDto xy) {
+        PendingCommand command = new PendingCommand(brightness, xy);
+        boolean[] idle = {false};
+
+        this.inFlight.compute(target, (k, current) -> {
+            if (current == null) {
+                idle[0] = true;
+                return new InFlight(null);
+            }
+
+            return new InFlight(current.next() != null ? merge(current.next(), command) : command);
+        });
+
+        if (idle[0]) {
+            Thread.ofVirtual().name("hue-coalescer").start(() -> drain(target, command));
+        }
+    }
+
+    private PendingCommand merge(PendingCommand existing, PendingCommand command) {
+        this.mergedCounter.increment();
+        if (command.brightness() != null && existing.brightness() != null) {
+            this.droppedCounter.increment();
+        }
+        if (command.xy() != null && existing.xy() != null) {
+            this.droppedCounter.increment();
+        }
+
+        return new PendingCommand(
+            command.brightness() != null ? command.brightness() : existing.brightness(),
+            command.xy() != null ? command.xy() : existing.xy());
+    }
+
+    // Only one of these runs per target at a time, so a slow bridge can't reorder its commands
+    private void drain(Target target, PendingCommand first) {
+        PendingCommand command = first;
+
+        while (command != null) {
+            send(target, command);
+            command = takeNext(target);
+        }
+    }
+
+    // The waiting command, if any; when there isn't one the target goes back to idle
+    private PendingCommand takeNext(Target target) {
+        PendingCommand[] next = {null};
+
+        this.inFlight.computeIfPresent(target, (k, current) -> {
+            next[0] = current.next();
+            return current.next() != null ? new InFlight(null) : null;
+        });
+
+        return next[0];
+    }
+
+    private void send(Target target, PendingCommand command) {
+        boolean sent;
+        try {
+            // Brightness and colour go out together in one request
+            sent = target.group()
+                ? this.lightsService.modifyGroupState(target.id(), null, command.brightness(), command.xy())
+                : this.lightsService.modifyLightState(target.id(), null, command.brightness(), command.xy());
+        } catch (Exception ex) {
+            log.warn("Failed to send coalesced command for {}: {}", target, ex.getMessage());
+            this.failedCounter.increment();
+            return;
+        }
+
+        // LightsService reports a rejected or failed command as false rather than throwing
+        if (!sent) {
+            log.warn("Coalesced command for {} wasn't sent", target);
+            this.failedCounter.increment();
+        }
+    }
+}
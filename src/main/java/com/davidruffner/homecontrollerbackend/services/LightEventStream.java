@@ -0,0 +1,319 @@
+package com.davidruffner.homecontrollerbackend.services;
+
+import com.davidruffner.homecontrollerbackend.config.HueConfig;
+import com.davidruffner.homecontrollerbackend.entities.LightBulbTrack;
+import com.davidruffner.homecontrollerbackend.entities.RGB;
+import com.davidruffner.homecontrollerbackend.events.HueTopologyChangedEvent;
+import com.davidruffner.homecontrollerbackend.repositories.LightBulbTrackRepository;
+import com.davidruffner.homecontrollerbackend.services.LightChangeLog.LightChange;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pushes light state changes to controller UIs over SSE, so they don't have to poll for changes
+ * made from other devices.
+ *
+ * Each client can subscribe to particular lights and/or groups (nothing means everything), and
+ * says which {@link LightChangeLog} version it's already seen. A dispatcher thread only queues
+ * new changes for every client, up to app.hue.lightEvents.clientQueueSize batches; each client has
+ * its own sender thread that works out what it's subscribed to and does the sending, so one slow
+ * connection can't hold up the rest. A client whose queue fills up is closed, and picks up where
+ * it left off when it reconnects. A reconnecting client gets what it missed first, and a client
+ * too far behind gets a "resync" event telling it to reload. Idle clients get a comment every
+ * app.hue.lightEvents.heartbeat so proxies don't close the connection.
+ */
+@Component
+public class LightEventStream {
+
+    private static final Logger log = LoggerFactory.getLogger(LightEventStream.class);
+
+    final HueConfig hueConfig;
+    final LightChangeLog lightChangeLog;
+    final LightsService lightsService;
+    final LightBulbTrackRepository lightBulbTrackRepo;
+
+    public LightEventStream(
+        HueConfig hueConfig,
+        LightChangeLog lightChangeLog,
+        LightsService lightsService,
+        LightBulbTrackRepository lightBulbTrackRepo) {
+
+        this.hueConfig = hueConfig;
+        this.lightChangeLog = lightChangeLog;
+        this.lightsService = lightsService;
+        this.lightBulbTrackRepo = lightBulbTrackRepo;
+    }
+
+    public record LightDelta(
+        long version,
+        String id,
+        List<String> groupIds,
+        Boolean isOn,
+        Double brightness,
+        RGB color
+    ) {}
+
+    // What the dispatcher picked up in one go, or that the client has to reload because the
+    // changes are gone (e.g. dropped by a topology change)
+    private record Batch(
+        boolean resync,
+        List<LightChange> changes
+    ) {}
+
+    private static final class Client {
+        private final SseEmitter emitter;
+        private final Set<String> lightIds;
+        private final Set<String> groupIds;
+        private final BlockingQueue<Batch> queue;
+        private volatile boolean stale = true;
+        private Thread sender;
+
+        // Only touched by the sender
+        private Set<String> lightAliases = Set.of();
+        private Map<String, List<String>> groupsByMemberId = Map.of();
+        private long version;
+        private long lastSentAt;
+
+        private Client(SseEmitter emitter, Set<String> lightIds, Set<String> groupIds, long version, int queueSize) {
+            this.emitter = emitter;
+            this.lightIds = lightIds;
+            this.groupIds = groupIds;
+            this.queue = new ArrayBlockingQueue<>(queueSize);
+            this.version = version;
+            this.lastSentAt = System.nanoTime();
+        }
+
+        private boolean wantsEverything() {
+            return this.lightIds.isEmpty() && this.groupIds.isEmpty();
+        }
+    }
+
+    private final List<Client> clients = new CopyOnWriteArrayList<>();
+    private final Semaphore wakeups = new Semaphore(0);
+    private volatile boolean running;
+    private Thread dispatcher;
+
+    @PostConstruct
+    public void start() {
+        this.running = true;
+        this.lightChangeLog.addListener(this.wakeups::release);
+        long dispatchedVersion = this.lightChangeLog.getLatestVersion();
+        this.dispatcher = Thread.ofVirtual()
+            .name("light-event-stream")
+            .start(() -> dispatch(dispatchedVersion));
+    }
+
+    @PreDestroy
+    public void stop() {
+        this.running = false;
+        this.dispatcher.interrupt();
+        this.clients.forEach(this::close);
+    }
+
+    /**
+     * Opens a stream for one client. {@code resumeFrom} is the last version it saw (the SSE
+     * Last-Event-ID), or null to start from now.
+     */
+    public SseEmitter subscribe(Collection<String> lightIds, Collection<String> groupIds, Long resumeFrom)
+        throws Exception {
+
+        SseEmitter emitter = new SseEmitter(this.hueConfig.getLightEvents().getTimeout().toMillis());
+        long version = resumeFrom != null ? resumeFrom : this.lightChangeLog.getLatestVersion();
+        Client client = new Client(emitter, Set.copyOf(lightIds), Set.copyOf(groupIds), version,
+            this.hueConfig.getLightEvents().getClientQueueSize());
+
+        emitter.onCompletion(() -> remove(client));
+        emitter.onTimeout(() -> close(client));
+        emitter.onError(ex -> close(client));
+
+        // Gets the response headers out straight away rather than on the first change
+        emitter.send(SseEmitter.event().comment("connected"));
+
+        // Added before the sender catches up from the log, so nothing falls in between; anything
+        // it gets both ways is skipped by version
+        client.sender = Thread.ofVirtual()
+            .name("light-event-stream-client")
+            .unstarted(() -> send(client));
+        this.clients.add(client);
+        client.sender.start();
+
+        return emitter;
+    }
+
+    public int getClientCount() {
+        return this.clients.size();
+    }
+
+    @EventListener
+    public void onTopologyChanged(HueTopologyChangedEvent event) {
+        this.clients.forEach(client -> client.stale = true);
+    }
+
+    private boolean remove(Client client) {
+        if (!this.clients.remove(client)) {
+            return false;
+        }
+
+        client.sender.interrupt();
+        return true;
+    }
+
+    private void close(Client client) {
+        if (remove(client)) {
+            client.emitter.complete();
+        }
+    }
+
+    // Never blocks on a client: changes are only offered to each client's queue
+    private void dispatch(long dispatchedVersion) {
+        while (this.running) {
+            try {
+                this.wakeups.acquire();
+                this.wakeups.drainPermits();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            Optional<List<LightChange>> changes = this.lightChangeLog.since(dispatchedVersion);
+            if (changes.isEmpty()) {
+                // The history was dropped (e.g. by a topology change), so everyone has to reload
+                dispatchedVersion = this.lightChangeLog.getLatestVersion();
+                offer(new Batch(true, List.of()));
+            } else if (!changes.get().isEmpty()) {
+                dispatchedVersion = changes.get().getLast().version();
+                offer(new Batch(false, changes.get()));
+            }
+        }
+    }
+
+    // A client that's let its queue fill up is too slow to keep up, so it's closed rather than
+    // buffered for; it'll resume from its last version when it reconnects
+    private void offer(Batch batch) {
+        this.clients.forEach(client -> {
+            if (!client.queue.offer(batch)) {
+                log.debug("Closing light event stream {} batches behind", client.queue.size());
+                close(client);
+            }
+        });
+    }
+
+    private void send(Client client) {
+        long heartbeatMillis = this.hueConfig.getLightEvents().getHeartbeat().toMillis();
+
+        try {
+            catchUp(client);
+
+            while (this.running) {
+                Batch batch = client.queue.poll(heartbeatMillis, TimeUnit.MILLISECONDS);
+                long now = System.nanoTime();
+
+                if (batch != null && batch.resync()) {
+                    sendResync(client, now);
+                } else if (batch != null) {
+                    if (client.stale) {
+                        client.stale = false;
+                        resolve(client);
+                    }
+                    for (LightChange change : batch.changes()) {
+                        // Anything it already caught up on from the log
+                        if (change.version() > client.version) {
+                            deliver(client, change, now);
+                        }
+                    }
+                }
+
+                if (TimeUnit.NANOSECONDS.toMillis(now - client.lastSentAt) >= heartbeatMillis) {
+                    client.emitter.send(SseEmitter.event().comment("heartbeat"));
+                    client.lastSentAt = now;
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (Exception ex) {
+            // Most likely the client went away; it'll resume from its last version if it comes back
+            if (this.clients.remove(client)) {
+                client.emitter.completeWithError(ex);
+            }
+        }
+    }
+
+    // Whatever the client missed before it connected
+    private void catchUp(Client client) throws Exception {
+        long now = System.nanoTime();
+        Optional<List<LightChange>> changes = this.lightChangeLog.since(client.version);
+        if (changes.isEmpty()) {
+            sendResync(client, now);
+            return;
+        }
+
+        client.stale = false;
+        resolve(client);
+        for (LightChange change : changes.get()) {
+            deliver(client, change, now);
+        }
+    }
+
+    private void sendResync(Client client, long now) throws Exception {
+        long latest = this.lightChangeLog.getLatestVersion();
+        client.emitter.send(SseEmitter.event()
+            .id(String.valueOf(latest))
+            .name("resync")
+            .data(Map.of("version", latest)));
+        client.version = latest;
+        client.lastSentAt = now;
+    }
+
+    private void deliver(Client client, LightChange change, long now) throws Exception {
+        client.version = change.version();
+
+        List<String> groupIds = client.groupsByMemberId.getOrDefault(change.id(), List.of());
+        if (client.wantsEverything() || client.lightAliases.contains(change.id()) || !groupIds.isEmpty()) {
+            client.emitter.send(SseEmitter.event()
+                .id(String.valueOf(change.version()))
+                .name("light")
+                .data(new LightDelta(change.version(), change.id(), groupIds, change.isOn(),
+                    change.brightness(), change.color())));
+            client.lastSentAt = now;
+        }
+    }
+
+    // Changes are raised with either a light's ID or its device's, so match on both
+    private void resolve(Client client) {
+        Set<String> lightAliases = new HashSet<>(client.lightIds);
+        if (!client.lightIds.isEmpty()) {
+            this.lightBulbTrackRepo.findAllByIds(client.lightIds).forEach(track -> {
+                lightAliases.add(track.getLightId());
+                lightAliases.add(track.getDeviceId());
+            });
+        }
+
+        Map<String, List<String>> groupsByMemberId = new HashMap<>();
+        client.groupIds.forEach(groupId -> {
+            try {
+                for (LightBulbTrack bulb : this.lightsService.getBulbsForGroup(groupId).getBody().lightBulbs()) {
+                    groupsByMemberId.computeIfAbsent(bulb.getLightId(), k -> new ArrayList<>()).add(groupId);
+                    groupsByMemberId.computeIfAbsent(bulb.getDeviceId(), k -> new ArrayList<>()).add(groupId);
+                }
+            } catch (Exception ex) {
+                log.warn("Couldn't load group {} for a light event subscription: {}", groupId, ex.getMessage());
+                client.stale = true;
+            }
+        });
+
+        client.lightAliases = lightAliases;
+        client.groupsByMemberId = groupsByMemberId;
+    }
+}
@@ -0,0 +1,151 @@
+package com.davidruffner.homecontrollerbackend.services;
+
+import com.davidruffner.homecontrollerbackend.entities.LightBulbTrack;
+import com.davidruffner.homecontrollerbackend.entities.RGB;
+import com.davidruffner.homecontrollerbackend.events.LightStateChangedEvent;
+import com.davidruffner.homecontrollerbackend.repositories.LightBulbTrackRepository;
+import com.davidruffner.homecontrollerbackend.repositories.LightBulbTrackRepositoryCustom.LightStateUpdate;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write-behind for cached bulb state. Every {@link LightStateChangedEvent}, whether from a
+ * command sent here or reported by the bridge's event stream, is merged per bulb (latest value
+ * wins for each field) and written out in one JDBC batch every app.hue.writeBuffer.flushInterval,
+ * and once more on shutdown. Anything read from light_bulbs should go through {@link #overlay}
+ * so changes that haven't been flushed yet are still seen.
+ */
+@Component
+public class LightStateWriteBuffer {
+
+    private static final Logger log = LoggerFactory.getLogger(LightStateWriteBuffer.class);
+
+    final LightBulbTrackRepository lightBulbTrackRepo;
+
+    public LightStateWriteBuffer(LightBulbTrackRepository lightBulbTrackRepo) {
+        this.lightBulbTrackRepo = lightBulbTrackRepo;
+    }
+
+    private record PendingState(
+        Boolean isOn,
+        Double brightness,
+        RGB color
+    ) {
+        PendingState mergedWith(PendingState newer) {
+            return new PendingState(
+                newer.isOn() != null ? newer.isOn() : this.isOn(),
+                newer.brightness() != null ? newer.brightness() : this.brightness(),
+                newer.color() != null ? newer.color() : this.color());
+        }
+    }
+
+    // Keyed by whichever light or device ID the change was made with
+    private final Map<String, PendingState> pending = new ConcurrentHashMap<>();
+    // Drained from pending and being written, so reads still see them until they're committed
+    private final Map<String, PendingState> flushing = new ConcurrentHashMap<>();
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    public void record(List<String> ids, Boolean isOn, Double brightness, RGB color) {
+        PendingState change = new PendingState(isOn, brightness, color);
+        ids.forEach(id -> this.pending.merge(id, change, PendingState::mergedWith));
+    }
+
+    @EventListener
+    public void onLightStateChanged(LightStateChangedEvent event) {
+        record(List.of(event.id()), event.isOn(), event.brightness(), event.color());
+    }
+
+    public int getPendingCount() {
+        return this.pending.size();
+    }
+
+    /**
+     * Returns {@code track} with any unflushed changes applied, as a copy so the entity itself
+     * isn't touched.
+     */
+    public LightBulbTrack overlay(LightBulbTrack track) {
+        PendingState byLight = unflushed(track.getLightId());
+        PendingState byDevice = unflushed(track.getDeviceId());
+        if (byLight == null && byDevice == null) {
+            return track;
+        }
+
+        PendingState state = byLight == null ? byDevice
+            : byDevice == null ? byLight
+            : byDevice.mergedWith(byLight);
+
+        LightBulbTrack overlaid = new LightBulbTrack();
+        overlaid.setLightId(track.getLightId());
+        overlaid.setDeviceId(track.getDeviceId());
+        overlaid.setName(track.getName());
+        overlaid.setIsOn(state.isOn() != null ? state.isOn() : track.getIsOn());
+        overlaid.setBrightness(state.brightness() != null ? state.brightness() : track.getBrightness());
+        overlaid.setRed(state.color() != null ? state.color().getRed() : track.getRed());
+        overlaid.setGreen(state.color() != null ? state.color().getGreen() : track.getGreen());
+        overlaid.setBlue(state.color() != null ? state.color().getBlue() : track.getBlue());
+
+        return overlaid;
+    }
+
+    // Anything still being written, with anything recorded since on top. Pending is read first:
+    // a change moves into flushing before it leaves pending, so it's always in one or the other.
+    private PendingState unflushed(String id) {
+        PendingState recorded = this.pending.get(id);
+        PendingState writing = this.flushing.get(id);
+
+        if (writing == null) {
+            return recorded;
+        }
+        return recorded == null ? writing : writing.mergedWith(recorded);
+    }
+
+    @Scheduled(fixedDelayString = "${app.hue.writeBuffer.flushInterval:250ms}")
+    public void flush() {
+        if (this.pending.isEmpty()) {
+            return;
+        }
+
+        // The scheduled flush and the one on shutdown mustn't share the flushing map
+        this.flushLock.lock();
+        try {
+            List<LightStateUpdate> updates = new ArrayList<>();
+            this.pending.keySet().forEach(id -> this.pending.computeIfPresent(id, (k, state) -> {
+                this.flushing.put(id, state);
+                updates.add(new LightStateUpdate(id, state.isOn(), state.brightness(),
+                    state.color() != null ? state.color().getRed() : null,
+                    state.color() != null ? state.color().getGreen() : null,
+                    state.color() != null ? state.color().getBlue() : null));
+                return null;
+            }));
+
+            try {
+                this.lightBulbTrackRepo.updateStates(updates);
+            } catch (Exception ex) {
+                log.warn("Failed to flush {} light state updates, will retry: {}", updates.size(), ex.getMessage());
+
+                // Put them back underneath anything recorded since, before they stop being read from here
+                this.flushing.forEach((id, state) ->
+                    this.pending.merge(id, state, (newer, old) -> old.mergedWith(newer)));
+            }
+
+            this.flushing.clear();
+        } finally {
+            this.flushLock.unlock();
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        flush();
+    }
+}
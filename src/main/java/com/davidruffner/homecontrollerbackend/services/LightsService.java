@@ -2,33 +2,100 @@ package com.davidruffner.homecontrollerbackend.services;
 
 import com.davidruffner.homecontrollerbackend.HueGroupResponseDto.GetBulbsForGroupResponse;
 import com.davidruffner.homecontrollerbackend.HueGroupResponseDto.HueGroupResponse;
+import com.davidruffner.homecontrollerbackend.config.HueConfig;
 import com.davidruffner.homecontrollerbackend.entities.*;
+import com.davidruffner.homecontrollerbackend.enums.ColorGamut;
+import com.davidruffner.homecontrollerbackend.enums.ResponseCode;
+import com.davidruffner.homecontrollerbackend.events.HueMetadataChangedEvent;
+import com.davidruffner.homecontrollerbackend.events.HueTopologyChangedEvent;
+import com.davidruffner.homecontrollerbackend.events.LightStateChangedEvent;
+import com.davidruffner.homecontrollerbackend.exceptions.ControllerException;
 import com.davidruffner.homecontrollerbackend.repositories.LightBulbTrackRepository;
+import com.davidruffner.homecontrollerbackend.repositories.LightBulbTrackRepositoryCustom.TrackDiff;
 import com.davidruffner.homecontrollerbackend.services.ColorConversionService.RgbToXyDto;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
+import com.davidruffner.homecontrollerbackend.services.HueCommandScheduler.CommandClass;
+import com.davidruffner.homecontrollerbackend.services.HueBridges.HueBridge;
+import com.davidruffner.homecontrollerbackend.services.HueBridges.HueResource;
+import com.davidruffner.homecontrollerbackend.services.HueBridges.HueResourceResponse;
+import com.davidruffner.homecontrollerbackend.services.HueBridges.ResourceRead;
+import com.davidruffner.homecontrollerbackend.services.HueBridges.ResourceReads;
+import com.davidruffner.homecontrollerbackend.services.HueCommandScheduler.CommandPriority;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.web.bind.annotation.PathVariable;
-import org.springframework.web.client.RestClient;
 
 import java.util.*;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static java.util.Map.entry;
 
 @Service
 public class LightsService {
 
-    @Autowired
-    @Qualifier("HueRestClient")
-    RestClient restClient;
+    private static final Logger log = LoggerFactory.getLogger(LightsService.class);
+
+    private static final ResourceRead<DeviceDto> DEVICES = new ResourceRead<>("device", HueDevicesResponse.class);
+    private static final ResourceRead<LightDto> LIGHTS = new ResourceRead<>("light", HueLightResponse.class);
+    private static final ResourceRead<HueRoomDataDTO> ROOMS = new ResourceRead<>("room", HueRoomResponse.class);
+
+    final HueBridges hueBridges;
+    final ColorConversionService colorConversionService;
+    final LightBulbTrackRepository lightBulbTrackRepo;
+    final HueStateRegistry hueStateRegistry;
+    final RoomTopologyCache roomTopologyCache;
+    final HueCommandScheduler hueCommandScheduler;
+    final ParallelFetchExecutor parallelFetchExecutor;
+    final GroupAggregateCache groupAggregateCache;
+    final ApplicationEventPublisher eventPublisher;
+    final LightStateWriteBuffer lightStateWriteBuffer;
+    final HueConfig hueConfig;
+
+    public LightsService(
+        HueBridges hueBridges,
+        ColorConversionService colorConversionService,
+        LightBulbTrackRepository lightBulbTrackRepo,
+        HueStateRegistry hueStateRegistry,
+        RoomTopologyCache roomTopologyCache,
+        HueCommandScheduler hueCommandScheduler,
+        ParallelFetchExecutor parallelFetchExecutor,
+        GroupAggregateCache groupAggregateCache,
+        ApplicationEventPublisher eventPublisher,
+        LightStateWriteBuffer lightStateWriteBuffer,
+        HueConfig hueConfig) {
+
+        this.hueBridges = hueBridges;
+        this.colorConversionService = colorConversionService;
+        this.lightBulbTrackRepo = lightBulbTrackRepo;
+        this.hueStateRegistry = hueStateRegistry;
+        this.roomTopologyCache = roomTopologyCache;
+        this.hueCommandScheduler = hueCommandScheduler;
+        this.parallelFetchExecutor = parallelFetchExecutor;
+        this.groupAggregateCache = groupAggregateCache;
+        this.eventPublisher = eventPublisher;
+        this.lightStateWriteBuffer = lightStateWriteBuffer;
+        this.hueConfig = hueConfig;
+    }
+
+    // Keyed by both light and device ID, filled in whenever light resources are read
+    private final Map<String, ColorGamut> gamutsById = new ConcurrentHashMap<>();
+
+    // Whether light_bulbs may be missing lights, still have ones that are gone, or have old names
+    private volatile boolean tracksStale = true;
 
-    @Autowired
-    ColorConversionService colorConversionService;
+    @EventListener
+    public void onTopologyChanged(HueTopologyChangedEvent event) {
+        this.tracksStale = true;
+    }
 
-    @Autowired
-    LightBulbTrackRepository lightBulbTrackRepo;
+    @EventListener
+    public void onMetadataChanged(HueMetadataChangedEvent event) {
+        this.tracksStale = true;
+    }
 
     public record ServiceDto(
         String rid,
@@ -40,12 +107,22 @@ public class LightsService {
         String id_v1,
         List<ServiceDto> services,
         String type
-    ) {}
+    ) implements HueResource {
+        @Override
+        public List<String> ownedIds() {
+            List<String> ids = new ArrayList<>();
+            ids.add(this.id);
+            if (this.services != null) {
+                this.services.forEach(service -> ids.add(service.rid()));
+            }
+            return ids;
+        }
+    }
 
     public record HueDevicesResponse(
         List<Object> errors,
         List<DeviceDto> data
-    ) {}
+    ) implements HueResourceResponse<DeviceDto> {}
 
     public record LightMetadataDto(
         String name
@@ -65,84 +142,177 @@ public class LightsService {
     ) {}
 
     public record LightColorDto(
-        LightColorXYDto xy
+        LightColorXYDto xy,
+        String gamut_type
+    ) {}
+
+    public record LightOwnerDto(
+        String rid,
+        String rtype
     ) {}
 
     public record LightDto(
         String id,
+        LightOwnerDto owner,
         LightMetadataDto metadata,
         LightOnDto on,
         LightDimmingDto dimming,
         LightColorDto color
-    ) {}
+    ) implements HueResource {}
 
     public record HueLightResponse(
         List<Object> errors,
         List<LightDto> data
-    ) {}
+    ) implements HueResourceResponse<LightDto> {}
 
     public List<LightBulb> getAllLightBulbs() {
-        List<LightBulb> lightBulbs = new ArrayList<>();
+        if (this.hueStateRegistry.isSynced()) {
+            return buildLightBulbs(this.hueStateRegistry.getDevices(), this.hueStateRegistry.getLights());
+        }
 
-        HueDevicesResponse response = restClient
-            .get()
-            .uri("/clip/v2/resource/device")
-            .header("hue-application-key", "JmUsSn0cIUtwGZAf4Z6rxmMFsQJPNxMAye7uS4iQ")
-            .retrieve()
-            .body(HueDevicesResponse.class);
+        // Pull every light in one request per bridge and join them to their devices by owner, rather
+        // than doing a round trip per device. None of the reads depend on each other so run side by side.
+        ResourceReads responses = this.hueBridges.readAll("getAllLightBulbs", List.of(DEVICES, LIGHTS));
 
-        this.lightBulbTrackRepo.deleteAll();
+        return buildLightBulbs(responses.get(DEVICES), responses.get(LIGHTS));
+    }
 
-        response.data.forEach(device -> {
+    private List<LightBulb> buildLightBulbs(List<DeviceDto> devices, List<LightDto> lights) {
+        Map<String, LightDto> lightsByDeviceId = new HashMap<>();
+        lights.forEach(light -> {
+            if (light.owner() != null) {
+                lightsByDeviceId.put(light.owner().rid(), light);
+            }
+        });
+
+        List<LightBulb> lightBulbs = new ArrayList<>();
+        List<LightBulbTrack> tracks = new ArrayList<>();
+
+        devices.forEach(device -> {
             String deviceId = device.id();
-            Optional<ServiceDto> serviceDto = device.services().stream()
-                .filter(service -> {
-                    return service.rtype.equals("light");
-                }).findFirst();
-
-            if (serviceDto.isPresent()) {
-                String lightId = serviceDto.get().rid();
-                LightBulb lightBulb = new LightBulb(deviceId, lightId);
-
-                HueLightResponse lightResponse = restClient
-                    .get()
-                    .uri("/clip/v2/resource/light/" + lightId)
-                    .header("hue-application-key", "JmUsSn0cIUtwGZAf4Z6rxmMFsQJPNxMAye7uS4iQ")
-                    .retrieve()
-                    .body(HueLightResponse.class);
-
-                if (lightResponse != null && !lightResponse.data.isEmpty()) {
-                    LightDto light = lightResponse.data.getFirst();
-                    Double colorX = light.color().xy().x();
-                    Double colorY = light.color().xy().y();
-                    Double colorZ = (light.dimming().brightness() / 100);
-                    RGB color = colorConversionService.xyToRGB(colorX, colorY, colorZ);
-                    Boolean lightStatus = light.on().on();
-
-                    lightBulb.setName(light.metadata().name());
-                    lightBulb.setLightStatus(light.on().on());
-                    lightBulb.setColor(color);
-                    lightBulb.setBrightness(light.dimming().brightness());
-
-                    LightBulbTrack track = new LightBulbTrack();
-                    track.setLightId(lightId);
-                    track.setDeviceId(deviceId);
-                    track.setBrightness(light.dimming.brightness());
-                    track.setRed(color.getRed());
-                    track.setBlue(color.getBlue());
-                    track.setGreen(color.getGreen());
-                    track.setIsOn(lightStatus);
-                    track.setName(light.metadata().name());
-                    this.lightBulbTrackRepo.save(track);
-
-                    lightBulbs.add(lightBulb);
-                }
+            LightDto light = lightsByDeviceId.get(deviceId);
+
+            if (light != null) {
+                LightBulbTrack track = toLightBulbTrack(deviceId, light);
+                LightBulb lightBulb = new LightBulb(deviceId, light.id());
+
+                lightBulb.setName(track.getName());
+                lightBulb.setLightStatus(track.getIsOn());
+                lightBulb.setColor(new RGB(track.getRed(), track.getGreen(), track.getBlue()));
+                lightBulb.setBrightness(track.getBrightness());
+
+                tracks.add(track);
+                lightBulbs.add(lightBulb);
             }
         });
 
+        // With the event stream up, every state change reaches light_bulbs through the write
+        // buffer as it happens, so the rows only need reconciling when lights come, go or are renamed
+        boolean synced = this.hueStateRegistry.isSynced();
+        if (synced && !this.tracksStale) {
+            return lightBulbs;
+        }
+
+        // Cleared first, so a topology change during the sync has it done again next time
+        this.tracksStale = false;
+        TrackDiff diff;
+        try {
+            diff = this.lightBulbTrackRepo.syncAll(tracks);
+        } catch (RuntimeException ex) {
+            this.tracksStale = true;
+            throw ex;
+        }
+
+        // With the event stream up, changes have already been published as they happened. Without
+        // it, this is the first we've heard of anything changed from elsewhere (the Hue app, a switch)
+        if (!synced) {
+            diff.upserts().forEach(track -> this.eventPublisher.publishEvent(new LightStateChangedEvent(
+                track.getLightId(), track.getIsOn(), track.getBrightness(),
+                new RGB(track.getRed(), track.getGreen(), track.getBlue()))));
+
+            if (!diff.deletes().isEmpty()) {
+                this.eventPublisher.publishEvent(new HueTopologyChangedEvent("light"));
+            }
+        }
+
         return lightBulbs;
     }
 
+    private LightBulbTrack toLightBulbTrack(String deviceId, LightDto light) {
+        rememberGamut(deviceId, light);
+
+        Double colorX = light.color().xy().x();
+        Double colorY = light.color().xy().y();
+        Double colorZ = (light.dimming().brightness() / 100);
+        RGB color = colorConversionService.xyToRGB(colorX, colorY, colorZ);
+
+        LightBulbTrack track = new LightBulbTrack();
+        track.setLightId(light.id());
+        track.setDeviceId(deviceId);
+        track.setBrightness(light.dimming().brightness());
+        track.setRed(color.getRed());
+        track.setBlue(color.getBlue());
+        track.setGreen(color.getGreen());
+        track.setIsOn(light.on().on());
+        track.setName(light.metadata().name());
+
+        return track;
+    }
+
+    private ColorGamut rememberGamut(String deviceId, LightDto light) {
+        ColorGamut gamut = ColorGamut.fromStrVal(light.color() != null ? light.color().gamut_type() : null)
+            .orElse(ColorGamut.OTHER);
+
+        this.gamutsById.put(light.id(), gamut);
+        if (deviceId != null) {
+            this.gamutsById.put(deviceId, gamut);
+        }
+
+        return gamut;
+    }
+
+    /**
+     * The gamut of a light, by light or device ID. Lights we haven't read yet are OTHER, so
+     * their colours are sent unclamped.
+     */
+    public ColorGamut getGamut(String id) {
+        ColorGamut known = this.gamutsById.get(id);
+        if (known != null) {
+            return known;
+        }
+
+        if (this.hueStateRegistry.isSynced()) {
+            for (LightDto light : this.hueStateRegistry.getLights()) {
+                String deviceId = light.owner() != null ? light.owner().rid() : null;
+                if (id.equals(light.id()) || id.equals(deviceId)) {
+                    return rememberGamut(deviceId, light);
+                }
+            }
+        }
+
+        return ColorGamut.OTHER;
+    }
+
+    /**
+     * A group's lights all get the same xy, so it's only clamped when they share one gamut.
+     */
+    public ColorGamut getGroupGamut(String groupId) {
+        List<ColorGamut> gamuts = this.roomTopologyCache.getChildren(groupId).orElse(List.of()).stream()
+            .map(child -> getGamut(child.rid()))
+            .distinct()
+            .toList();
+
+        return gamuts.size() == 1 ? gamuts.get(0) : ColorGamut.OTHER;
+    }
+
+    public RgbToXyDto rgbToXyForLight(String lightId, RGB rgb) {
+        return this.colorConversionService.rgbToXy(rgb, getGamut(lightId));
+    }
+
+    public RgbToXyDto rgbToXyForGroup(String groupId, RGB rgb) {
+        return this.colorConversionService.rgbToXy(rgb, getGroupGamut(groupId));
+    }
+
     public record HueRoomChildDTO(
         String rid,
         String rtype
@@ -162,12 +332,26 @@ public class LightsService {
         List<HueRoomServiceDTO> services,
         List<HueRoomChildDTO> children,
         HueRoomMetadataDTO metadata
-    ) {}
+    ) implements HueResource {
+        // Its grouped_light and the devices in it are on the same bridge
+        @Override
+        public List<String> ownedIds() {
+            List<String> ids = new ArrayList<>();
+            ids.add(this.id);
+            if (this.services != null) {
+                this.services.forEach(service -> ids.add(service.rid()));
+            }
+            if (this.children != null) {
+                this.children.forEach(child -> ids.add(child.rid()));
+            }
+            return ids;
+        }
+    }
 
     public record HueRoomResponse(
         List<Object> errors,
         List<HueRoomDataDTO> data
-    ) {}
+    ) implements HueResourceResponse<HueRoomDataDTO> {}
 
 //    public record HueRoom(
 //        String name,
@@ -176,51 +360,42 @@ public class LightsService {
 //    ) {}
 
     public Map<String, HueRoom> getLightBulbsMappedByRoom() {
-        List<LightBulb> lightBulbs = getAllLightBulbs();
-        Map<String, HueRoom> mappedLightBulbs = new HashMap<>();
-
-        HueRoomResponse response = restClient
-            .get()
-            .uri("/clip/v2/resource/room")
-            .header("hue-application-key", "JmUsSn0cIUtwGZAf4Z6rxmMFsQJPNxMAye7uS4iQ")
-            .retrieve()
-            .body(HueRoomResponse.class);
-
-        response.data().forEach(room -> {
-            if (mappedLightBulbs.containsKey(room.id())) {
-                HueRoom hueRoom = mappedLightBulbs.get(room.id());
-
-                Optional<HueRoomServiceDTO> groupService = room.services()
-                    .stream().filter(s -> s.rtype().equals("grouped_light")).findFirst();
-                groupService.ifPresent(hueRoomServiceDTO ->
-                    hueRoom.setGroupToggleId(hueRoomServiceDTO.rid()));
-
-                room.children().forEach(child -> {
-                    Optional<LightBulb> lightBulb = lightBulbs.stream()
-                        .filter(bulb -> {
-                            return bulb.getDeviceId().equals(child.rid());
-                        }).findFirst();
-
-                    lightBulb.ifPresent(hueRoom::addLightBulb);
-                });
-            } else {
-                HueRoom hueRoom = new HueRoom(room.metadata().name());
+        if (this.hueStateRegistry.isSynced()) {
+            return mapBulbsToRooms(this.hueStateRegistry.getRooms(), getAllLightBulbs());
+        }
 
-                Optional<HueRoomServiceDTO> groupService = room.services()
-                    .stream().filter(s -> s.rtype().equals("grouped_light")).findFirst();
-                groupService.ifPresent(hueRoomServiceDTO ->
-                    hueRoom.setGroupToggleId(hueRoomServiceDTO.rid()));
+        ResourceReads responses = this.hueBridges.readAll("getLightBulbsMappedByRoom",
+            List.of(DEVICES, LIGHTS, ROOMS));
 
-                room.children().forEach(child -> {
-                    Optional<LightBulb> lightBulb = lightBulbs.stream()
-                        .filter(bulb -> {
-                            return bulb.getDeviceId().equals(child.rid());
-                        }).findFirst();
+        List<LightBulb> lightBulbs = buildLightBulbs(responses.get(DEVICES), responses.get(LIGHTS));
 
-                    lightBulb.ifPresent(hueRoom::addLightBulb);
-                });
-                mappedLightBulbs.put(room.id(), hueRoom);
-            }
+        return mapBulbsToRooms(responses.get(ROOMS), lightBulbs);
+    }
+
+    /**
+     * Groups bulbs into their rooms, keyed by room ID. Bulbs are indexed by device ID up front so
+     * this stays linear in rooms + children + bulbs rather than scanning every bulb per child.
+     */
+    static Map<String, HueRoom> mapBulbsToRooms(List<HueRoomDataDTO> rooms, List<LightBulb> lightBulbs) {
+        Map<String, LightBulb> bulbsByDeviceId = HashMap.newHashMap(lightBulbs.size());
+        lightBulbs.forEach(bulb -> bulbsByDeviceId.putIfAbsent(bulb.getDeviceId(), bulb));
+
+        Map<String, HueRoom> mappedLightBulbs = HashMap.newHashMap(rooms.size());
+        rooms.forEach(room -> {
+            HueRoom hueRoom = mappedLightBulbs.computeIfAbsent(room.id(),
+                k -> new HueRoom(room.metadata().name()));
+
+            room.services().stream()
+                .filter(s -> s.rtype().equals("grouped_light"))
+                .findFirst()
+                .ifPresent(groupService -> hueRoom.setGroupToggleId(groupService.rid()));
+
+            room.children().forEach(child -> {
+                LightBulb lightBulb = bulbsByDeviceId.get(child.rid());
+                if (lightBulb != null) {
+                    hueRoom.addLightBulb(lightBulb);
+                }
+            });
         });
 
         return mappedLightBulbs;
@@ -231,39 +406,38 @@ public class LightsService {
         List<HueRoomChildDTO> children
     ) {}
 
+    /**
+     * @throws ControllerException with NOT_FOUND if there's no such group
+     */
     public ToggleLightGroupResponseDTO toggleLightGroup(String groupId, Boolean newStatus) {
+        List<HueRoomChildDTO> children;
         try {
-            restClient
-                .put()
-                .uri("/clip/v2/resource/grouped_light/" + groupId)
-                .header("hue-application-key", "JmUsSn0cIUtwGZAf4Z6rxmMFsQJPNxMAye7uS4iQ")
-                .body(Map.of("on", Map.of("on", newStatus)))
-                .retrieve()
-                .toBodilessEntity();
-
-            // Get all devices affected
-            HueRoomResponse roomResponse = restClient
-                .get()
-                .uri("/clip/v2/resource/room")
-                .header("hue-application-key", "JmUsSn0cIUtwGZAf4Z6rxmMFsQJPNxMAye7uS4iQ")
-                .retrieve()
-                .body(HueRoomResponse.class);
-
-            List<HueRoomChildDTO> matchingChildren =
-                roomResponse.data.stream()
-                    .filter(room ->
-                        room.services().stream()
-                            .anyMatch(service -> service.rid().equals(groupId))
-                    )
-                    .flatMap(room -> room.children().stream())
-                    .toList();
-
-            matchingChildren.forEach(child -> {
-                this.lightBulbTrackRepo.updateIsOn((newStatus ? 1 : 0), child.rid());
-            });
+            children = this.roomTopologyCache.getChildren(groupId).orElse(null);
+        } catch (Exception ex) {
+            return new ToggleLightGroupResponseDTO(false, null);
+        }
+
+        if (children == null) {
+            throw new ControllerException(String.format("No light group '%s'", groupId), ResponseCode.NOT_FOUND);
+        }
+
+        try {
+            List<String> childIds = children.stream().map(HueRoomChildDTO::rid).toList();
+
+            if (this.hueConfig.getOptimistic().isEnabled()) {
+                toggleOptimistically(CommandClass.GROUPED_LIGHT, "grouped_light", groupId, childIds, newStatus);
+
+                return new ToggleLightGroupResponseDTO(true, children);
+            }
 
+            HueBridge bridge = this.hueBridges.forResource("grouped_light", groupId);
+            this.hueCommandScheduler.execute(bridge.id(), CommandClass.GROUPED_LIGHT, CommandPriority.POWER,
+                () -> bridge.put("/clip/v2/resource/grouped_light/" + groupId,
+                    Map.of("on", Map.of("on", newStatus))));
 
-            return new ToggleLightGroupResponseDTO(true, matchingChildren);
+            updateTrackedState(childIds, newStatus, null, null);
+
+            return new ToggleLightGroupResponseDTO(true, children);
         } catch (Exception ex) {
             return new ToggleLightGroupResponseDTO(false, null);
         }
@@ -271,15 +445,16 @@ public class LightsService {
 
     public boolean toggleLight(String lightId, Boolean newStatus) {
         try {
-            restClient
-                .put()
-                .uri("/clip/v2/resource/light/" + lightId)
-                .header("hue-application-key", "JmUsSn0cIUtwGZAf4Z6rxmMFsQJPNxMAye7uS4iQ")
-                .body(Map.of("on", Map.of("on", newStatus)))
-                .retrieve()
-                .toBodilessEntity();
+            if (this.hueConfig.getOptimistic().isEnabled()) {
+                toggleOptimistically(CommandClass.LIGHT, "light", lightId, List.of(lightId), newStatus);
+                return true;
+            }
+
+            HueBridge bridge = this.hueBridges.forResource("light", lightId);
+            this.hueCommandScheduler.execute(bridge.id(), CommandClass.LIGHT, CommandPriority.POWER,
+                () -> bridge.put("/clip/v2/resource/light/" + lightId, Map.of("on", Map.of("on", newStatus))));
 
-            this.lightBulbTrackRepo.updateIsOn((newStatus ? 1 : 0), lightId);
+            updateTrackedState(List.of(lightId), newStatus, null, null);
 
             return true;
         } catch (Exception ex) {
@@ -287,174 +462,280 @@ public class LightsService {
         }
     }
 
-    public boolean modifyLightBrightness(String lightId, Double dimValue) {
+    /**
+     * Optimistic version of a toggle: the cached state changes (and subscribers hear about it)
+     * straight away, and the command goes to the bridge in the background. Afterwards the bulbs
+     * are reconciled against what the bridge reports, unless the command went through and the
+     * event stream is up to report the outcome itself.
+     */
+    private void toggleOptimistically(CommandClass commandClass, String type, String id, List<String> ids,
+        Boolean newStatus) {
+
+        // Taken first, so a failed command can put each bulb back how it was
+        Map<String, Boolean> before = cachedOnStates(ids);
+        updateTrackedState(ids, newStatus, null, null);
+
+        Thread.ofVirtual().name("hue-optimistic-toggle").start(() -> {
+            boolean sent;
+            try {
+                HueBridge bridge = this.hueBridges.forResource(type, id);
+                this.hueCommandScheduler.execute(bridge.id(), commandClass, CommandPriority.POWER,
+                    () -> bridge.put("/clip/v2/resource/" + type + "/" + id, Map.of("on", Map.of("on", newStatus))));
+                sent = true;
+            } catch (Exception ex) {
+                log.warn("Optimistic toggle of {} {} failed, reconciling: {}", type, id, ex.getMessage());
+                sent = false;
+            }
+
+            if (!sent || !this.hueStateRegistry.isSynced()) {
+                reconcileToggle(ids, newStatus, sent, before);
+            }
+        });
+    }
+
+    // Each bulb's on/off state as cached right now, by whichever of its IDs is in ids
+    private Map<String, Boolean> cachedOnStates(List<String> ids) {
+        Map<String, Boolean> states = new HashMap<>();
         try {
-            /**
-             * {
-             *   "dimming": {
-             *      "brightness": 50
-             *   }
-             * }
-             */
-            Map<String, Map<String, Double>> body = Map.of(
-                "dimming", Map.of("brightness", dimValue)
-            );
-
-            HueLightResponse response = restClient
-                .put()
-                .uri("/clip/v2/resource/light/" + lightId)
-                .header("hue-application-key", "JmUsSn0cIUtwGZAf4Z6rxmMFsQJPNxMAye7uS4iQ")
-                .body(body)
-                .retrieve()
-                .body(HueLightResponse.class);
-
-            this.lightBulbTrackRepo.updateBrightness(dimValue, lightId);
+            if (this.hueStateRegistry.isSynced()) {
+                this.hueStateRegistry.getLights().forEach(light -> {
+                    if (light.on() != null) {
+                        states.put(light.id(), light.on().on());
+                        if (light.owner() != null) {
+                            states.put(light.owner().rid(), light.on().on());
+                        }
+                    }
+                });
+            } else {
+                this.lightBulbTrackRepo.findAllByIds(ids).stream()
+                    .map(this.lightStateWriteBuffer::overlay)
+                    .forEach(track -> {
+                        states.put(track.getLightId(), track.getIsOn());
+                        states.put(track.getDeviceId(), track.getIsOn());
+                    });
+            }
+        } catch (Exception ex) {
+            log.warn("Couldn't read the cached state of {}: {}", ids, ex.getMessage());
+        }
 
-            return true;
+        states.keySet().retainAll(ids);
+        return states;
+    }
+
+    /**
+     * Puts right any bulb whose on/off state isn't what an optimistic toggle assumed, by light or
+     * device ID, publishing the correction like any other change. Bulbs the bridge doesn't report
+     * are put back to their state {@code before} the toggle if the command failed, since they
+     * can't have changed; ones whose earlier state isn't known are left as they are.
+     *
+     * @return how many bulbs were corrected
+     */
+    int reconcileToggle(List<String> ids, Boolean expected, boolean sent, Map<String, Boolean> before) {
+        Map<String, Boolean> reported = new HashMap<>();
+        try {
+            List<LightDto> lights = this.hueBridges.readAll("reconcileToggle", List.of(LIGHTS)).get(LIGHTS);
+
+            lights.forEach(light -> {
+                if (light.on() != null) {
+                    reported.put(light.id(), light.on().on());
+                    if (light.owner() != null) {
+                        reported.put(light.owner().rid(), light.on().on());
+                    }
+                }
+            });
         } catch (Exception ex) {
-            // TODO: Log this
-            return false;
+            log.warn("Couldn't read lights back from the bridge: {}", ex.getMessage());
         }
+
+        int corrected = 0;
+        for (String id : ids) {
+            Boolean actual = reported.containsKey(id) ? reported.get(id) : (sent ? null : before.get(id));
+
+            if (actual != null && !actual.equals(expected)) {
+                updateTrackedState(List.of(id), actual, null, null);
+                corrected++;
+            }
+        }
+
+        return corrected;
+    }
+
+    public boolean modifyLightBrightness(String lightId, Double dimValue) {
+        return modifyLightState(lightId, null, dimValue, null);
     }
 
     public boolean modifyLightColor(String lightId, RgbToXyDto xy) {
+        return modifyLightState(lightId, null, null, xy);
+    }
+
+    public boolean modifyGroupBrightness(String groupId, Double dimValue) {
+        return modifyGroupState(groupId, null, dimValue, null);
+    }
+
+    public boolean modifyGroupColor(String groupId, RgbToXyDto xy) {
+        return modifyGroupState(groupId, null, null, xy);
+    }
+
+    /**
+     * Sets any mix of on/off, brightness and colour on one light in a single request, and
+     * updates its cached row in one statement. Null values are left as they are.
+     */
+    public boolean modifyLightState(String lightId, Boolean on, Double dimValue, RgbToXyDto requestedXy) {
         try {
-            /**
-             * {
-             *   "color": {
-             *      "xy": {
-             *          "x": 0.369,
-             *          "y": 0.421
-             *      }
-             *   }
-             * }
-             */
-            Map<String, Map<String, Map<String, Double>>> body = Map.of(
-                "color", Map.of("xy",
-                        Map.of("x", xy.x(), "y", xy.y())
-                    )
-            );
-
-            restClient
-                .put()
-                .uri("/clip/v2/resource/light/" + lightId)
-                .header("hue-application-key", "JmUsSn0cIUtwGZAf4Z6rxmMFsQJPNxMAye7uS4iQ")
-                .body(body)
-                .retrieve()
-                .toBodilessEntity();
-
-            RGB rgb = this.colorConversionService.xyToRGB(xy.x(), xy.y(), 1d);
-            this.lightBulbTrackRepo.updateColor(rgb.getRed(), rgb.getGreen(), rgb.getBlue(), lightId);
+            // The bulb clamps anything outside its gamut itself, so send (and cache) what it'll show
+            RgbToXyDto xy = this.colorConversionService.clampToGamut(requestedXy, getGamut(lightId));
+            RGB rgb = xy != null ? this.colorConversionService.xyToRGB(xy.x(), xy.y(), 1d) : null;
 
-            return true;
+            return sendLightState(lightId, on, dimValue, xy, rgb);
         } catch (Exception ex) {
+            log.warn("Failed to set the state of light {}", lightId, ex);
             return false;
         }
     }
 
-    public boolean modifyGroupBrightness(String groupId, Double dimValue) {
+    // Sends xy as it is, so it has to be in the light's gamut already; rgb is what gets cached
+    private boolean sendLightState(String lightId, Boolean on, Double dimValue, RgbToXyDto xy, RGB rgb) {
         try {
-            /**
-             * {
-             *   "dimming": {
-             *      "brightness": 50
-             *   }
-             * }
-             */
-            Map<String, Map<String, Double>> body = Map.of(
-                "dimming", Map.of("brightness", dimValue)
-            );
-
-            restClient
-                .put()
-                .uri("/clip/v2/resource/grouped_light/" + groupId)
-                .header("hue-application-key", "JmUsSn0cIUtwGZAf4Z6rxmMFsQJPNxMAye7uS4iQ")
-                .body(body)
-                .retrieve()
-                .toBodilessEntity();
-
-            // Get all devices affected
-            HueRoomResponse roomResponse = restClient
-                .get()
-                .uri("/clip/v2/resource/room")
-                .header("hue-application-key", "JmUsSn0cIUtwGZAf4Z6rxmMFsQJPNxMAye7uS4iQ")
-                .retrieve()
-                .body(HueRoomResponse.class);
-
-            List<HueRoomChildDTO> matchingChildren =
-                roomResponse.data.stream()
-                    .filter(room ->
-                        room.services().stream()
-                            .anyMatch(service -> service.rid().equals(groupId))
-                    )
-                    .flatMap(room -> room.children().stream())
-                    .toList();
-
-            matchingChildren.forEach(child -> {
-                this.lightBulbTrackRepo.updateBrightness(dimValue, child.rid());
-            });
+            Map<String, Object> body = buildStateBody(on, dimValue, xy);
+
+            HueBridge bridge = this.hueBridges.forResource("light", lightId);
+            this.hueCommandScheduler.execute(bridge.id(), CommandClass.LIGHT, priorityFor(on, dimValue),
+                () -> bridge.put("/clip/v2/resource/light/" + lightId, body));
+
+            updateTrackedState(List.of(lightId), on, dimValue, xy != null ? rgb : null);
 
             return true;
         } catch (Exception ex) {
-            // TODO: Log this
+            log.warn("Failed to send state to light {}", lightId, ex);
             return false;
         }
     }
 
-    public boolean modifyGroupColor(String groupId, RgbToXyDto xy, RGB rgb) {
+    /**
+     * Group version of {@link #modifyLightState}. The group's lights all get the same xy, which
+     * each clamps to its own gamut, so that's the colour cached for each of them.
+     */
+    public boolean modifyGroupState(String groupId, Boolean on, Double dimValue, RgbToXyDto xy) {
         try {
-            /**
-             * {
-             *   "color": {
-             *      "xy": {
-             *          "x": 0.34,
-             *          "y": 0.45
-             *      }
-             *   }
-             * }
-             */
-            Map<String, Map<String, Map<String, Double>>> body = Map.of(
-                "color", Map.of("xy",
-                        Map.of("x", xy.x(), "y", xy.y())
-                    )
-            );
-
-            restClient
-                .put()
-                .uri("/clip/v2/resource/grouped_light/" + groupId)
-                .header("hue-application-key", "JmUsSn0cIUtwGZAf4Z6rxmMFsQJPNxMAye7uS4iQ")
-                .body(body)
-                .retrieve()
-                .toBodilessEntity();
-
-            // Get all devices affected
-            HueRoomResponse roomResponse = restClient
-                .get()
-                .uri("/clip/v2/resource/room")
-                .header("hue-application-key", "JmUsSn0cIUtwGZAf4Z6rxmMFsQJPNxMAye7uS4iQ")
-                .retrieve()
-                .body(HueRoomResponse.class);
-
-            List<HueRoomChildDTO> matchingChildren =
-                roomResponse.data.stream()
-                    .filter(room ->
-                        room.services().stream()
-                            .anyMatch(service -> service.rid().equals(groupId))
-                    )
-                    .flatMap(room -> room.children().stream())
-                    .toList();
-
-            matchingChildren.forEach(child -> {
-                this.lightBulbTrackRepo.updateColor(rgb.getRed(), rgb.getGreen(), rgb.getBlue(), child.rid);
-            });
+            // Get all devices affected, and don't bother the bridge about a group it doesn't have
+            Optional<List<HueRoomChildDTO>> children = this.roomTopologyCache.getChildren(groupId);
+            if (children.isEmpty()) {
+                return false;
+            }
+            List<String> childIds = children.get().stream()
+                .map(HueRoomChildDTO::rid)
+                .toList();
+
+            Map<String, Object> body = buildStateBody(on, dimValue, xy);
+
+            HueBridge bridge = this.hueBridges.forResource("grouped_light", groupId);
+            this.hueCommandScheduler.execute(bridge.id(), CommandClass.GROUPED_LIGHT, priorityFor(on, dimValue),
+                () -> bridge.put("/clip/v2/resource/grouped_light/" + groupId, body));
+
+            if (xy == null) {
+                updateTrackedState(childIds, on, dimValue, null);
+            } else {
+                Map<ColorGamut, List<String>> childIdsByGamut = new EnumMap<>(ColorGamut.class);
+                childIds.forEach(childId -> childIdsByGamut
+                    .computeIfAbsent(getGamut(childId), k -> new ArrayList<>())
+                    .add(childId));
+
+                childIdsByGamut.forEach((gamut, ids) -> {
+                    RgbToXyDto shown = this.colorConversionService.clampToGamut(xy, gamut);
+                    updateTrackedState(ids, on, dimValue,
+                        this.colorConversionService.xyToRGB(shown.x(), shown.y(), 1d));
+                });
+            }
 
             return true;
         } catch (Exception ex) {
-            // TODO: Log this
+            log.warn("Failed to set the state of light group {}", groupId, ex);
             return false;
         }
     }
 
+    public record SceneTargetResult(
+        String lightId,
+        String groupId,
+        boolean status
+    ) {}
+
+    /**
+     * Applies every target of a scene, each in one request. They're sent side by side but still
+     * go through the command scheduler, so the bridge's rate limits hold however big the scene.
+     * Colours are sent as the xy saved on the target, which was already clamped to its gamut, and
+     * a light caches the RGB saved with it. Results come back in the targets' order.
+     */
+    public List<SceneTargetResult> applyScene(List<SceneTarget> targets) {
+        List<Callable<Boolean>> commands = targets.stream()
+            .map(target -> (Callable<Boolean>) () -> {
+                RgbToXyDto xy = target.getColorX() != null
+                    ? new RgbToXyDto(target.getColorX(), target.getColorY())
+                    : null;
+
+                return target.getGroupId() != null
+                    ? modifyGroupState(target.getGroupId(), target.getIsOn(), target.getBrightness(), xy)
+                    : sendLightState(target.getLightId(), target.getIsOn(), target.getBrightness(), xy,
+                        target.getColorAsRGB());
+            })
+            .toList();
+
+        List<Boolean> statuses = this.hueCommandScheduler.executeAll("applyScene", commands);
+
+        List<SceneTargetResult> results = new ArrayList<>(targets.size());
+        for (int i = 0; i < targets.size(); i++) {
+            results.add(new SceneTargetResult(targets.get(i).getLightId(), targets.get(i).getGroupId(),
+                statuses.get(i)));
+        }
+
+        return results;
+    }
+
+    /**
+     * {
+     *   "on": { "on": true },
+     *   "dimming": { "brightness": 50 },
+     *   "color": { "xy": { "x": 0.34, "y": 0.45 } }
+     * }
+     */
+    private static Map<String, Object> buildStateBody(Boolean on, Double dimValue, RgbToXyDto xy) {
+        Map<String, Object> body = new LinkedHashMap<>();
+
+        if (on != null) {
+            body.put("on", Map.of("on", on));
+        }
+        if (dimValue != null) {
+            body.put("dimming", Map.of("brightness", dimValue));
+        }
+        if (xy != null) {
+            body.put("color", Map.of("xy", Map.of("x", xy.x(), "y", xy.y())));
+        }
+
+        if (body.isEmpty()) {
+            throw new IllegalArgumentException("Nothing to change");
+        }
+
+        return body;
+    }
+
+    private static CommandPriority priorityFor(Boolean on, Double dimValue) {
+        if (on != null) {
+            return CommandPriority.POWER;
+        }
+
+        return dimValue != null ? CommandPriority.BRIGHTNESS : CommandPriority.COLOR;
+    }
+
+    private void updateTrackedState(List<String> ids, Boolean on, Double dimValue, RGB rgb) {
+        if (ids.isEmpty()) {
+            return;
+        }
+
+        // LightStateWriteBuffer hears about it too and writes it to MySQL in the background, so the
+        // database isn't on the command's latency path
+        ids.forEach(id -> this.eventPublisher.publishEvent(new LightStateChangedEvent(id, on, dimValue, rgb)));
+    }
+
     public enum BulbsForGroupType {
         ROOM("room");
 
@@ -482,73 +763,63 @@ public class LightsService {
     }
 
     public ResponseEntity<GetBulbsForGroupResponse> getBulbsForGroup(String groupId) {
-        HueGroupResponse response = restClient
-            .get()
-            .uri("/clip/v2/resource/grouped_light/" + groupId)
-            .header("hue-application-key", "JmUsSn0cIUtwGZAf4Z6rxmMFsQJPNxMAye7uS4iQ")
-            .retrieve()
-            .body(HueGroupResponse.class);
-
-        String roomId = response.data().get(0).owner().rid();
-
-        HueRoomResponse roomResponse = restClient
-            .get()
-            .uri("/clip/v2/resource/room" + "/" + roomId)
-            .header("hue-application-key", "JmUsSn0cIUtwGZAf4Z6rxmMFsQJPNxMAye7uS4iQ")
-            .retrieve()
-            .body(HueRoomResponse.class);
-
-        String roomName = roomResponse.data().get(0).metadata().name();
-
-        List<LightBulbTrack> lightBulbs = new ArrayList<>();
-        roomResponse.data().get(0).children().forEach(child -> {
-            Optional<LightBulbTrack> lightBulb = this.lightBulbTrackRepo.getCachedBulb(child.rid());
-            lightBulb.ifPresent(lightBulbs::add);
-        });
+        return ResponseEntity.ok(this.groupAggregateCache.getResponse(groupId, this::loadBulbsForGroup));
+    }
 
-        // Check if colors between bulbs are different
-        String firstBulbColor = lightBulbs.getFirst().getRGBAString();
-        AtomicReference<Boolean> isMultiColor = new AtomicReference<>(false);
-        Boolean shouldTextBeBlack = false;
+    private GetBulbsForGroupResponse loadBulbsForGroup(String groupId) {
+        Optional<GetBulbsForGroupResponse> fromRegistry = getBulbsForGroupFromRegistry(groupId);
+        if (fromRegistry.isPresent()) {
+            return fromRegistry.get();
+        }
 
-        // Color gradient is made up of all colors
-        // linear-gradient(135deg, ${firstColorStr}, ${lastColorStr})
-        StringBuilder colorGradient = new StringBuilder("linear-gradient(")
-            .append("135") // TODO: Make this configurable
-            .append("deg");
+        // A group's room is always on the same bridge as it
+        HueBridge bridge = this.hueBridges.forResource("grouped_light", groupId);
+        HueGroupResponse response = bridge.get("/clip/v2/resource/grouped_light/" + groupId,
+            HueGroupResponse.class);
 
-        // Determine the best color for the string text
-        AtomicReference<String> textColor = new AtomicReference<>("rgba(255, 255, 255, 1)"); // white
-        AtomicReference<Boolean> isGroupOn = new AtomicReference<>(false);
-        AtomicReference<Double> brightness = new AtomicReference<>(0d);
-        AtomicReference<Integer> index = new AtomicReference<>(0);
+        String roomId = response.data().get(0).owner().rid();
 
-        lightBulbs.forEach(lightBulb -> {
-            index.set(index.get() + 1);
+        HueRoomResponse roomResponse = bridge.get("/clip/v2/resource/room/" + roomId, HueRoomResponse.class);
 
-            if (!firstBulbColor.equals(lightBulb.getRGBAString())) {
-                isMultiColor.set(true);
-            }
+        String roomName = roomResponse.data().get(0).metadata().name();
 
-            colorGradient.append(", ")
-                .append(lightBulb.getRGBAString());
+        // One query for the whole room, then put them back in the room's order
+        List<HueRoomChildDTO> children = roomResponse.data().get(0).children();
+        Map<String, LightBulbTrack> tracksById = new HashMap<>();
+        this.lightBulbTrackRepo.findAllByIds(children.stream().map(HueRoomChildDTO::rid).toList())
+            .stream()
+            .map(this.lightStateWriteBuffer::overlay)
+            .forEach(track -> {
+                tracksById.put(track.getDeviceId(), track);
+                tracksById.put(track.getLightId(), track);
+            });
 
-            if (lightBulb.getRed() > 175 || lightBulb.getGreen() > 175 || lightBulb.getBlue() > 175) {
-                textColor.set("rgba(0, 0, 0, 1)");
+        List<LightBulbTrack> lightBulbs = new ArrayList<>();
+        children.forEach(child -> {
+            LightBulbTrack lightBulb = tracksById.get(child.rid());
+            if (lightBulb != null) {
+                lightBulbs.add(lightBulb);
             }
+        });
 
-            if (lightBulb.getIsOn()) {
-                isGroupOn.set(true);
-            }
+        return GroupAggregateCache.buildResponse(groupId, roomName, lightBulbs);
+    }
 
-            brightness.set(brightness.get() + lightBulb.getBrightness());
-        });
-        colorGradient.append(")");
+    private Optional<GetBulbsForGroupResponse> getBulbsForGroupFromRegistry(String groupId) {
+        if (!this.hueStateRegistry.isSynced()) {
+            return Optional.empty();
+        }
 
-        brightness.set(brightness.get() / index.get());
+        Optional<HueRoomDataDTO> room = this.hueStateRegistry.getGroupedLight(groupId)
+            .flatMap(group -> this.hueStateRegistry.getRoom(group.owner().rid()));
+        if (room.isEmpty()) {
+            return Optional.empty();
+        }
 
+        List<LightBulbTrack> lightBulbs = new ArrayList<>();
+        room.get().children().forEach(child -> this.hueStateRegistry.getLightForDevice(child.rid())
+            .ifPresent(light -> lightBulbs.add(toLightBulbTrack(child.rid(), light))));
 
-        return ResponseEntity.ok(new GetBulbsForGroupResponse(groupId, roomName, isMultiColor.get(),
-            colorGradient.toString(), textColor.get(), isGroupOn.get(), brightness.get(), lightBulbs));
+        return Optional.of(GroupAggregateCache.buildResponse(groupId, room.get().metadata().name(), lightBulbs));
     }
 }
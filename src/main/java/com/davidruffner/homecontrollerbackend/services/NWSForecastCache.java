@@ -0,0 +1,271 @@
+package com.davidruffner.homecontrollerbackend.services;
+
+import com.davidruffner.homecontrollerbackend.config.WeatherConfig;
+import com.davidruffner.homecontrollerbackend.entities.NWSGridpoint;
+import com.davidruffner.homecontrollerbackend.services.ForecastSnapshotStore.Snapshot;
+import com.davidruffner.homecontrollerbackend.services.WeatherService.NWSForecastResponse;
+import com.davidruffner.homecontrollerbackend.services.WeatherService.NWSHourlyResponse;
+import com.davidruffner.homecontrollerbackend.utils.SingleFlight;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.dao.DataAccessException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClient;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The daily and hourly forecasts for each NWS gridpoint, shared by everyone at that gridpoint.
+ * Entries last as long as NWS says they may be cached (Cache-Control max-age, less Age, or
+ * failing that Expires), within app.weather.forecasts.minTtl and maxTtl.
+ *
+ * Concurrent misses for the same gridpoint and product wait on a single fetch. For a while after
+ * expiry (app.weather.forecasts.serveStaleFor) the old forecast is still served, straight away,
+ * while a new one is fetched in the background; NWSForecastPrefetcher normally refreshes them
+ * before that's needed.
+ *
+ * Every fetch is also saved by ForecastSnapshotStore, and the cache starts from those.
+ *
+ * The raw JSON is what's kept, and each read gets its own copy: WeatherService fills in time
+ * zones and humidity on the periods it's given, which mustn't leak between requests.
+ */
+@Component
+public class NWSForecastCache {
+
+    private static final Logger log = LoggerFactory.getLogger(NWSForecastCache.class);
+    private static final Pattern MAX_AGE = Pattern.compile("max-age=(\\d+)");
+
+    @Autowired
+    @Qualifier("NWSRestClient")
+    RestClient nwsRestController;
+
+    @Autowired
+    NWSGridpointCache nwsGridpointCache;
+
+    @Autowired
+    WeatherConfig weatherConfig;
+
+    @Autowired
+    JsonMapper jsonMapper;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Autowired
+    ForecastSnapshotStore forecastSnapshotStore;
+
+    public enum Product {
+        FORECAST("forecast"),
+        FORECAST_HOURLY("forecastHourly");
+
+        private final String value;
+
+        Product(String value) {
+            this.value = value;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public String pathFor(NWSGridpoint gridpoint) {
+            return this == FORECAST ? gridpoint.getForecastPath() : gridpoint.getForecastHourlyPath();
+        }
+
+        public static Product fromValue(String value) {
+            for (Product product : values()) {
+                if (product.value.equals(value)) {
+                    return product;
+                }
+            }
+
+            throw new IllegalArgumentException(String.format("No forecast product '%s'", value));
+        }
+    }
+
+    private record Key(
+        String gridKey,
+        Product product
+    ) {}
+
+    private record Entry(
+        String body,
+        Instant expiresAt
+    ) {}
+
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+    // Devices that start together all miss together, so they share one request to NWS
+    private final SingleFlight<Key, Entry> fetches = new SingleFlight<>();
+
+    /**
+     * Starts from the latest saved snapshots, so a restart doesn't send every reader to NWS at
+     * once. Ones past expiry are served stale and refreshed like any other.
+     */
+    @PostConstruct
+    public void warm() {
+        Instant expiredAfter = Instant.now().minus(this.weatherConfig.getForecasts().getServeStaleFor());
+
+        try {
+            List<Snapshot> snapshots = this.forecastSnapshotStore.getLatest(expiredAfter);
+            snapshots.forEach(snapshot -> this.entries.put(new Key(snapshot.gridKey(), snapshot.product()),
+                new Entry(snapshot.response(), snapshot.expiresAt())));
+
+            log.info("Warmed the NWS forecast cache with {} snapshots", snapshots.size());
+        } catch (DataAccessException ex) {
+            log.warn("Couldn't load NWS forecast snapshots, starting cold", ex);
+        }
+    }
+
+    public NWSForecastResponse getForecast(String lat, String lon) {
+        return this.jsonMapper.readValue(getBody(this.nwsGridpointCache.get(lat, lon), Product.FORECAST),
+            NWSForecastResponse.class);
+    }
+
+    public NWSHourlyResponse getHourlyForecast(String lat, String lon) {
+        return this.jsonMapper.readValue(getBody(this.nwsGridpointCache.get(lat, lon), Product.FORECAST_HOURLY),
+            NWSHourlyResponse.class);
+    }
+
+    private String getBody(NWSGridpoint gridpoint, Product product) {
+        Key key = new Key(gridpoint.getGridKey(), product);
+        Instant now = Instant.now();
+
+        Entry entry = this.entries.get(key);
+        if (entry != null && now.isBefore(entry.expiresAt())) {
+            counter(product, "hit").increment();
+            return entry.body();
+        }
+
+        Duration serveStaleFor = this.weatherConfig.getForecasts().getServeStaleFor();
+        if (entry != null && now.isBefore(entry.expiresAt().plus(serveStaleFor))) {
+            counter(product, "stale").increment();
+            Thread.ofVirtual().start(() -> {
+                try {
+                    load(key, gridpoint, Duration.ZERO);
+                } catch (RuntimeException ex) {
+                    log.warn("Couldn't refresh the NWS {} for {}", product.getValue(), key.gridKey(), ex);
+                }
+            });
+
+            return entry.body();
+        }
+
+        counter(product, "miss").increment();
+        return load(key, gridpoint, Duration.ZERO).body();
+    }
+
+    /**
+     * Fetches {@code product} for the location again if what's cached expires within
+     * {@code within}, so that readers never find it expired. Returns whether it was fetched.
+     */
+    public boolean refreshIfExpiring(String lat, String lon, Product product, Duration within) {
+        NWSGridpoint gridpoint = this.nwsGridpointCache.get(lat, lon);
+        Key key = new Key(gridpoint.getGridKey(), product);
+
+        Entry entry = this.entries.get(key);
+        if (entry != null && entry.expiresAt().isAfter(Instant.now().plus(within))) {
+            return false;
+        }
+
+        load(key, gridpoint, within);
+        return true;
+    }
+
+    // Fetches unless what's cached (perhaps just now, by the flight before this one) lasts past within
+    private Entry load(Key key, NWSGridpoint gridpoint, Duration within) {
+        return this.fetches.execute(key, () -> {
+            Entry current = this.entries.get(key);
+            if (current != null && current.expiresAt().isAfter(Instant.now().plus(within))) {
+                return current;
+            }
+
+            Entry fetched;
+            try {
+                fetched = fetch(gridpoint, key.product());
+            } catch (RuntimeException ex) {
+                failureCounter(key.product()).increment();
+                throw ex;
+            }
+
+            // How long readers were left with an expired forecast; prefetching should keep this at zero
+            Duration lag = current != null ? Duration.between(current.expiresAt(), Instant.now()) : Duration.ZERO;
+            lagTimer(key.product()).record(lag.isNegative() ? Duration.ZERO : lag);
+
+            this.entries.put(key, fetched);
+            this.forecastSnapshotStore.save(new Snapshot(key.gridKey(), key.product(), fetched.body(),
+                fetched.expiresAt()));
+
+            return fetched;
+        });
+    }
+
+    private Entry fetch(NWSGridpoint gridpoint, Product product) {
+        ResponseEntity<String> response = this.nwsRestController
+            .get()
+            .uri(product.pathFor(gridpoint))
+            .retrieve()
+            .toEntity(String.class);
+
+        Instant now = Instant.now();
+        return new Entry(response.getBody(), now.plus(ttlOf(response.getHeaders(), now)));
+    }
+
+    Duration ttlOf(HttpHeaders headers, Instant now) {
+        WeatherConfig.Forecasts config = this.weatherConfig.getForecasts();
+        Duration ttl = config.getDefaultTtl();
+
+        String cacheControl = headers.getCacheControl();
+        Matcher maxAge = cacheControl != null ? MAX_AGE.matcher(cacheControl) : null;
+        if (maxAge != null && maxAge.find()) {
+            // Age is how long it's already sat in a cache between NWS and us
+            String age = headers.getFirst(HttpHeaders.AGE);
+            ttl = Duration.ofSeconds(Long.parseLong(maxAge.group(1)) - (age != null ? Long.parseLong(age) : 0));
+        } else if (headers.getExpires() > 0) {
+            ttl = Duration.between(now, Instant.ofEpochMilli(headers.getExpires()));
+        }
+
+        if (ttl.compareTo(config.getMinTtl()) < 0) {
+            return config.getMinTtl();
+        }
+
+        return ttl.compareTo(config.getMaxTtl()) > 0 ? config.getMaxTtl() : ttl;
+    }
+
+    private Counter counter(Product product, String result) {
+        return Counter.builder("nws.forecast.cache")
+            .description("Forecast reads served fresh (hit), expired while being refreshed (stale), or " +
+                "fetched from NWS (miss)")
+            .tag("product", product.getValue())
+            .tag("result", result)
+            .register(this.meterRegistry);
+    }
+
+    private Counter failureCounter(Product product) {
+        return Counter.builder("nws.forecast.refresh.failures")
+            .description("Forecast fetches from NWS that failed")
+            .tag("product", product.getValue())
+            .register(this.meterRegistry);
+    }
+
+    private Timer lagTimer(Product product) {
+        return Timer.builder("nws.forecast.refresh.lag")
+            .description("How long past its expiry a forecast was when it was replaced")
+            .tag("product", product.getValue())
+            .register(this.meterRegistry);
+    }
+}
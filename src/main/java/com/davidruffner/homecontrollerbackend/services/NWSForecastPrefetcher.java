@@ -0,0 +1,82 @@
+package com.davidruffner.homecontrollerbackend.services;
+
+import com.davidruffner.homecontrollerbackend.config.WeatherConfig;
+import com.davidruffner.homecontrollerbackend.repositories.UserSettingsRepository;
+import com.davidruffner.homecontrollerbackend.repositories.UserSettingsRepository.UserLocation;
+import com.davidruffner.homecontrollerbackend.services.NWSForecastCache.Product;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Keeps the forecasts for every location in user_settings fresh, so a dashboard opened after
+ * a quiet spell doesn't wait on NWS. Each pass refreshes whatever expires within
+ * app.weather.prefetch.refreshAhead, at most maxConcurrency at a time, each after a random
+ * wait of up to jitter.
+ */
+@Component
+public class NWSForecastPrefetcher {
+
+    private static final Logger log = LoggerFactory.getLogger(NWSForecastPrefetcher.class);
+
+    @Autowired
+    UserSettingsRepository userSettingsRepo;
+
+    @Autowired
+    NWSForecastCache nwsForecastCache;
+
+    @Autowired
+    WeatherConfig weatherConfig;
+
+    @Scheduled(initialDelayString = "${app.weather.prefetch.interval:5m}",
+        fixedDelayString = "${app.weather.prefetch.interval:5m}")
+    public void prefetch() {
+        WeatherConfig.Prefetch config = this.weatherConfig.getPrefetch();
+        if (!config.isEnabled()) {
+            return;
+        }
+
+        List<UserLocation> locations = this.userSettingsRepo.getDistinctLocations();
+        Semaphore permits = new Semaphore(config.getMaxConcurrency());
+
+        // Closing waits for them all, so passes never overlap
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (UserLocation location : locations) {
+                for (Product product : Product.values()) {
+                    executor.submit(() -> refresh(location, product, permits, config));
+                }
+            }
+        }
+    }
+
+    private void refresh(UserLocation location, Product product, Semaphore permits, WeatherConfig.Prefetch config) {
+        try {
+            long jitterMillis = config.getJitter().toMillis();
+            Thread.sleep(jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(jitterMillis) : 0);
+
+            permits.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        try {
+            this.nwsForecastCache.refreshIfExpiring(location.getLat(), location.getLon(), product,
+                config.getRefreshAhead());
+        } catch (RuntimeException ex) {
+            // Readers keep getting the old forecast meanwhile, and the next pass tries again
+            log.warn("Couldn't prefetch the NWS {} for {},{}", product.getValue(), location.getLat(),
+                location.getLon(), ex);
+        } finally {
+            permits.release();
+        }
+    }
+}
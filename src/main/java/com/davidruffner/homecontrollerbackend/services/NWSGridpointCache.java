@@ -0,0 +1,123 @@
+package com.davidruffner.homecontrollerbackend.services;
+
+import com.davidruffner.homecontrollerbackend.config.WeatherConfig;
+import com.davidruffner.homecontrollerbackend.entities.NWSGridpoint;
+import com.davidruffner.homecontrollerbackend.repositories.NWSGridpointRepository;
+import com.davidruffner.homecontrollerbackend.services.WeatherService.NWSEndpointProperties;
+import com.davidruffner.homecontrollerbackend.services.WeatherService.NWSEndpointResponse;
+import com.davidruffner.homecontrollerbackend.utils.SingleFlight;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.client.RestClientException;
+
+import java.net.URI;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Which NWS gridpoint each location falls in, so forecasts can be fetched without asking
+ * /points/{lat},{lon} first every time. Looked up in memory, then the nws_gridpoints table, and
+ * only then from NWS. Entries are refreshed from NWS after app.weather.gridpoints.refreshAfter,
+ * and while NWS is unreachable the old entry keeps being used. The table only saves a trip to
+ * NWS, so if the database is down lookups go to NWS and what they fetch is still kept in memory.
+ * Concurrent lookups of the same location share one.
+ */
+@Component
+public class NWSGridpointCache {
+
+    private static final Logger log = LoggerFactory.getLogger(NWSGridpointCache.class);
+
+    @Autowired
+    @Qualifier("NWSRestClient")
+    RestClient nwsRestController;
+
+    @Autowired
+    NWSGridpointRepository gridpointRepo;
+
+    @Autowired
+    WeatherConfig weatherConfig;
+
+    private final Map<String, NWSGridpoint> gridpointsByLocation = new ConcurrentHashMap<>();
+    private final SingleFlight<String, NWSGridpoint> lookups = new SingleFlight<>();
+
+    public NWSGridpoint get(String lat, String lon) {
+        String location = toLocation(lat, lon);
+
+        NWSGridpoint gridpoint = this.gridpointsByLocation.get(location);
+        if (gridpoint != null && !isDue(gridpoint)) {
+            return gridpoint;
+        }
+
+        return this.lookups.execute(location, () -> load(location));
+    }
+
+    private NWSGridpoint load(String location) {
+        NWSGridpoint gridpoint = this.gridpointsByLocation.get(location);
+        if (gridpoint == null) {
+            try {
+                gridpoint = this.gridpointRepo.findById(location).orElse(null);
+            } catch (DataAccessException ex) {
+                log.warn("Couldn't read the saved NWS gridpoint for {}, asking NWS", location, ex);
+            }
+        }
+
+        if (gridpoint == null || isDue(gridpoint)) {
+            try {
+                gridpoint = fetch(location);
+                save(gridpoint);
+            } catch (RestClientException ex) {
+                if (gridpoint == null) {
+                    throw ex;
+                }
+                log.warn("Couldn't refresh NWS gridpoint for {}, using the one from {}", location,
+                    gridpoint.getFetchedTime(), ex);
+            }
+        }
+
+        this.gridpointsByLocation.put(location, gridpoint);
+        return gridpoint;
+    }
+
+    private void save(NWSGridpoint gridpoint) {
+        try {
+            this.gridpointRepo.save(gridpoint);
+        } catch (DataAccessException ex) {
+            log.warn("Couldn't save the NWS gridpoint for {}", gridpoint.getLocation(), ex);
+        }
+    }
+
+    private boolean isDue(NWSGridpoint gridpoint) {
+        return gridpoint.getFetchedTime()
+            .plus(this.weatherConfig.getGridpoints().getRefreshAfter())
+            .isBefore(LocalDateTime.now());
+    }
+
+    private NWSGridpoint fetch(String location) {
+        NWSEndpointResponse endpointResponse = this.nwsRestController
+            .get()
+            .uri("/points/" + location)
+            .retrieve()
+            .body(NWSEndpointResponse.class);
+
+        NWSEndpointProperties properties = endpointResponse.properties();
+        return new NWSGridpoint(location, properties.gridId(), properties.gridX(), properties.gridY(),
+            URI.create(properties.forecast()).getPath(), URI.create(properties.forecastHourly()).getPath(),
+            LocalDateTime.now());
+    }
+
+    // Trimmed to four decimal places (for two-digit degrees), as NWS redirects more precise points
+    static String toLocation(String lat, String lon) {
+        return shorten(lat) + "," + shorten(lon);
+    }
+
+    private static String shorten(String coordinate) {
+        int length = coordinate.contains("-") ? 8 : 7;
+        return coordinate.length() > length ? coordinate.substring(0, length) : coordinate;
+    }
+}
@@ -0,0 +1,98 @@
+package com.davidruffner.homecontrollerbackend.services;
+
+import com.davidruffner.homecontrollerbackend.config.HueConfig;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Runs independent bridge reads side by side on virtual threads. A semaphore shared by every
+ * caller caps how many are in flight at once (app.hue.fetch.maxConcurrency), so a burst of
+ * requests can't swamp the bridge. Results always come back in the order the fetches were given.
+ *
+ * Setting app.hue.fetch.parallel to false runs them one after another instead. Either way each
+ * batch is timed as hue.fetch, tagged with the operation and mode, to compare the two.
+ */
+@Component
+public class ParallelFetchExecutor {
+
+    final HueConfig hueConfig;
+    final MeterRegistry meterRegistry;
+
+    private final Semaphore permits;
+
+    public ParallelFetchExecutor(HueConfig hueConfig, MeterRegistry meterRegistry) {
+        this.hueConfig = hueConfig;
+        this.meterRegistry = meterRegistry;
+        this.permits = new Semaphore(hueConfig.getFetch().getMaxConcurrency());
+    }
+
+    public <T> List<T> fetchAll(String operation, List<Callable<T>> fetches) {
+        boolean parallel = this.hueConfig.getFetch().isParallel() && fetches.size() > 1;
+
+        Timer timer = Timer.builder("hue.fetch")
+            .description("Time to complete a batch of bridge reads")
+            .tag("operation", operation)
+            .tag("mode", parallel ? "parallel" : "sequential")
+            .register(this.meterRegistry);
+
+        return timer.record(() -> parallel ? runParallel(fetches, this.permits) : runSequential(fetches));
+    }
+
+    private static <T> List<T> runSequential(List<Callable<T>> fetches) {
+        List<T> results = new ArrayList<>(fetches.size());
+
+        for (Callable<T> fetch : fetches) {
+            try {
+                results.add(fetch.call());
+            } catch (RuntimeException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw new CompletionException(ex);
+            }
+        }
+
+        return results;
+    }
+
+    // Also used by HueCommandScheduler for batches of commands, with its own permits
+    static <T> List<T> runParallel(List<Callable<T>> fetches, Semaphore permits) {
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<T>> futures = fetches.stream()
+                .map(fetch -> executor.submit(() -> {
+                    permits.acquire();
+                    try {
+                        return fetch.call();
+                    } finally {
+                        permits.release();
+                    }
+                }))
+                .toList();
+
+            List<T> results = new ArrayList<>(fetches.size());
+            try {
+                for (Future<T> future : futures) {
+                    results.add(future.get());
+                }
+            } catch (ExecutionException ex) {
+                // No point finishing the rest when the batch has already failed
+                futures.forEach(future -> future.cancel(true));
+
+                if (ex.getCause() instanceof RuntimeException runtimeEx) {
+                    throw runtimeEx;
+                }
+                throw new CompletionException(ex.getCause());
+            } catch (InterruptedException ex) {
+                futures.forEach(future -> future.cancel(true));
+                Thread.currentThread().interrupt();
+                throw new CompletionException(ex);
+            }
+
+            return results;
+        }
+    }
+}
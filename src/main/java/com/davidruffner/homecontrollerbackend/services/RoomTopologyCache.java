@@ -0,0 +1,127 @@
+package com.davidruffner.homecontrollerbackend.services;
+
+import com.davidruffner.homecontrollerbackend.config.HueConfig;
+import com.davidruffner.homecontrollerbackend.events.HueTopologyChangedEvent;
+import com.davidruffner.homecontrollerbackend.services.LightsService.HueRoomChildDTO;
+import com.davidruffner.homecontrollerbackend.services.LightsService.HueRoomDataDTO;
+import com.davidruffner.homecontrollerbackend.services.LightsService.HueRoomResponse;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Maps each grouped_light ID to the devices in its room, so group commands don't have to
+ * download and scan every room on the bridge. Entries expire after app.hue.topologyCache.ttl,
+ * and are dropped straight away when the event stream reports a topology change.
+ *
+ * A group ID that isn't in it may belong to a room created since, so that reloads it too, but
+ * only once app.hue.topologyCache.missReloadInterval has passed since the last load. Otherwise
+ * a client asking after a deleted group would have every room downloaded on each request.
+ */
+@Component
+public class RoomTopologyCache {
+
+    final HueBridges hueBridges;
+    final HueConfig hueConfig;
+    final HueStateRegistry hueStateRegistry;
+
+    public RoomTopologyCache(HueBridges hueBridges, HueConfig hueConfig, HueStateRegistry hueStateRegistry) {
+        this.hueBridges = hueBridges;
+        this.hueConfig = hueConfig;
+        this.hueStateRegistry = hueStateRegistry;
+    }
+
+    private record Topology(
+        Map<String, List<HueRoomChildDTO>> childrenByGroupId,
+        Instant loadedAt,
+        Instant expiresAt
+    ) {}
+
+    // Not synchronized: reloading blocks on the bridge, and a virtual thread blocking inside a
+    // monitor pins its carrier thread
+    private final ReentrantLock reloadLock = new ReentrantLock();
+    private volatile Topology topology;
+
+    /**
+     * The devices in the room of the grouped_light {@code groupId}, or empty if there's no such
+     * group.
+     */
+    public Optional<List<HueRoomChildDTO>> getChildren(String groupId) {
+        Topology current = this.topology;
+        Instant now = Instant.now();
+
+        if (current == null || now.isAfter(current.expiresAt())) {
+            current = reload(current);
+        }
+
+        List<HueRoomChildDTO> children = current.childrenByGroupId().get(groupId);
+        Duration missReloadInterval = this.hueConfig.getTopologyCache().getMissReloadInterval();
+        if (children == null && !now.isBefore(current.loadedAt().plus(missReloadInterval))) {
+            // Possibly a room created since we last looked, so give it one more try
+            current = reload(current);
+            children = current.childrenByGroupId().get(groupId);
+        }
+
+        return Optional.ofNullable(children);
+    }
+
+    public void invalidate() {
+        this.topology = null;
+    }
+
+    @EventListener
+    public void onTopologyChanged(HueTopologyChangedEvent event) {
+        invalidate();
+    }
+
+    private Topology reload(Topology stale) {
+        this.reloadLock.lock();
+        try {
+            // Another thread may have already reloaded while we waited on the lock
+            if (this.topology != null && this.topology != stale) {
+                return this.topology;
+            }
+
+            Map<String, List<HueRoomChildDTO>> childrenByGroupId = new HashMap<>();
+            getRooms().forEach(room -> room.services().forEach(service -> {
+                if (service.rtype().equals("grouped_light")) {
+                    childrenByGroupId.put(service.rid(), List.copyOf(room.children()));
+                }
+            }));
+
+            Instant now = Instant.now();
+            Topology loaded = new Topology(childrenByGroupId, now,
+                now.plus(this.hueConfig.getTopologyCache().getTtl()));
+            this.topology = loaded;
+
+            return loaded;
+        } finally {
+            this.reloadLock.unlock();
+        }
+    }
+
+    private List<HueRoomDataDTO> getRooms() {
+        if (this.hueStateRegistry.isSynced()) {
+            return this.hueStateRegistry.getRooms();
+        }
+
+        // One bridge after another: group commands sent as part of a scene end up here, already
+        // inside a parallel batch
+        List<HueRoomDataDTO> rooms = new ArrayList<>();
+        this.hueBridges.getAll().forEach(bridge -> {
+            List<HueRoomDataDTO> bridgeRooms = bridge.get("/clip/v2/resource/room", HueRoomResponse.class).data();
+            this.hueBridges.remember(bridge, bridgeRooms);
+            rooms.addAll(bridgeRooms);
+        });
+
+        return rooms;
+    }
+}
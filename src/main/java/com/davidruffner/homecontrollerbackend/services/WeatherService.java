@@ -9,12 +9,8 @@ import com.davidruffner.homecontrollerbackend.utils.Utils.ZonedRange;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestClient;
-import org.springframework.web.util.UriComponentsBuilder;
 
-import java.net.URI;
 import java.time.DayOfWeek;
 import java.time.Instant;
 import java.time.ZoneId;
@@ -36,11 +32,14 @@ import static java.util.Map.entry;
 public class WeatherService {
 
     @Autowired
-    @Qualifier("NWSRestClient")
-    RestClient nwsRestController;
+    NWSForecastCache nwsForecastCache;
 
     public record NWSEndpointProperties(
-        String forecast
+        String gridId,
+        Integer gridX,
+        Integer gridY,
+        String forecast,
+        String forecastHourly
     ) {}
 
     public record NWSEndpointResponse(
@@ -343,36 +342,6 @@ public class WeatherService {
         NWSHourlyProperties properties
     ) {}
 
-    private String getForecastAPI(String lat, String lon) {
-        String shortenedLat = "";
-        String shortenedLon = "";
-
-        if (lat.contains("-")) {
-            shortenedLat = lat.substring(0, 8);
-        } else {
-            shortenedLat = lat.substring(0, 7);
-        }
-
-        if (lon.contains("-")) {
-            shortenedLon = lon.substring(0, 8);
-        } else {
-            shortenedLon = lon.substring(0, 7);
-        }
-
-        URI uri = UriComponentsBuilder
-            .fromPath("/points/" + shortenedLat + "," + shortenedLon)
-            .build()
-            .toUri();
-
-        NWSEndpointResponse endpointResponse = this.nwsRestController
-            .get()
-            .uri(uri)
-            .retrieve()
-            .body(NWSEndpointResponse.class);
-
-        return endpointResponse.properties.forecast.split("https://api.weather.gov")[1];
-    }
-
     public NWSHourlyPeriod getCurrentConditions(String lat, String lon) {
         Instant currentTime = Instant.now()
             .atZone(ZoneId.of("America/Detroit"))
@@ -384,14 +353,7 @@ public class WeatherService {
             .toInstant()
             .plus(1, ChronoUnit.HOURS);
 
-        String forecastAPI = getForecastAPI(lat, lon);
-        String hourlyAPI = forecastAPI + "/hourly";
-
-        NWSHourlyResponse response = this.nwsRestController
-            .get()
-            .uri(hourlyAPI)
-            .retrieve()
-            .body(NWSHourlyResponse.class);
+        NWSHourlyResponse response = this.nwsForecastCache.getHourlyForecast(lat, lon);
         List<NWSHourlyPeriod> hourlyPeriods = response.properties.periods;
 
         NWSHourlyPeriod hourlyPeriod = hourlyPeriods.stream()
@@ -404,21 +366,10 @@ public class WeatherService {
     }
 
     public NWSForecastResponse getForecastResponse(String lat, String lon) {
-        String forecastAPI = getForecastAPI(lat, lon);
-        String hourlyAPI = forecastAPI + "/hourly";
-
-        NWSHourlyResponse response = this.nwsRestController
-            .get()
-            .uri(hourlyAPI)
-            .retrieve()
-            .body(NWSHourlyResponse.class);
+        NWSHourlyResponse response = this.nwsForecastCache.getHourlyForecast(lat, lon);
         List<NWSHourlyPeriod> hourlyPeriods = response.properties.periods;
 
-        NWSForecastResponse forecastResponse = this.nwsRestController
-            .get()
-            .uri(forecastAPI)
-            .retrieve()
-            .body(NWSForecastResponse.class);
+        NWSForecastResponse forecastResponse = this.nwsForecastCache.getForecast(lat, lon);
 
         forecastResponse.properties.periods.forEach(fp -> {
             AtomicReference<Double> addedHumidities = new AtomicReference<>(0d);
@@ -540,14 +491,7 @@ public class WeatherService {
             .orElseThrow(() -> new ControllerException("Can't find any tomorrow's periods", ResponseCode.SYSTEM_EXCEPTION,
                 SYSTEM_EXCEPTION.toString()));
 
-        String forecastAPI = getForecastAPI(userSettings.getLat(), userSettings.getLon());
-        String hourlyAPI = forecastAPI + "/hourly";
-
-        NWSHourlyResponse response = this.nwsRestController
-            .get()
-            .uri(hourlyAPI)
-            .retrieve()
-            .body(NWSHourlyResponse.class);
+        NWSHourlyResponse response = this.nwsForecastCache.getHourlyForecast(userSettings.getLat(), userSettings.getLon());
         List<NWSHourlyPeriod> hourlyPeriods = response.properties.periods;
 
         List<NWSHourlyPeriod> nighttimePeriods = hourlyPeriods.stream()
@@ -569,14 +513,7 @@ public class WeatherService {
             .findFirst()
             .orElseThrow(() -> new Exception("Can't find any nighttime periods"));
 
-        String forecastAPI = getForecastAPI(userSettings.getLat(), userSettings.getLon());
-        String hourlyAPI = forecastAPI + "/hourly";
-
-        NWSHourlyResponse response = this.nwsRestController
-            .get()
-            .uri(hourlyAPI)
-            .retrieve()
-            .body(NWSHourlyResponse.class);
+        NWSHourlyResponse response = this.nwsForecastCache.getHourlyForecast(userSettings.getLat(), userSettings.getLon());
         List<NWSHourlyPeriod> hourlyPeriods = response.properties.periods;
 
         List<NWSHourlyPeriod> nighttimePeriods = hourlyPeriods.stream()
@@ -608,14 +545,7 @@ public class WeatherService {
         NWSForecastPeriod forecastPeriod = forecastPeriodOpt.get();
 
         // Get hourly forecasts within the bounds of the forecastPeriod
-        String forecastAPI = getForecastAPI(userSettings.getLat(), userSettings.getLon());
-        String hourlyAPI = forecastAPI + "/hourly";
-
-        NWSHourlyResponse response = this.nwsRestController
-            .get()
-            .uri(hourlyAPI)
-            .retrieve()
-            .body(NWSHourlyResponse.class);
+        NWSHourlyResponse response = this.nwsForecastCache.getHourlyForecast(userSettings.getLat(), userSettings.getLon());
         List<NWSHourlyPeriod> hourlyPeriods = response.properties.periods;
 
         List<NWSHourlyPeriod> daytimePeriods = hourlyPeriods.stream()
@@ -676,14 +606,7 @@ public class WeatherService {
             .orElseThrow(() -> new ControllerException("Can't find any today's periods", ResponseCode.SYSTEM_EXCEPTION,
                 SYSTEM_EXCEPTION.toString()));
 
-        String forecastAPI = getForecastAPI(userSettings.getLat(), userSettings.getLon());
-        String hourlyAPI = forecastAPI + "/hourly";
-
-        NWSHourlyResponse response = this.nwsRestController
-            .get()
-            .uri(hourlyAPI)
-            .retrieve()
-            .body(NWSHourlyResponse.class);
+        NWSHourlyResponse response = this.nwsForecastCache.getHourlyForecast(userSettings.getLat(), userSettings.getLon());
         List<NWSHourlyPeriod> hourlyPeriods = response.properties.periods;
 
         List<NWSHourlyPeriod> todayPeriods = hourlyPeriods.stream()
@@ -926,14 +849,7 @@ public class WeatherService {
     }
 
     private List<NWSHourlyPeriod> getFilteredTimePeriods(TrendType trendType, UserSettings userSettings) {
-        String forecastAPI = getForecastAPI(userSettings.getLat(), userSettings.getLon());
-        String hourlyAPI = forecastAPI + "/hourly";
-
-        NWSHourlyResponse response = this.nwsRestController
-            .get()
-            .uri(hourlyAPI)
-            .retrieve()
-            .body(NWSHourlyResponse.class);
+        NWSHourlyResponse response = this.nwsForecastCache.getHourlyForecast(userSettings.getLat(), userSettings.getLon());
 
         List<NWSHourlyPeriod> hourlyPeriods = response.properties.periods;
 
@@ -0,0 +1,167 @@
+package com.davidruffner.homecontrollerbackend.controllers;
+
+import com.davidruffner.homecontrollerbackend.config.HueConfig;
+import com.davidruffner.homecontrollerbackend.events.LightStateChangedEvent;
+import com.davidruffner.homecontrollerbackend.services.HueBridges;
+import com.davidruffner.homecontrollerbackend.services.HueCommandScheduler;
+import com.davidruffner.homecontrollerbackend.services.HueStateRegistry;
+import com.davidruffner.homecontrollerbackend.services.LightChangeLog;
+import com.davidruffner.homecontrollerbackend.services.LightsService;
+import com.davidruffner.homecontrollerbackend.services.ParallelFetchExecutor;
+import com.davidruffner.homecontrollerbackend.stubs.HueFixtures;
+import com.davidruffner.homecontrollerbackend.stubs.StubHueBridge;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.filter.ShallowEtagHeaderFilter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+/**
+ * The main {@link LightsController} endpoints under concurrent load, served through MockMvc by
+ * the real controller and service against a {@link StubHueBridge} that behaves like the real
+ * bridge: round trip latency, occasional errors, and its command rate limits. Throughput mode
+ * gives requests per second; sample time mode gives the latency distribution (p99 included).
+ *
+ * Requests the bridge throttled or failed are printed at the end of each trial, since they'd
+ * otherwise just look like fast responses.
+ *
+ * Run with: {@code mvn test-compile} and then the main method from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class LightsControllerBenchmark {
+
+    private static final int BULB_COUNT = 40;
+    private static final int ROOM_COUNT = 4;
+
+    // Round trip time added to every stub response, to approximate a real bridge on the LAN
+    @Param({"0", "5"})
+    long bridgeLatencyMillis;
+
+    // Whether reads come from the event-stream-fed registry or go to the bridge every time
+    @Param({"true", "false"})
+    boolean eventStream;
+
+    // Fraction of bridge requests answered with a 503
+    @Param({"0", "0.01"})
+    double bridgeErrorRate;
+
+    private StubHueBridge bridge;
+    private HueCommandScheduler hueCommandScheduler;
+    private HueStateRegistry hueStateRegistry;
+    private MockMvc mockMvc;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.bridge = StubHueBridge.withBulbs(BULB_COUNT);
+        for (int r = 0; r < ROOM_COUNT; r++) {
+            List<String> deviceIds = new ArrayList<>();
+            for (int i = r; i < BULB_COUNT; i += ROOM_COUNT) {
+                deviceIds.add("device-" + i);
+            }
+            this.bridge.addRoom("room-" + r, "group-" + r, "Room " + r, deviceIds);
+        }
+        this.bridge.setLatencyMillis(this.bridgeLatencyMillis);
+        this.bridge.setApplyCommands(true);
+
+        LightChangeLog lightChangeLog = new LightChangeLog(new HueConfig());
+
+        // A little under the bridge's own limits, as the app is configured
+        this.hueCommandScheduler = HueFixtures.scheduler(8, 64);
+        ParallelFetchExecutor parallelFetchExecutor = HueFixtures.executor(true, 4);
+        HueBridges hueBridges = this.bridge.hueBridges(parallelFetchExecutor, this.hueCommandScheduler);
+        ApplicationEventPublisher eventPublisher = event -> {
+            if (event instanceof LightStateChangedEvent changed) {
+                lightChangeLog.onLightStateChanged(changed);
+            }
+        };
+        this.hueStateRegistry = this.eventStream
+            ? HueFixtures.registry(hueBridges, parallelFetchExecutor, eventPublisher)
+            : HueFixtures.unsyncedRegistry(hueBridges, parallelFetchExecutor, eventPublisher);
+
+        LightsService lightsService = HueFixtures.lightsService(hueBridges, parallelFetchExecutor,
+            this.hueCommandScheduler, this.hueStateRegistry, event -> {}, new HueConfig());
+
+        // Only what the benchmarked endpoints use
+        LightsController controller = new LightsController(lightsService, null, null, null, null, lightChangeLog,
+            this.hueStateRegistry, null);
+
+        this.mockMvc = MockMvcBuilders.standaloneSetup(controller)
+            .setControllerAdvice(new GlobalExceptionHandler())
+            .addFilters(new ShallowEtagHeaderFilter())
+            .build();
+
+        // Errors only from here on, so the setup itself goes through
+        this.bridge.setRateLimits(10, 1);
+        this.bridge.setErrorRate(this.bridgeErrorRate);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.out.printf("%nBridge throttled %d and failed %d requests%n",
+            this.bridge.getThrottledCount(), this.bridge.getInjectedErrorCount());
+
+        this.hueCommandScheduler.stop();
+        this.hueStateRegistry.stop();
+        this.bridge.close();
+    }
+
+    @Benchmark
+    public int getRooms() {
+        return perform(get("/lights/getRooms"));
+    }
+
+    @Benchmark
+    public int getBulbs() {
+        return perform(get("/lights/getBulbs"));
+    }
+
+    @Benchmark
+    public int getBulbsForGroup() {
+        return perform(get("/lights/getBulbsForGroup/group-" + ThreadLocalRandom.current().nextInt(ROOM_COUNT)));
+    }
+
+    @Benchmark
+    public int toggleLight() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        return perform(post("/lights/toggleLight")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(String.format("{\"lightId\": \"light-%d\", \"status\": %b}",
+                random.nextInt(BULB_COUNT), random.nextBoolean())));
+    }
+
+    // The response status, with anything the controller let escape counted as the 500 it'd become
+    private int perform(RequestBuilder request) {
+        try {
+            return this.mockMvc.perform(request).andReturn().getResponse().getStatus();
+        } catch (Exception ex) {
+            return 500;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(LightsControllerBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}
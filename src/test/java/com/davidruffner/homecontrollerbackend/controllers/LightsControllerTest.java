@@ -0,0 +1,107 @@
+package com.davidruffner.homecontrollerbackend.controllers;
+
+import com.davidruffner.homecontrollerbackend.config.HueConfig;
+import com.davidruffner.homecontrollerbackend.entities.LightBulb;
+import com.davidruffner.homecontrollerbackend.events.HueMetadataChangedEvent;
+import com.davidruffner.homecontrollerbackend.events.LightStateChangedEvent;
+import com.davidruffner.homecontrollerbackend.repositories.LightBulbTrackRepository;
+import com.davidruffner.homecontrollerbackend.services.FavoritesService;
+import com.davidruffner.homecontrollerbackend.services.HueStateRegistry;
+import com.davidruffner.homecontrollerbackend.services.LightChangeLog;
+import com.davidruffner.homecontrollerbackend.services.LightCommandCoalescer;
+import com.davidruffner.homecontrollerbackend.services.LightEventStream;
+import com.davidruffner.homecontrollerbackend.services.LightStateWriteBuffer;
+import com.davidruffner.homecontrollerbackend.services.LightsService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.filter.ShallowEtagHeaderFilter;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+public class LightsControllerTest {
+
+    private LightsController controller;
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    public void setUp() {
+        this.controller = new LightsController(Mockito.mock(LightsService.class),
+            Mockito.mock(LightBulbTrackRepository.class), Mockito.mock(LightCommandCoalescer.class),
+            Mockito.mock(LightStateWriteBuffer.class), Mockito.mock(LightEventStream.class),
+            new LightChangeLog(new HueConfig()), Mockito.mock(HueStateRegistry.class),
+            Mockito.mock(FavoritesService.class));
+
+        when(this.controller.lightsService.getAllLightBulbs())
+            .thenReturn(List.of(new LightBulb("device-1", "light-1")));
+
+        this.mockMvc = MockMvcBuilders.standaloneSetup(this.controller)
+            .addFilters(new ShallowEtagHeaderFilter())
+            .build();
+    }
+
+    @Test
+    public void testSyncedVersionETagSkipsBuildingTheBody() throws Exception {
+        when(this.controller.hueStateRegistry.isSynced()).thenReturn(true);
+        String eTag = "\"lights-" + this.controller.lightChangeLog.getLatestVersion() + "\"";
+
+        this.mockMvc.perform(get("/lights/getBulbs"))
+            .andExpect(status().isOk())
+            .andExpect(header().string("ETag", eTag));
+        this.mockMvc.perform(get("/lights/getBulbs").header("If-None-Match", eTag))
+            .andExpect(status().isNotModified())
+            .andExpect(content().string(""));
+        verify(this.controller.lightsService, times(1)).getAllLightBulbs();
+
+        this.controller.lightChangeLog.onLightStateChanged(new LightStateChangedEvent("light-1", false, null, null));
+        this.mockMvc.perform(get("/lights/getBulbs").header("If-None-Match", eTag))
+            .andExpect(status().isOk());
+    }
+
+    @Test
+    public void testRenamingARoomChangesTheETag() throws Exception {
+        when(this.controller.hueStateRegistry.isSynced()).thenReturn(true);
+        String eTag = this.mockMvc.perform(get("/lights/getRooms"))
+            .andExpect(status().isOk())
+            .andReturn().getResponse().getHeader("ETag");
+
+        this.controller.lightChangeLog.onMetadataChanged(new HueMetadataChangedEvent("room"));
+
+        String renamedETag = this.mockMvc.perform(get("/lights/getRooms").header("If-None-Match", eTag))
+            .andExpect(status().isOk())
+            .andReturn().getResponse().getHeader("ETag");
+        assertNotEquals(eTag, renamedETag);
+    }
+
+    @Test
+    public void testUnsyncedBodyIsHashed() throws Exception {
+        String eTag = this.mockMvc.perform(get("/lights/getBulbs"))
+            .andExpect(status().isOk())
+            .andReturn().getResponse().getHeader("ETag");
+
+        this.mockMvc.perform(get("/lights/getBulbs").header("If-None-Match", eTag))
+            .andExpect(status().isNotModified());
+    }
+
+    @Test
+    public void testChangesSinceVersion() throws Exception {
+        long start = this.controller.lightChangeLog.getLatestVersion();
+        this.controller.lightChangeLog.onLightStateChanged(new LightStateChangedEvent("light-1", false, null, null));
+
+        this.mockMvc.perform(get("/lights/changes").param("since", String.valueOf(start)))
+            .andExpect(jsonPath("$.resync").value(false))
+            .andExpect(jsonPath("$.version").value(start + 1))
+            .andExpect(jsonPath("$.changes[0].id").value("light-1"));
+
+        this.mockMvc.perform(get("/lights/changes"))
+            .andExpect(jsonPath("$.resync").value(true))
+            .andExpect(jsonPath("$.changes").isEmpty());
+    }
+}
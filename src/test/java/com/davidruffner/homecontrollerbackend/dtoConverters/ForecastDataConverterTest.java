@@ -0,0 +1,37 @@
+package com.davidruffner.homecontrollerbackend.dtoConverters;
+
+import com.davidruffner.homecontrollerbackend.dtos.ForecastData;
+import com.davidruffner.homecontrollerbackend.dtos.ForecastDataValueWrapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ForecastDataConverterTest {
+
+    private final ForecastDataConverter converter = new ForecastDataConverter();
+
+    @Test
+    public void testListRoundTrips() {
+        ForecastData first = new ForecastData();
+        first.setTemperature(52.0);
+        first.setRelativeHumidity(new ForecastDataValueWrapper(70));
+        ForecastData second = new ForecastData();
+        second.setShortForecast("Sunny");
+
+        List<ForecastData> converted = this.converter.convertToEntityAttribute(
+            this.converter.convertToDatabaseColumn(List.of(first, second)));
+
+        assertEquals(2, converted.size());
+        assertEquals(52.0, converted.getFirst().getTemperature());
+        assertEquals(70, converted.getFirst().getRelativeHumidity().getValue());
+        assertEquals("Sunny", converted.get(1).getShortForecast());
+    }
+
+    @Test
+    public void testNullStaysNull() {
+        assertNull(this.converter.convertToDatabaseColumn(null));
+        assertNull(this.converter.convertToEntityAttribute(null));
+    }
+}
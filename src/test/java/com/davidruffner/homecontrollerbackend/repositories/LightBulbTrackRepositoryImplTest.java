@@ -0,0 +1,48 @@
+package com.davidruffner.homecontrollerbackend.repositories;
+
+import com.davidruffner.homecontrollerbackend.entities.LightBulbTrack;
+import com.davidruffner.homecontrollerbackend.repositories.LightBulbTrackRepositoryCustom.TrackDiff;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class LightBulbTrackRepositoryImplTest {
+
+    @Test
+    public void testDiffOnlyWritesChangedRows() {
+        LightBulbTrack unchanged = track("light-1", 80.0, true);
+        LightBulbTrack dimmed = track("light-2", 80.0, true);
+        LightBulbTrack removed = track("light-3", 80.0, true);
+
+        Map<String, LightBulbTrack> existing = Map.of(
+            "light-1", unchanged,
+            "light-2", dimmed,
+            "light-3", removed);
+
+        LightBulbTrack added = track("light-4", 50.0, false);
+        TrackDiff diff = LightBulbTrackRepositoryImpl.diff(existing, List.of(
+            track("light-1", 80.0, true),
+            track("light-2", 20.0, true),
+            added));
+
+        assertEquals(List.of("light-2", "light-4"), diff.upserts().stream()
+            .map(LightBulbTrack::getLightId).sorted().toList());
+        assertEquals(List.of("light-3"), diff.deletes());
+    }
+
+    private static LightBulbTrack track(String lightId, Double brightness, boolean isOn) {
+        LightBulbTrack track = new LightBulbTrack();
+        track.setLightId(lightId);
+        track.setDeviceId("device-" + lightId);
+        track.setBrightness(brightness);
+        track.setRed(255.0);
+        track.setGreen(200.0);
+        track.setBlue(100.0);
+        track.setIsOn(isOn);
+        track.setName("Bulb " + lightId);
+        return track;
+    }
+}
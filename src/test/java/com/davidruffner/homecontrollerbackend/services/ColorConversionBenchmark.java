@@ -0,0 +1,99 @@
+package com.davidruffner.homecontrollerbackend.services;
+
+import com.davidruffner.homecontrollerbackend.entities.RGB;
+import com.davidruffner.homecontrollerbackend.services.ColorConversionService.RgbToXyDto;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Table-based {@link ColorConversionService} against the original formulas
+ * ({@link ReferenceColorConversion}), both ways, over a fixed batch of random colours.
+ *
+ * Run with: {@code mvn test-compile} and then the main method from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ColorConversionBenchmark {
+
+    private static final int BATCH = 1024;
+
+    private final ColorConversionService service = new ColorConversionService();
+    private final ReferenceColorConversion reference = new ReferenceColorConversion();
+
+    private int[] channels;
+    private RGB[] colors;
+    private double[] xs;
+    private double[] ys;
+    private final double[] xy = new double[2];
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        this.channels = new int[BATCH * 3];
+        this.colors = new RGB[BATCH];
+        this.xs = new double[BATCH];
+        this.ys = new double[BATCH];
+
+        for (int i = 0; i < BATCH; i++) {
+            int r = random.nextInt(256), g = random.nextInt(256), b = random.nextInt(256);
+            this.channels[i * 3] = r;
+            this.channels[i * 3 + 1] = g;
+            this.channels[i * 3 + 2] = b;
+            this.colors[i] = new RGB((double) r, (double) g, (double) b);
+
+            RgbToXyDto converted = this.reference.rgbToXy(this.colors[i]);
+            this.xs[i] = converted.x();
+            this.ys[i] = converted.y();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void rgbToXyReference(Blackhole blackhole) {
+        for (RGB color : this.colors) {
+            blackhole.consume(this.reference.rgbToXy(color));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void rgbToXyTable(Blackhole blackhole) {
+        for (int i = 0; i < BATCH; i++) {
+            this.service.rgbToXy(this.channels[i * 3], this.channels[i * 3 + 1], this.channels[i * 3 + 2], this.xy);
+            blackhole.consume(this.xy[0]);
+            blackhole.consume(this.xy[1]);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void xyToRgbReference(Blackhole blackhole) {
+        for (int i = 0; i < BATCH; i++) {
+            blackhole.consume(this.reference.xyToRGB(this.xs[i], this.ys[i], 0.8));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void xyToRgbTable(Blackhole blackhole) {
+        for (int i = 0; i < BATCH; i++) {
+            blackhole.consume(this.service.xyToPackedRgb(this.xs[i], this.ys[i], 0.8));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(ColorConversionBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}
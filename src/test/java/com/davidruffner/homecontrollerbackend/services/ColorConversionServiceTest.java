@@ -0,0 +1,107 @@
+package com.davidruffner.homecontrollerbackend.services;
+
+import com.davidruffner.homecontrollerbackend.entities.RGB;
+import com.davidruffner.homecontrollerbackend.enums.ColorGamut;
+import com.davidruffner.homecontrollerbackend.services.ColorConversionService.RgbToXyDto;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class ColorConversionServiceTest {
+
+    private final ColorConversionService service = new ColorConversionService();
+    private final ReferenceColorConversion reference = new ReferenceColorConversion();
+
+    @Test
+    public void testRgbToXyMatchesReferenceOverWholeCube() {
+        double[] xy = new double[2];
+        double maxError = 0;
+
+        for (int r = 0; r < 256; r++) {
+            for (int g = 0; g < 256; g++) {
+                for (int b = 0; b < 256; b++) {
+                    RgbToXyDto expected = this.reference.rgbToXy(new RGB((double) r, (double) g, (double) b));
+                    this.service.rgbToXy(r, g, b, xy);
+
+                    maxError = Math.max(maxError, Math.abs(expected.x() - xy[0]));
+                    maxError = Math.max(maxError, Math.abs(expected.y() - xy[1]));
+                }
+            }
+        }
+
+        assertEquals(0d, maxError);
+    }
+
+    @Test
+    public void testXyToRgbMatchesReferenceOverWholeCube() {
+        double[] xy = new double[2];
+        double[] luminances = {1.0, 0.5, 0.05};
+        int mismatches = 0;
+
+        // Every xy an 8-bit colour maps to, at full and reduced brightness
+        for (int r = 0; r < 256; r++) {
+            for (int g = 0; g < 256; g++) {
+                for (int b = 0; b < 256; b++) {
+                    this.service.rgbToXy(r, g, b, xy);
+                    double Y = luminances[(r + g + b) % luminances.length];
+
+                    RGB expected = this.reference.xyToRGB(xy[0], xy[1], Y);
+                    int packed = this.service.xyToPackedRgb(xy[0], xy[1], Y);
+
+                    if (expected.getRed() != ((packed >> 16) & 0xFF)
+                        || expected.getGreen() != ((packed >> 8) & 0xFF)
+                        || expected.getBlue() != (packed & 0xFF)) {
+                        mismatches++;
+                    }
+                }
+            }
+        }
+
+        assertEquals(0, mismatches);
+    }
+
+    @Test
+    public void testBoxedPathsMatchReference() {
+        RGB fractional = new RGB(12.5, 200.25, 99.9);
+        assertEquals(this.reference.rgbToXy(fractional), this.service.rgbToXy(fractional));
+        assertEquals(this.reference.rgbToXy(null), this.service.rgbToXy(null));
+
+        RGB expected = this.reference.xyToRGB(0.4573, 0.41, 0.8);
+        RGB actual = this.service.xyToRGB(0.4573, 0.41, 0.8);
+        assertEquals(expected.getRed(), actual.getRed());
+        assertEquals(expected.getGreen(), actual.getGreen());
+        assertEquals(expected.getBlue(), actual.getBlue());
+    }
+
+    @Test
+    public void testRgbToXyForGamutLeavesReachableColoursAlone() {
+        RGB warmWhite = new RGB(255d, 200d, 150d);
+
+        assertEquals(this.service.rgbToXy(warmWhite), this.service.rgbToXy(warmWhite, ColorGamut.C));
+        assertEquals(this.service.rgbToXy(warmWhite), this.service.rgbToXy(warmWhite, ColorGamut.OTHER));
+    }
+
+    @Test
+    public void testRgbToXyForGamutClampsOntoTheTriangle() {
+        // Pure sRGB green is outside gamut B, whose green corner is at (0.409, 0.518)
+        RgbToXyDto unclamped = this.service.rgbToXy(new RGB(0d, 255d, 0d));
+        RgbToXyDto clamped = this.service.rgbToXy(new RGB(0d, 255d, 0d), ColorGamut.B);
+
+        assertNotEquals(unclamped, clamped);
+        double[] again = new double[2];
+        ColorGamut.B.clamp(clamped.x(), clamped.y(), again);
+        assertEquals(clamped.x(), again[0], 1e-12);
+        assertEquals(clamped.y(), again[1], 1e-12);
+    }
+
+    @Test
+    public void testRgbToXyForGamutIsMemoizedPerGamut() {
+        RgbToXyDto first = this.service.rgbToXy(new RGB(10d, 20d, 30d), ColorGamut.A);
+
+        assertSame(first, this.service.rgbToXy(new RGB(10.2, 20d, 29.8), ColorGamut.A));
+        this.service.rgbToXy(new RGB(10d, 20d, 30d), ColorGamut.C);
+        assertEquals(2, this.service.getCachedConversionCount());
+    }
+}
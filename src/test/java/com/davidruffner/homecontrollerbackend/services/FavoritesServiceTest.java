@@ -0,0 +1,101 @@
+package com.davidruffner.homecontrollerbackend.services;
+
+import com.davidruffner.homecontrollerbackend.entities.ModifyLightRequest.RGBDTO;
+import com.davidruffner.homecontrollerbackend.entities.SceneTarget;
+import com.davidruffner.homecontrollerbackend.entities.SceneTarget.SceneTargetDTO;
+import com.davidruffner.homecontrollerbackend.enums.ResponseCode;
+import com.davidruffner.homecontrollerbackend.exceptions.ControllerException;
+import com.davidruffner.homecontrollerbackend.repositories.FavoriteColorRepository;
+import com.davidruffner.homecontrollerbackend.repositories.SceneTargetRepository;
+import com.davidruffner.homecontrollerbackend.services.ColorConversionService.RgbToXyDto;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class FavoritesServiceTest {
+
+    private FavoritesService favoritesService;
+
+    @BeforeEach
+    public void setUp() {
+        this.favoritesService = new FavoritesService(Mockito.mock(FavoriteColorRepository.class),
+            Mockito.mock(SceneTargetRepository.class), Mockito.mock(LightsService.class),
+            new ColorConversionService());
+    }
+
+    @Test
+    public void testColoursAreSavedAsTheyWillBeSent() {
+        when(this.favoritesService.lightsService.rgbToXyForLight(eq("light-1"), any()))
+            .thenReturn(new RgbToXyDto(0.6, 0.3));
+        when(this.favoritesService.lightsService.rgbToXyForGroup(eq("group-1"), any()))
+            .thenReturn(new RgbToXyDto(0.2, 0.2));
+
+        List<SceneTarget> targets = this.favoritesService.buildTargets(List.of(
+            new SceneTargetDTO("light-1", null, true, 40d, new RGBDTO(255d, 0d, 0d, 1d)),
+            new SceneTargetDTO(null, "group-1", null, null, new RGBDTO(0d, 0d, 255d, 1d)),
+            new SceneTargetDTO("light-2", null, false, null, null)));
+
+        assertEquals(0.6, targets.get(0).getColorX());
+        // What the clamped xy shows, rather than what was asked for
+        assertEquals(new ColorConversionService().xyToRGB(0.6, 0.3, 1d), targets.get(0).getColorAsRGB());
+        assertEquals(0.2, targets.get(1).getColorY());
+        assertNull(targets.get(2).getColorX());
+        assertEquals(List.of(0, 1, 2), targets.stream().map(SceneTarget::getIndex).toList());
+    }
+
+    @Test
+    public void testSceneOfAnotherDeviceIsNotReplaced() {
+        SceneTarget existing = new SceneTarget();
+        existing.setSceneId("scene-1");
+        existing.setControlDeviceId("device-a");
+        when(this.favoritesService.sceneTargetRepo.getTargetsForScene("scene-1")).thenReturn(List.of(existing));
+
+        assertThrows(ControllerException.class, () -> this.favoritesService.saveScene("scene-1", "Evening",
+            "device-b", List.of(new SceneTargetDTO("light-1", null, true, null, null))));
+        verify(this.favoritesService.sceneTargetRepo, never()).deleteBySceneId(any());
+
+        this.favoritesService.saveScene("scene-1", "Evening", "device-a",
+            List.of(new SceneTargetDTO("light-1", null, true, null, null)));
+        verify(this.favoritesService.sceneTargetRepo).deleteBySceneId("scene-1");
+    }
+
+    @Test
+    public void testUnknownSceneIsNotFound() {
+        ControllerException ex = assertThrows(ControllerException.class,
+            () -> this.favoritesService.getSceneTargets("scene-9", "device-a"));
+        assertEquals(ResponseCode.NOT_FOUND, ex.getResponseCode());
+    }
+
+    @Test
+    public void testSceneOfAnotherDeviceCantBeApplied() {
+        SceneTarget existing = new SceneTarget();
+        existing.setSceneId("scene-1");
+        existing.setControlDeviceId("device-a");
+        when(this.favoritesService.sceneTargetRepo.getTargetsForScene("scene-1")).thenReturn(List.of(existing));
+
+        ControllerException ex = assertThrows(ControllerException.class,
+            () -> this.favoritesService.getSceneTargets("scene-1", "device-b"));
+        assertEquals(ResponseCode.NOT_FOUND, ex.getResponseCode());
+        assertThrows(ControllerException.class, () -> this.favoritesService.getSceneTargets("scene-1", null));
+
+        assertEquals(List.of(existing), this.favoritesService.getSceneTargets("scene-1", "device-a"));
+    }
+
+    @Test
+    public void testTargetsMustNameOneLightOrGroup() {
+        assertThrows(ControllerException.class, () -> this.favoritesService.buildTargets(List.of(
+            new SceneTargetDTO("light-1", "group-1", true, null, null))));
+        assertThrows(ControllerException.class, () -> this.favoritesService.buildTargets(List.of(
+            new SceneTargetDTO("light-1", null, null, null, null))));
+        assertThrows(ControllerException.class, () -> this.favoritesService.buildTargets(List.of()));
+    }
+}
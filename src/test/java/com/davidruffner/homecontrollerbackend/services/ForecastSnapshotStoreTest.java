@@ -0,0 +1,103 @@
+package com.davidruffner.homecontrollerbackend.services;
+
+import com.davidruffner.homecontrollerbackend.config.WeatherConfig;
+import com.davidruffner.homecontrollerbackend.entities.ForecastDataEntity;
+import com.davidruffner.homecontrollerbackend.repositories.ForecastDataRepository;
+import com.davidruffner.homecontrollerbackend.services.ForecastSnapshotStore.Snapshot;
+import com.davidruffner.homecontrollerbackend.services.NWSForecastCache.Product;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class ForecastSnapshotStoreTest {
+
+    private ForecastSnapshotStore store;
+
+    @BeforeEach
+    public void setUp() {
+        this.store = new ForecastSnapshotStore();
+        this.store.forecastDataRepo = Mockito.mock(ForecastDataRepository.class);
+        this.store.weatherConfig = new WeatherConfig();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSavesAreMergedPerGridpointAndProduct() {
+        Instant expiresAt = Instant.now().plusSeconds(600);
+        this.store.save(new Snapshot("DTX/65,33", Product.FORECAST_HOURLY, "old", expiresAt));
+        this.store.save(new Snapshot("DTX/65,33", Product.FORECAST, "daily", expiresAt));
+        this.store.save(new Snapshot("DTX/65,33", Product.FORECAST_HOURLY, "new", expiresAt));
+
+        // Nothing is written until the flush
+        verifyNoInteractions(this.store.forecastDataRepo);
+        this.store.flush();
+
+        ArgumentCaptor<Collection<ForecastDataEntity>> captor = ArgumentCaptor.forClass(Collection.class);
+        verify(this.store.forecastDataRepo, times(1)).upsertSnapshots(captor.capture());
+        assertEquals(2, captor.getValue().size());
+        ForecastDataEntity hourly = captor.getValue().stream()
+            .filter(entity -> entity.getType().equals("forecastHourly")).findFirst().orElseThrow();
+        assertEquals("new", hourly.getResponse());
+        assertEquals(0, this.store.getPendingCount());
+
+        this.store.flush();
+        verify(this.store.forecastDataRepo, times(1)).upsertSnapshots(any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testFailedFlushIsRetriedUnlessReplaced() {
+        doThrow(new DataAccessResourceFailureException("down")).doNothing()
+            .when(this.store.forecastDataRepo).upsertSnapshots(any());
+        Instant expiresAt = Instant.now().plusSeconds(600);
+        this.store.save(new Snapshot("DTX/65,33", Product.FORECAST, "daily", expiresAt));
+        this.store.save(new Snapshot("DTX/65,33", Product.FORECAST_HOURLY, "old", expiresAt));
+
+        assertDoesNotThrow(() -> this.store.flush());
+        this.store.save(new Snapshot("DTX/65,33", Product.FORECAST_HOURLY, "new", expiresAt));
+        this.store.flush();
+
+        ArgumentCaptor<Collection<ForecastDataEntity>> captor = ArgumentCaptor.forClass(Collection.class);
+        verify(this.store.forecastDataRepo, times(2)).upsertSnapshots(captor.capture());
+        assertEquals(2, captor.getValue().size());
+        assertTrue(captor.getValue().stream().anyMatch(entity -> entity.getResponse().equals("new")));
+        assertTrue(captor.getValue().stream().noneMatch(entity -> entity.getResponse().equals("old")));
+        assertEquals(0, this.store.getPendingCount());
+    }
+
+    @Test
+    public void testLatestAreReadBackAsSnapshots() {
+        LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+        when(this.store.forecastDataRepo.findSnapshotsExpiringAfter(any())).thenReturn(List.of(
+            entity("DTX/65,33", "forecast", "daily", now.plusMinutes(30)),
+            entity("DTX/65,33", "forecastHourly", "hourly", now.plusMinutes(60))));
+
+        List<Snapshot> latest = this.store.getLatest(Instant.now());
+
+        assertEquals(2, latest.size());
+        Snapshot hourly = latest.stream().filter(s -> s.product() == Product.FORECAST_HOURLY).findFirst().orElseThrow();
+        assertEquals("hourly", hourly.response());
+        assertEquals(now.plusMinutes(60).toInstant(ZoneOffset.UTC), hourly.expiresAt());
+    }
+
+    private static ForecastDataEntity entity(String gridKey, String type, String response, LocalDateTime expiresTime) {
+        ForecastDataEntity entity = new ForecastDataEntity();
+        entity.setGridKey(gridKey);
+        entity.setType(type);
+        entity.setResponse(response);
+        entity.setExpiresTime(expiresTime);
+        return entity;
+    }
+}
@@ -0,0 +1,143 @@
+package com.davidruffner.homecontrollerbackend.services;
+
+import com.davidruffner.homecontrollerbackend.HueGroupResponseDto.GetBulbsForGroupResponse;
+import com.davidruffner.homecontrollerbackend.config.HueConfig;
+import com.davidruffner.homecontrollerbackend.entities.LightBulbTrack;
+import com.davidruffner.homecontrollerbackend.entities.RGB;
+import com.davidruffner.homecontrollerbackend.events.HueTopologyChangedEvent;
+import com.davidruffner.homecontrollerbackend.events.LightStateChangedEvent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+public class GroupAggregateCacheTest {
+
+    private GroupAggregateCache cache;
+    private AtomicInteger loads;
+
+    @BeforeEach
+    public void setUp() {
+        this.cache = new GroupAggregateCache(new HueConfig(), Mockito.mock(HueStateRegistry.class));
+        this.loads = new AtomicInteger();
+    }
+
+    @Test
+    public void testResponseIsBuiltOnce() {
+        GetBulbsForGroupResponse first = this.cache.getResponse("group-1", this::load);
+        GetBulbsForGroupResponse second = this.cache.getResponse("group-1", this::load);
+
+        assertSame(first, second);
+        assertEquals(1, this.loads.get());
+        assertEquals(60d, first.brightness());
+        assertFalse(first.isMultiColor());
+    }
+
+    @Test
+    public void testMemberChangeUpdatesResponse() {
+        this.cache.getResponse("group-1", this::load);
+
+        // Members can be addressed by light or device ID
+        this.cache.onLightStateChanged(new LightStateChangedEvent("device-2", null, 100d,
+            new RGB(255d, 0d, 0d)));
+        this.cache.onLightStateChanged(new LightStateChangedEvent("light-1", false, null, null));
+
+        GetBulbsForGroupResponse response = this.cache.getResponse("group-1", this::load);
+        assertEquals(1, this.loads.get());
+        assertEquals(80d, response.brightness());
+        assertTrue(response.isMultiColor());
+        assertTrue(response.isGroupOn());
+        assertEquals("rgba(255.0, 0.0, 0.0, 1.0)", response.lightBulbs().get(1).getRGBAString());
+        assertFalse(response.lightBulbs().get(0).getIsOn());
+    }
+
+    @Test
+    public void testTopologyChangeDropsAggregates() {
+        this.cache.getResponse("group-1", this::load);
+        this.cache.onTopologyChanged(new HueTopologyChangedEvent("room"));
+        this.cache.getResponse("group-1", this::load);
+
+        assertEquals(2, this.loads.get());
+    }
+
+    @Test
+    public void testLoadOvertakenByAChangeIsNotKept() {
+        GetBulbsForGroupResponse first = this.cache.getResponse("group-1", groupId -> {
+            GetBulbsForGroupResponse loaded = load(groupId);
+            // Read from the bridge just before this change, so it's already out of date
+            this.cache.onLightStateChanged(new LightStateChangedEvent("light-1", false, null, null));
+            return loaded;
+        });
+        GetBulbsForGroupResponse second = this.cache.getResponse("group-1", this::load);
+
+        assertTrue(first.lightBulbs().get(0).getIsOn());
+        assertNotSame(first, second);
+        assertEquals(2, this.loads.get());
+    }
+
+    @Test
+    public void testConcurrentMissesShareOneLoad() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Function<String, GetBulbsForGroupResponse> slowLoad = groupId -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return load(groupId);
+        };
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            threads.add(Thread.ofVirtual().start(() -> this.cache.getResponse("group-1", slowLoad)));
+        }
+        Thread.sleep(50);
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, this.loads.get());
+    }
+
+    @Test
+    public void testSyncedAggregatesStillExpire() throws Exception {
+        when(this.cache.hueStateRegistry.isSynced()).thenReturn(true);
+        this.cache.hueConfig.getGroupAggregate().setSyncedTtl(Duration.ofMillis(20));
+
+        this.cache.getResponse("group-1", this::load);
+        Thread.sleep(40);
+        this.cache.getResponse("group-1", this::load);
+
+        assertEquals(2, this.loads.get());
+    }
+
+    private GetBulbsForGroupResponse load(String groupId) {
+        this.loads.incrementAndGet();
+        return GroupAggregateCache.buildResponse(groupId, "Kitchen",
+            List.of(track("light-1", "device-1", 60d), track("light-2", "device-2", 60d)));
+    }
+
+    private static LightBulbTrack track(String lightId, String deviceId, Double brightness) {
+        LightBulbTrack track = new LightBulbTrack();
+        track.setLightId(lightId);
+        track.setDeviceId(deviceId);
+        track.setName(lightId);
+        track.setBrightness(brightness);
+        track.setRed(100d);
+        track.setGreen(100d);
+        track.setBlue(100d);
+        track.setIsOn(true);
+        return track;
+    }
+}
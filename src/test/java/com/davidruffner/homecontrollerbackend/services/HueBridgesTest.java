@@ -0,0 +1,72 @@
+package com.davidruffner.homecontrollerbackend.services;
+
+import com.davidruffner.homecontrollerbackend.services.HueBridges.ResourceRead;
+import com.davidruffner.homecontrollerbackend.services.HueBridges.ResourceReads;
+import com.davidruffner.homecontrollerbackend.services.LightsService.DeviceDto;
+import com.davidruffner.homecontrollerbackend.services.LightsService.HueDevicesResponse;
+import com.davidruffner.homecontrollerbackend.services.LightsService.HueLightResponse;
+import com.davidruffner.homecontrollerbackend.services.LightsService.LightDto;
+import com.davidruffner.homecontrollerbackend.stubs.HueFixtures;
+import com.davidruffner.homecontrollerbackend.stubs.StubHueBridges;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.HttpServerErrorException;
+
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HueBridgesTest {
+
+    private static final ResourceRead<DeviceDto> DEVICES = new ResourceRead<>("device", HueDevicesResponse.class);
+    private static final ResourceRead<LightDto> LIGHTS = new ResourceRead<>("light", HueLightResponse.class);
+
+    private StubHueBridges bridges;
+    private HueCommandScheduler hueCommandScheduler;
+    private HueBridges hueBridges;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        this.bridges = StubHueBridges.start(2);
+        this.bridges.get(0).addBulb("a-device-0", "a-light-0", "Hall");
+        this.bridges.get(1).addBulb("b-device-0", "b-light-0", "Shed");
+        this.bridges.get(1).addBulb("b-device-1", "b-light-1", "Porch");
+
+        this.hueCommandScheduler = HueFixtures.scheduler(1000, 64);
+        this.hueBridges = this.bridges.hueBridges(HueFixtures.executor(true, 4), this.hueCommandScheduler);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        this.hueCommandScheduler.stop();
+        this.bridges.close();
+    }
+
+    @Test
+    public void testEachReadIsMergedAcrossBridges() {
+        ResourceReads reads = this.hueBridges.readAll("test", List.of(DEVICES, LIGHTS));
+
+        assertEquals(Set.of("a-device-0", "b-device-0", "b-device-1"),
+            reads.get(DEVICES).stream().map(DeviceDto::id).collect(Collectors.toSet()));
+        assertEquals(Set.of("a-light-0", "b-light-0", "b-light-1"),
+            reads.get(LIGHTS).stream().map(LightDto::id).collect(Collectors.toSet()));
+
+        // And what was read is remembered, so no bridge needs asking
+        this.bridges.resetRequestCount();
+        assertEquals("bridge-1", this.hueBridges.forResource("light", "b-light-1").id());
+        assertEquals(0, this.bridges.getRequestCount());
+    }
+
+    @Test
+    public void testOnlyNotFoundMeansABridgeDoesNotHaveIt() {
+        // The owner is busy, which says nothing about whether it has the light
+        this.bridges.get(1).failNext(1, 503);
+        assertThrows(HttpServerErrorException.class, () -> this.hueBridges.forResource("light", "b-light-0"));
+
+        assertEquals("bridge-1", this.hueBridges.forResource("light", "b-light-0").id());
+        assertThrows(IllegalArgumentException.class, () -> this.hueBridges.forResource("light", "nowhere-light"));
+    }
+}
@@ -0,0 +1,96 @@
+package com.davidruffner.homecontrollerbackend.services;
+
+import com.davidruffner.homecontrollerbackend.services.HueCommandScheduler.CommandClass;
+import com.davidruffner.homecontrollerbackend.services.HueCommandScheduler.CommandPriority;
+import com.davidruffner.homecontrollerbackend.stubs.HueFixtures;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HueCommandSchedulerTest {
+
+    private HueCommandScheduler scheduler;
+
+    @AfterEach
+    public void tearDown() {
+        this.scheduler.stop();
+    }
+
+    @Test
+    public void testCommandsAreRateLimited() throws Exception {
+        this.scheduler = HueFixtures.scheduler(20, 64);
+
+        // The first second's worth goes straight out, the next 10 need another half second
+        long start = System.nanoTime();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            threads.add(Thread.ofVirtual().start(() ->
+                this.scheduler.execute("bridge", CommandClass.LIGHT, CommandPriority.POWER, () -> true)));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue(elapsedMillis >= 400, "took " + elapsedMillis + "ms");
+    }
+
+    @Test
+    public void testPowerCommandsJumpTheQueue() throws Exception {
+        this.scheduler = HueFixtures.scheduler(5, 8);
+        for (int i = 0; i < 5; i++) {
+            this.scheduler.execute("bridge", CommandClass.LIGHT, CommandPriority.COLOR, () -> true);
+        }
+
+        List<CommandPriority> sent = new CopyOnWriteArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (CommandPriority priority : List.of(CommandPriority.COLOR, CommandPriority.BRIGHTNESS,
+            CommandPriority.POWER)) {
+
+            threads.add(Thread.ofVirtual().start(() ->
+                this.scheduler.execute("bridge", CommandClass.LIGHT, priority, () -> sent.add(priority))));
+            Thread.sleep(20);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(List.of(CommandPriority.POWER, CommandPriority.BRIGHTNESS, CommandPriority.COLOR), sent);
+    }
+
+    @Test
+    public void testFullQueueRejects() throws Exception {
+        this.scheduler = HueFixtures.scheduler(1, 1);
+        this.scheduler.execute("bridge", CommandClass.GROUPED_LIGHT, CommandPriority.POWER, () -> true);
+
+        // Waits for the next token, filling the only slot
+        Thread.ofVirtual().start(() -> {
+            try {
+                this.scheduler.execute("bridge", CommandClass.GROUPED_LIGHT, CommandPriority.POWER, () -> true);
+            } catch (RuntimeException ignored) {}
+        });
+        Thread.sleep(50);
+
+        assertThrows(RejectedExecutionException.class, () ->
+            this.scheduler.execute("bridge", CommandClass.GROUPED_LIGHT, CommandPriority.POWER, () -> true));
+    }
+
+    @Test
+    public void testEachBridgeHasItsOwnLimit() {
+        this.scheduler = HueFixtures.scheduler(1, 1);
+        this.scheduler.execute("bridge-a", CommandClass.GROUPED_LIGHT, CommandPriority.POWER, () -> true);
+
+        // bridge-a has used its token for this second, bridge-b hasn't
+        long start = System.nanoTime();
+        this.scheduler.execute("bridge-b", CommandClass.GROUPED_LIGHT, CommandPriority.POWER, () -> true);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue(elapsedMillis < 500, "took " + elapsedMillis + "ms");
+    }
+}
@@ -0,0 +1,193 @@
+package com.davidruffner.homecontrollerbackend.services;
+
+import com.davidruffner.homecontrollerbackend.config.HueConfig;
+import com.davidruffner.homecontrollerbackend.events.HueMetadataChangedEvent;
+import com.davidruffner.homecontrollerbackend.events.HueTopologyChangedEvent;
+import com.davidruffner.homecontrollerbackend.services.LightsService.LightDto;
+import com.davidruffner.homecontrollerbackend.stubs.HueFixtures;
+import com.davidruffner.homecontrollerbackend.stubs.StubHueBridge;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HueStateRegistryTest {
+
+    private StubHueBridge bridge;
+    private HueStateRegistry registry;
+    private final List<Object> events = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        this.bridge = StubHueBridge.withBulbs(3);
+        this.bridge.addRoom("room-1", "group-1", "Living Room", List.of("device-0", "device-1"));
+
+        HueConfig hueConfig = new HueConfig();
+        hueConfig.getEventStream().setInitialBackoff(Duration.ofMillis(20));
+        hueConfig.getEventStream().setMaxBackoff(Duration.ofMillis(100));
+
+        ParallelFetchExecutor parallelFetchExecutor = HueFixtures.executor(true, 4);
+        // Never used: with only one bridge, nothing has to be looked for
+        HueBridges hueBridges = this.bridge.hueBridges(parallelFetchExecutor,
+            Mockito.mock(HueCommandScheduler.class));
+        this.registry = new HueStateRegistry(hueBridges, hueConfig,
+            this.events::add, parallelFetchExecutor, new ColorConversionService());
+        this.registry.start();
+
+        waitFor(this.registry::isSynced);
+        this.events.clear();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        this.registry.stop();
+        this.bridge.close();
+    }
+
+    @Test
+    public void testSnapshotOnConnect() {
+        assertEquals(4, this.registry.getDevices().size());
+        assertEquals(3, this.registry.getLights().size());
+        assertEquals("Living Room", this.registry.getRoom("room-1").orElseThrow().metadata().name());
+        assertEquals("room-1", this.registry.getGroupedLight("group-1").orElseThrow().owner().rid());
+        assertEquals("light-1", this.registry.getLightForDevice("device-1").orElseThrow().id());
+    }
+
+    @Test
+    public void testUpdateEventMergesChangedFields() {
+        this.bridge.publishEvent("""
+            [{"type":"update","data":[{"id":"light-1","type":"light","on":{"on":false},
+              "dimming":{"brightness":12.5}}]}]
+            """.replace("\n", ""));
+
+        waitFor(() -> !lightById("light-1").on().on());
+
+        LightDto light = lightById("light-1");
+        assertEquals(12.5, light.dimming().brightness());
+        assertEquals("Bulb 1", light.metadata().name());
+        assertEquals(0.4573, light.color().xy().x());
+    }
+
+    @Test
+    public void testAddAndDeleteEvents() {
+        this.bridge.publishEvent("""
+            [{"type":"delete","data":[{"id":"light-2","type":"light"}]},
+             {"type":"add","data":[{"id":"light-7","type":"light","owner":{"rid":"device-7","rtype":"device"},
+              "metadata":{"name":"Bulb 7"},"on":{"on":true},"dimming":{"brightness":50.0},
+              "color":{"xy":{"x":0.3,"y":0.3}}}]}]
+            """.replace("\n", ""));
+
+        waitFor(() -> this.registry.getLightForDevice("device-7").isPresent());
+        assertTrue(this.registry.getLightForDevice("device-2").isEmpty());
+    }
+
+    @Test
+    public void testReconnectResyncsFromSnapshot() {
+        // Something changes on the bridge while we aren't listening
+        this.bridge.addBulb("device-9", "light-9", "Bulb 9");
+        this.bridge.dropEventStreamClients();
+
+        // Synced again once the snapshot is in, which is only after its changes have been published
+        waitFor(() -> this.bridge.getEventStreamConnections() == 2 && this.registry.isSynced());
+        assertTrue(this.registry.getLightForDevice("device-9").isPresent());
+    }
+
+    @Test
+    public void testReconnectWithNothingChangedIsNotATopologyChange() {
+        this.bridge.dropEventStreamClients();
+        waitFor(() -> this.bridge.getEventStreamConnections() == 2
+            && this.bridge.getConnectedEventStreamClients() == 1);
+
+        // Events on the new connection are only applied after its snapshot
+        this.bridge.publishEvent("""
+            [{"type":"update","data":[{"id":"light-1","type":"light","on":{"on":false}}]}]
+            """.strip());
+        waitFor(() -> !lightById("light-1").on().on());
+
+        assertEquals(List.of(), topologyChanges());
+    }
+
+    @Test
+    public void testReconnectAfterABulbWasAddedIsATopologyChange() {
+        this.bridge.addBulb("device-9", "light-9", "Bulb 9");
+        this.bridge.dropEventStreamClients();
+
+        waitFor(() -> this.registry.getLightForDevice("device-9").isPresent());
+        assertEquals(List.of("snapshot"), topologyChanges());
+    }
+
+    @Test
+    public void testOnlyUpdatesThatMoveLightsAreTopologyChanges() {
+        this.bridge.publishEvent("""
+            [{"type":"update","data":[{"id":"device-1","type":"device","metadata":{"name":"Lamp"}},
+              {"id":"room-1","type":"room","metadata":{"name":"Lounge"}}]},
+             {"type":"update","data":[{"id":"room-1","type":"room",
+              "children":[{"rid":"device-0","rtype":"device"}]}]}]
+            """.replace("\n", ""));
+
+        waitFor(() -> this.registry.getRoom("room-1").orElseThrow().children().size() == 1);
+        assertEquals(List.of("room"), topologyChanges());
+        // The renames are still raised, just not as topology changes
+        assertEquals(List.of("device", "room"), metadataChanges());
+    }
+
+    @Test
+    public void testReconnectAfterARenameIsAMetadataChange() {
+        this.bridge.publishEvent("""
+            [{"type":"update","data":[{"id":"room-1","type":"room","metadata":{"name":"Lounge"}}]}]
+            """.strip());
+        waitFor(() -> this.registry.getRoom("room-1").orElseThrow().metadata().name().equals("Lounge"));
+        this.events.clear();
+
+        // Renamed back while we aren't listening
+        this.bridge.dropEventStreamClients();
+        waitFor(() -> metadataChanges().contains("snapshot"));
+        assertEquals(List.of(), topologyChanges());
+        assertEquals("Living Room", this.registry.getRoom("room-1").orElseThrow().metadata().name());
+    }
+
+    private List<String> metadataChanges() {
+        return this.events.stream()
+            .filter(HueMetadataChangedEvent.class::isInstance)
+            .map(event -> ((HueMetadataChangedEvent) event).resourceType())
+            .toList();
+    }
+
+    private List<String> topologyChanges() {
+        return this.events.stream()
+            .filter(HueTopologyChangedEvent.class::isInstance)
+            .map(event -> ((HueTopologyChangedEvent) event).resourceType())
+            .toList();
+    }
+
+    private LightDto lightById(String lightId) {
+        return this.registry.getLights().stream()
+            .filter(light -> light.id().equals(lightId))
+            .findFirst()
+            .orElseThrow();
+    }
+
+    private static void waitFor(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Timed out waiting for condition");
+            }
+
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                fail("Interrupted");
+            }
+        }
+    }
+}
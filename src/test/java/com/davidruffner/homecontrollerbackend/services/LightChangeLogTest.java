@@ -0,0 +1,66 @@
+package com.davidruffner.homecontrollerbackend.services;
+
+import com.davidruffner.homecontrollerbackend.config.HueConfig;
+import com.davidruffner.homecontrollerbackend.events.HueTopologyChangedEvent;
+import com.davidruffner.homecontrollerbackend.events.LightStateChangedEvent;
+import com.davidruffner.homecontrollerbackend.services.LightChangeLog.LightChange;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LightChangeLogTest {
+
+    private LightChangeLog changeLog;
+
+    @BeforeEach
+    public void setUp() {
+        HueConfig hueConfig = new HueConfig();
+        hueConfig.getLightEvents().setHistorySize(3);
+        this.changeLog = new LightChangeLog(hueConfig);
+    }
+
+    @Test
+    public void testSinceReturnsOnlyNewerChanges() {
+        long start = this.changeLog.getLatestVersion();
+        change("light-1");
+        change("light-2");
+        change("light-3");
+
+        List<LightChange> changes = this.changeLog.since(start + 1).orElseThrow();
+
+        assertEquals(List.of("light-2", "light-3"), changes.stream().map(LightChange::id).toList());
+        assertEquals(start + 3, changes.getLast().version());
+        assertEquals(List.of(), this.changeLog.since(start + 3).orElseThrow());
+    }
+
+    @Test
+    public void testOverwrittenHistoryMeansResync() {
+        long start = this.changeLog.getLatestVersion();
+        for (int i = 0; i < 4; i++) {
+            change("light-" + i);
+        }
+
+        assertTrue(this.changeLog.since(start).isEmpty());
+        assertEquals(3, this.changeLog.since(start + 1).orElseThrow().size());
+        assertTrue(this.changeLog.since(start + 10).isEmpty());
+    }
+
+    @Test
+    public void testTopologyChangeDropsHistory() {
+        long start = this.changeLog.getLatestVersion();
+        change("light-1");
+
+        this.changeLog.onTopologyChanged(new HueTopologyChangedEvent("room"));
+
+        assertEquals(start + 2, this.changeLog.getLatestVersion());
+        assertTrue(this.changeLog.since(start + 1).isEmpty());
+        assertEquals(List.of(), this.changeLog.since(start + 2).orElseThrow());
+    }
+
+    private void change(String id) {
+        this.changeLog.onLightStateChanged(new LightStateChangedEvent(id, true, null, null));
+    }
+}
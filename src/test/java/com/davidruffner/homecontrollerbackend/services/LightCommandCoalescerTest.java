@@ -0,0 +1,100 @@
+package com.davidruffner.homecontrollerbackend.services;
+
+import com.davidruffner.homecontrollerbackend.services.ColorConversionService.RgbToXyDto;
+import com.davidruffner.homecontrollerbackend.services.LightCommandCoalescer.Target;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class LightCommandCoalescerTest {
+
+    private LightCommandCoalescer coalescer;
+    private LightsService lightsService;
+    private SimpleMeterRegistry meterRegistry;
+    private CountDownLatch release;
+
+    @BeforeEach
+    public void setUp() {
+        this.lightsService = Mockito.mock(LightsService.class);
+        when(this.lightsService.modifyLightState(anyString(), any(), any(), any())).thenReturn(true);
+        when(this.lightsService.modifyGroupState(anyString(), any(), any(), any())).thenReturn(true);
+        this.meterRegistry = new SimpleMeterRegistry();
+        this.release = new CountDownLatch(1);
+
+        this.coalescer = new LightCommandCoalescer(this.lightsService, this.meterRegistry);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        this.release.countDown();
+        this.coalescer.stop();
+    }
+
+    @Test
+    public void testLoneCommandIsSentStraightAway() {
+        this.coalescer.submit(Target.light("light-1"), 40d, null);
+
+        verify(this.lightsService, timeout(1000)).modifyLightState("light-1", null, 40d, null);
+        assertEquals(0, count("merged"));
+    }
+
+    @Test
+    public void testSliderBurstDuringASendOnlySendsLatestValue() {
+        // The first command is held at the bridge while the rest arrive
+        doAnswer(invocation -> this.release.await(5, TimeUnit.SECONDS)).doReturn(true)
+            .when(this.lightsService).modifyLightState(anyString(), any(), any(), any());
+
+        for (int i = 1; i <= 10; i++) {
+            this.coalescer.submit(Target.light("light-1"), i * 10d, null);
+        }
+        verify(this.lightsService, timeout(1000)).modifyLightState("light-1", null, 10d, null);
+        this.release.countDown();
+
+        verify(this.lightsService, timeout(1000)).modifyLightState("light-1", null, 100d, null);
+        verify(this.lightsService, after(200).times(2)).modifyLightState(anyString(), any(), any(), any());
+        assertEquals(8, count("merged"));
+        assertEquals(8, count("dropped"));
+    }
+
+    @Test
+    public void testWaitingBrightnessAndColourAreSentTogether() {
+        RgbToXyDto xy = new RgbToXyDto(0.3, 0.3);
+        doAnswer(invocation -> this.release.await(5, TimeUnit.SECONDS)).doReturn(true)
+            .when(this.lightsService).modifyGroupState(anyString(), any(), any(), any());
+
+        this.coalescer.submit(Target.group("group-1"), 20d, null);
+        this.coalescer.submit(Target.group("group-1"), 40d, null);
+        this.coalescer.submit(Target.group("group-1"), null, xy);
+        this.release.countDown();
+
+        verify(this.lightsService, timeout(1000)).modifyGroupState("group-1", null, 40d, xy);
+        verify(this.lightsService, after(200).times(2)).modifyGroupState(anyString(), any(), any(), any());
+        assertEquals(1, count("merged"));
+        assertEquals(0, count("dropped"));
+    }
+
+    @Test
+    public void testRejectedCommandIsCounted() {
+        when(this.lightsService.modifyLightState(anyString(), any(), any(), any())).thenReturn(false);
+
+        this.coalescer.submit(Target.light("light-1"), 40d, null);
+
+        verify(this.lightsService, timeout(1000)).modifyLightState("light-1", null, 40d, null);
+        verify(this.lightsService, after(200).times(1)).modifyLightState(anyString(), any(), any(), any());
+        assertEquals(1, count("failed"));
+    }
+
+    private double count(String outcome) {
+        return this.meterRegistry.get("hue.commands.coalesced").tag("outcome", outcome).counter().count();
+    }
+}
@@ -0,0 +1,156 @@
+package com.davidruffner.homecontrollerbackend.services;
+
+import com.davidruffner.homecontrollerbackend.HueGroupResponseDto.GetBulbsForGroupResponse;
+import com.davidruffner.homecontrollerbackend.config.HueConfig;
+import com.davidruffner.homecontrollerbackend.controllers.LightsController;
+import com.davidruffner.homecontrollerbackend.entities.LightBulbTrack;
+import com.davidruffner.homecontrollerbackend.events.LightStateChangedEvent;
+import com.davidruffner.homecontrollerbackend.repositories.LightBulbTrackRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+public class LightEventStreamTest {
+
+    private LightChangeLog changeLog;
+    private LightsService lightsService;
+    private CountDownLatch release;
+    private LightEventStream stream;
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    public void setUp() {
+        HueConfig hueConfig = new HueConfig();
+        hueConfig.getLightEvents().setHistorySize(4);
+        hueConfig.getLightEvents().setHeartbeat(Duration.ofMillis(100));
+        hueConfig.getLightEvents().setClientQueueSize(2);
+
+        this.changeLog = new LightChangeLog(hueConfig);
+
+        LightBulbTrack track = new LightBulbTrack();
+        track.setLightId("light-1");
+        track.setDeviceId("device-1");
+
+        LightBulbTrackRepository lightBulbTrackRepo = Mockito.mock(LightBulbTrackRepository.class);
+        when(lightBulbTrackRepo.findAllByIds(any())).thenReturn(List.of(track));
+
+        this.lightsService = Mockito.mock(LightsService.class);
+        this.release = new CountDownLatch(1);
+
+        this.stream = new LightEventStream(hueConfig, this.changeLog, this.lightsService, lightBulbTrackRepo);
+        this.stream.start();
+
+        LightsController controller = new LightsController(Mockito.mock(LightsService.class), lightBulbTrackRepo,
+            Mockito.mock(LightCommandCoalescer.class), Mockito.mock(LightStateWriteBuffer.class), this.stream,
+            this.changeLog, Mockito.mock(HueStateRegistry.class), Mockito.mock(FavoritesService.class));
+        this.mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        this.release.countDown();
+        this.stream.stop();
+    }
+
+    @Test
+    public void testSubscriberOnlyGetsItsOwnLights() throws Exception {
+        MockHttpServletResponse response = open("/lights/events?lightIds=light-1");
+
+        // Group commands raise changes by device ID, so those have to match too
+        this.changeLog.onLightStateChanged(new LightStateChangedEvent("light-2", true, null, null));
+        this.changeLog.onLightStateChanged(new LightStateChangedEvent("device-1", false, null, null));
+
+        String body = awaitContent(response, "\"id\":\"device-1\"");
+        assertFalse(body.contains("light-2"));
+        assertTrue(body.contains("\"isOn\":false"));
+    }
+
+    @Test
+    public void testResumeReplaysMissedChanges() throws Exception {
+        long seen = this.changeLog.getLatestVersion();
+        this.changeLog.onLightStateChanged(new LightStateChangedEvent("light-1", true, 20d, null));
+        this.changeLog.onLightStateChanged(new LightStateChangedEvent("light-1", true, 30d, null));
+
+        MockHttpServletResponse response = open("/lights/events?since=" + seen);
+
+        String body = awaitContent(response, "\"brightness\":30.0");
+        assertTrue(body.contains("id:" + (seen + 1)));
+        assertTrue(body.contains("\"brightness\":20.0"));
+    }
+
+    @Test
+    public void testClientTooFarBehindIsToldToResync() throws Exception {
+        long seen = this.changeLog.getLatestVersion();
+        for (int i = 0; i < 6; i++) {
+            this.changeLog.onLightStateChanged(new LightStateChangedEvent("light-1", true, (double) i, null));
+        }
+
+        MockHttpServletResponse response = open("/lights/events?since=" + seen);
+
+        // The data line is written last
+        String body = awaitContent(response, "\"version\":" + this.changeLog.getLatestVersion());
+        assertTrue(body.contains("event:resync"));
+    }
+
+    @Test
+    public void testIdleClientsGetHeartbeats() throws Exception {
+        MockHttpServletResponse response = open("/lights/events");
+
+        awaitContent(response, ":heartbeat");
+    }
+
+    @Test
+    public void testSlowClientIsClosedWithoutHoldingUpOthers() throws Exception {
+        // Stuck working out its group's members, so its queue fills up
+        when(this.lightsService.getBulbsForGroup("group-1")).thenAnswer(invocation -> {
+            this.release.await(5, TimeUnit.SECONDS);
+            return ResponseEntity.ok(new GetBulbsForGroupResponse(null, null, null, null, null, null, null,
+                List.of()));
+        });
+        open("/lights/events?groupIds=group-1");
+        MockHttpServletResponse response = open("/lights/events?lightIds=light-1");
+
+        // One at a time, so each is a separate batch
+        for (int i = 0; i < 4; i++) {
+            this.changeLog.onLightStateChanged(new LightStateChangedEvent("light-1", true, (double) i, null));
+            awaitContent(response, "\"brightness\":" + (double) i);
+        }
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (this.stream.getClientCount() > 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, this.stream.getClientCount());
+    }
+
+    private MockHttpServletResponse open(String uri) throws Exception {
+        return this.mockMvc.perform(get(uri)).andReturn().getResponse();
+    }
+
+    private static String awaitContent(MockHttpServletResponse response, String expected) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        String body = response.getContentAsString();
+        while (!body.contains(expected) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            body = response.getContentAsString();
+        }
+
+        assertTrue(body.contains(expected), body);
+        return body;
+    }
+}
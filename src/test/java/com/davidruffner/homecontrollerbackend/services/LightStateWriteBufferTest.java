@@ -0,0 +1,107 @@
+package com.davidruffner.homecontrollerbackend.services;
+
+import com.davidruffner.homecontrollerbackend.entities.LightBulbTrack;
+import com.davidruffner.homecontrollerbackend.entities.RGB;
+import com.davidruffner.homecontrollerbackend.repositories.LightBulbTrackRepository;
+import com.davidruffner.homecontrollerbackend.repositories.LightBulbTrackRepositoryCustom.LightStateUpdate;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class LightStateWriteBufferTest {
+
+    private LightStateWriteBuffer buffer;
+    private LightBulbTrackRepository repo;
+
+    @BeforeEach
+    public void setUp() {
+        this.repo = Mockito.mock(LightBulbTrackRepository.class);
+        this.buffer = new LightStateWriteBuffer(this.repo);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testChangesAreMergedIntoOneBatch() {
+        this.buffer.record(List.of("light-1"), true, null, null);
+        this.buffer.record(List.of("light-1"), null, 30d, null);
+        this.buffer.record(List.of("light-1"), null, 60d, new RGB(10d, 20d, 30d));
+        this.buffer.record(List.of("device-2", "device-3"), false, null, null);
+
+        this.buffer.flush();
+
+        ArgumentCaptor<List<LightStateUpdate>> captor = ArgumentCaptor.forClass(List.class);
+        verify(this.repo, times(1)).updateStates(captor.capture());
+        assertEquals(3, captor.getValue().size());
+        assertTrue(captor.getValue().contains(new LightStateUpdate("light-1", true, 60d, 10d, 20d, 30d)));
+        assertTrue(captor.getValue().contains(new LightStateUpdate("device-2", false, null, null, null, null)));
+        assertEquals(0, this.buffer.getPendingCount());
+
+        this.buffer.flush();
+        verify(this.repo, times(1)).updateStates(any());
+    }
+
+    @Test
+    public void testReadsSeeUnflushedChanges() {
+        this.buffer.record(List.of("device-1"), false, 25d, null);
+
+        LightBulbTrack overlaid = this.buffer.overlay(track());
+
+        assertFalse(overlaid.getIsOn());
+        assertEquals(25d, overlaid.getBrightness());
+        assertEquals(255d, overlaid.getRed());
+    }
+
+    @Test
+    public void testFailedFlushIsRetried() {
+        doThrow(new RuntimeException("db down")).when(this.repo).updateStates(any());
+        this.buffer.record(List.of("light-1"), null, 30d, null);
+        this.buffer.flush();
+
+        // A newer change made in between must win over the one being retried
+        this.buffer.record(List.of("light-1"), null, 90d, null);
+
+        assertEquals(1, this.buffer.getPendingCount());
+        assertEquals(90d, this.buffer.overlay(track()).getBrightness());
+    }
+
+    @Test
+    public void testChangesBeingWrittenAreStillSeen() {
+        List<Double> seenDuringWrite = new ArrayList<>();
+        doAnswer(invocation -> {
+            // Not committed yet, so the rows read from light_bulbs are still the old ones
+            seenDuringWrite.add(this.buffer.overlay(track()).getBrightness());
+            this.buffer.record(List.of("light-1"), false, null, null);
+            seenDuringWrite.add(this.buffer.overlay(track()).getBrightness());
+            return null;
+        }).when(this.repo).updateStates(any());
+
+        this.buffer.record(List.of("light-1"), null, 30d, null);
+        this.buffer.flush();
+
+        assertEquals(List.of(30d, 30d), seenDuringWrite);
+        // Only what came in during the write is left
+        assertEquals(80d, this.buffer.overlay(track()).getBrightness());
+        assertFalse(this.buffer.overlay(track()).getIsOn());
+    }
+
+    private static LightBulbTrack track() {
+        LightBulbTrack track = new LightBulbTrack();
+        track.setLightId("light-1");
+        track.setDeviceId("device-1");
+        track.setName("Bulb 1");
+        track.setBrightness(80d);
+        track.setRed(255d);
+        track.setGreen(255d);
+        track.setBlue(255d);
+        track.setIsOn(true);
+        return track;
+    }
+}
@@ -0,0 +1,105 @@
+package com.davidruffner.homecontrollerbackend.services;
+
+import com.davidruffner.homecontrollerbackend.config.HueConfig;
+import com.davidruffner.homecontrollerbackend.entities.LightBulb;
+import com.davidruffner.homecontrollerbackend.services.LightsService.HueDevicesResponse;
+import com.davidruffner.homecontrollerbackend.services.LightsService.HueLightResponse;
+import com.davidruffner.homecontrollerbackend.services.LightsService.LightDto;
+import com.davidruffner.homecontrollerbackend.stubs.HueFixtures;
+import com.davidruffner.homecontrollerbackend.stubs.StubHueBridge;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.web.client.RestClient;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-request latency of {@link LightsService#getAllLightBulbs()} against a local stub bridge,
+ * next to the old one-request-per-light fetch as a baseline.
+ *
+ * Run with: {@code mvn test-compile} and then the main method from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LightsServiceBenchmark {
+
+    @Param({"10", "40"})
+    int bulbCount;
+
+    // Round trip time added to every stub response, to approximate a real bridge on the LAN
+    @Param({"0", "5"})
+    long bridgeLatencyMillis;
+
+    // Whether independent reads (devices and lights) are fetched side by side or one after another
+    @Param({"true", "false"})
+    boolean parallelFetch;
+
+    private StubHueBridge bridge;
+    private RestClient restClient;
+    private LightsService lightsService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.bridge = StubHueBridge.withBulbs(this.bulbCount);
+        this.bridge.setLatencyMillis(this.bridgeLatencyMillis);
+        this.restClient = RestClient.builder()
+            .baseUrl(this.bridge.getBaseUrl())
+            .defaultHeader("hue-application-key", this.bridge.getApplicationKey())
+            .build();
+
+        ParallelFetchExecutor parallelFetchExecutor = HueFixtures.executor(this.parallelFetch, 4);
+        HueCommandScheduler hueCommandScheduler = HueFixtures.scheduler(1000, 64);
+        HueBridges hueBridges = this.bridge.hueBridges(parallelFetchExecutor, hueCommandScheduler);
+        this.lightsService = HueFixtures.lightsService(hueBridges, parallelFetchExecutor,
+            hueCommandScheduler, HueFixtures.unsyncedRegistry(hueBridges, parallelFetchExecutor,
+                event -> {}), event -> {}, new HueConfig());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.lightsService.hueCommandScheduler.stop();
+        this.bridge.close();
+    }
+
+    @Benchmark
+    public List<LightBulb> bulkFetch() {
+        return this.lightsService.getAllLightBulbs();
+    }
+
+    @Benchmark
+    public List<LightDto> perLightFetch() {
+        HueDevicesResponse devices = this.restClient
+            .get()
+            .uri("/clip/v2/resource/device")
+            .retrieve()
+            .body(HueDevicesResponse.class);
+
+        List<LightDto> lights = new ArrayList<>();
+        devices.data().forEach(device -> device.services().stream()
+            .filter(service -> service.rtype().equals("light"))
+            .findFirst()
+            .ifPresent(service -> lights.add(this.restClient
+                .get()
+                .uri("/clip/v2/resource/light/" + service.rid())
+                .retrieve()
+                .body(HueLightResponse.class)
+                .data().getFirst())));
+
+        return lights;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(LightsServiceBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}
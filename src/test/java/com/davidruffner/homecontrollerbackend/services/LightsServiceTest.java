@@ -0,0 +1,458 @@
+package com.davidruffner.homecontrollerbackend.services;
+
+import com.davidruffner.homecontrollerbackend.HueGroupResponseDto.GetBulbsForGroupResponse;
+import com.davidruffner.homecontrollerbackend.config.HueConfig;
+import com.davidruffner.homecontrollerbackend.entities.HueRoom;
+import com.davidruffner.homecontrollerbackend.entities.LightBulb;
+import com.davidruffner.homecontrollerbackend.entities.LightBulbTrack;
+import com.davidruffner.homecontrollerbackend.entities.RGB;
+import com.davidruffner.homecontrollerbackend.entities.SceneTarget;
+import com.davidruffner.homecontrollerbackend.enums.ColorGamut;
+import com.davidruffner.homecontrollerbackend.enums.ResponseCode;
+import com.davidruffner.homecontrollerbackend.events.HueTopologyChangedEvent;
+import com.davidruffner.homecontrollerbackend.events.LightStateChangedEvent;
+import com.davidruffner.homecontrollerbackend.exceptions.ControllerException;
+import com.davidruffner.homecontrollerbackend.repositories.LightBulbTrackRepositoryCustom.TrackDiff;
+import com.davidruffner.homecontrollerbackend.services.ColorConversionService.RgbToXyDto;
+import com.davidruffner.homecontrollerbackend.services.LightsService.HueRoomChildDTO;
+import com.davidruffner.homecontrollerbackend.services.LightsService.HueRoomDataDTO;
+import com.davidruffner.homecontrollerbackend.services.LightsService.HueRoomMetadataDTO;
+import com.davidruffner.homecontrollerbackend.services.LightsService.HueRoomServiceDTO;
+import com.davidruffner.homecontrollerbackend.services.LightsService.SceneTargetResult;
+import com.davidruffner.homecontrollerbackend.stubs.HueFixtures;
+import com.davidruffner.homecontrollerbackend.stubs.StubHueBridge;
+import com.davidruffner.homecontrollerbackend.stubs.StubHueBridges;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class LightsServiceTest {
+
+    private StubHueBridge bridge;
+    private ParallelFetchExecutor parallelFetchExecutor;
+    private HueConfig hueConfig;
+    private List<Object> events;
+    private LightsService lightsService;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        this.bridge = StubHueBridge.withBulbs(40);
+        this.parallelFetchExecutor = HueFixtures.executor(true, 4);
+        this.hueConfig = new HueConfig();
+        this.events = new CopyOnWriteArrayList<>();
+
+        HueCommandScheduler hueCommandScheduler = HueFixtures.scheduler(1000, 64);
+        HueBridges hueBridges = this.bridge.hueBridges(this.parallelFetchExecutor, hueCommandScheduler);
+        this.lightsService = lightsService(hueBridges, hueCommandScheduler,
+            HueFixtures.unsyncedRegistry(hueBridges, this.parallelFetchExecutor, event -> {}));
+    }
+
+    private LightsService lightsService(HueBridges hueBridges, HueCommandScheduler hueCommandScheduler,
+        HueStateRegistry hueStateRegistry) {
+
+        return HueFixtures.lightsService(hueBridges, this.parallelFetchExecutor, hueCommandScheduler,
+            hueStateRegistry, this.events::add, this.hueConfig);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        this.lightsService.hueCommandScheduler.stop();
+        this.bridge.close();
+    }
+
+    @Test
+    public void testGetAllLightBulbsFetchesInTwoRequests() {
+        List<LightBulb> lightBulbs = this.lightsService.getAllLightBulbs();
+
+        assertEquals(40, lightBulbs.size());
+        assertEquals(2, this.bridge.getRequestCount());
+    }
+
+    @Test
+    public void testGetBulbsForGroupReadsFromSyncedRegistry() throws Exception {
+        this.bridge.addRoom("room-1", "group-1", "Kitchen", List.of("device-0", "device-1"));
+
+        HueStateRegistry registry = HueFixtures.registry(this.lightsService.hueBridges,
+            this.parallelFetchExecutor, event -> {});
+        useRegistry(registry);
+
+        try {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!registry.isSynced() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            this.bridge.resetRequestCount();
+
+            GetBulbsForGroupResponse response = this.lightsService.getBulbsForGroup("group-1").getBody();
+
+            assertEquals("Kitchen", response.roomName());
+            assertEquals(2, response.lightBulbs().size());
+            assertEquals(0, this.bridge.getRequestCount());
+        } finally {
+            registry.stop();
+        }
+    }
+
+    @Test
+    public void testSyncedReadsOnlyReconcileTracksAfterATopologyChange() throws Exception {
+        HueStateRegistry registry = HueFixtures.registry(this.lightsService.hueBridges,
+            this.parallelFetchExecutor, event -> {});
+        useRegistry(registry);
+
+        try {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!registry.isSynced() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            this.lightsService.getAllLightBulbs();
+            this.lightsService.getLightBulbsMappedByRoom();
+            verify(this.lightsService.lightBulbTrackRepo, times(1)).syncAll(any());
+
+            this.lightsService.onTopologyChanged(new HueTopologyChangedEvent("light"));
+            this.lightsService.getAllLightBulbs();
+            this.lightsService.getAllLightBulbs();
+            verify(this.lightsService.lightBulbTrackRepo, times(2)).syncAll(any());
+        } finally {
+            registry.stop();
+        }
+    }
+
+    @Test
+    public void testGetAllLightBulbsJoinsLightsToDevices() {
+        List<LightBulb> lightBulbs = this.lightsService.getAllLightBulbs();
+
+        lightBulbs.forEach(bulb -> {
+            String index = bulb.getDeviceId().substring("device-".length());
+            assertEquals("light-" + index, bulb.getLightId());
+            assertEquals("Bulb " + index, bulb.getName());
+        });
+    }
+
+    @Test
+    public void testChangesFoundByReadsArePublishedWhileUnsynced() {
+        when(this.lightsService.lightBulbTrackRepo.syncAll(any()))
+            .thenReturn(new TrackDiff(List.of(track("light-3", "device-3")), List.of("light-99")));
+
+        this.lightsService.getAllLightBulbs();
+
+        assertEquals(2, this.events.size());
+        assertEquals("light-3", ((LightStateChangedEvent) this.events.get(0)).id());
+        assertTrue(this.events.get(1) instanceof HueTopologyChangedEvent);
+    }
+
+    @Test
+    public void testOptimisticToggleIsCorrectedToWhatTheBridgeReports() throws Exception {
+        this.hueConfig.getOptimistic().setEnabled(true);
+        // Commands to the stub never change its state, so it keeps reporting light-1 as on
+        this.bridge.setLatencyMillis(50);
+
+        assertTrue(this.lightsService.toggleLight("light-1", false));
+        assertFalse(cachedIsOn("light-1", "device-1"));
+
+        awaitCachedIsOn("light-1", "device-1", true);
+    }
+
+    @Test
+    public void testFailedOptimisticToggleIsRolledBack() throws Exception {
+        this.hueConfig.getOptimistic().setEnabled(true);
+        LightBulbTrack off = track("missing-light", "missing-device");
+        off.setIsOn(false);
+        when(this.lightsService.lightBulbTrackRepo.findAllByIds(any())).thenReturn(List.of(off));
+
+        assertTrue(this.lightsService.toggleLight("missing-light", true));
+
+        awaitCachedIsOn("missing-light", "missing-device", false);
+    }
+
+    @Test
+    public void testFailedToggleIsOnlyRolledBackToAKnownEarlierState() {
+        // Already on, so turning it on changed nothing that needs undoing
+        assertEquals(0, this.lightsService.reconcileToggle(List.of("missing-light"), true, false,
+            Map.of("missing-light", true)));
+        // Nothing known about it before, so nothing to put back
+        assertEquals(0, this.lightsService.reconcileToggle(List.of("missing-light"), true, false, Map.of()));
+        assertEquals(0, this.lightsService.lightStateWriteBuffer.getPendingCount());
+
+        assertEquals(1, this.lightsService.reconcileToggle(List.of("missing-light"), true, false,
+            Map.of("missing-light", false)));
+        assertFalse(cachedIsOn("missing-light", "missing-device"));
+    }
+
+    @Test
+    public void testSchedulerStaysUnderTheBridgesRateLimit() throws Exception {
+        // Requests arrive bunched up while the client is still warming up, so get that out of the way
+        this.lightsService.getAllLightBulbs();
+
+        // A little under the bridge's rate, as requests don't arrive quite as evenly as they're sent
+        this.bridge.setRateLimits(10, 1);
+        this.lightsService.hueCommandScheduler.stop();
+        this.lightsService = lightsService(this.lightsService.hueBridges, HueFixtures.scheduler(8, 64),
+            this.lightsService.hueStateRegistry);
+
+        List<Thread> threads = new ArrayList<>();
+        List<Boolean> statuses = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < 15; i++) {
+            String lightId = "light-" + i;
+            threads.add(Thread.ofVirtual().start(() ->
+                statuses.add(this.lightsService.modifyLightBrightness(lightId, 50d))));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(15, statuses.size());
+        assertEquals(0, this.bridge.getThrottledCount());
+        assertTrue(statuses.stream().allMatch(Boolean::booleanValue));
+    }
+
+    @Test
+    public void testBridgeErrorsAreReportedAsFailures() {
+        this.bridge.failNext(1, 503);
+
+        assertFalse(this.lightsService.toggleLight("light-1", false));
+        assertTrue(this.lightsService.toggleLight("light-1", false));
+        assertEquals(1, this.bridge.getInjectedErrorCount());
+    }
+
+    @Test
+    public void testUnknownGroupIsNotFound() {
+        this.bridge.addRoom("room-1", "group-1", "Kitchen", List.of("device-0", "device-1"));
+
+        ControllerException ex = assertThrows(ControllerException.class, () ->
+            this.lightsService.toggleLightGroup("group-9", true));
+        assertEquals(ResponseCode.NOT_FOUND, ex.getResponseCode());
+        assertFalse(this.lightsService.modifyGroupState("group-9", null, 50d, null));
+
+        // Just the one room lookup, and no commands
+        assertEquals(1, this.bridge.getRequestCount());
+    }
+
+    @Test
+    public void testRoomsAreMergedAcrossBridgesAndCommandsGoToTheOwner() throws Exception {
+        try (StubHueBridges bridges = StubHueBridges.start(2)) {
+            bridges.get(0).addBulb("a-device-0", "a-light-0", "Hall");
+            bridges.get(0).addRoom("a-room", "a-group", "Hallway", List.of("a-device-0"));
+            bridges.get(1).addBulb("b-device-0", "b-light-0", "Shed");
+            bridges.get(1).addRoom("b-room", "b-group", "Garden", List.of("b-device-0"));
+            useBridges(bridges.hueBridges(this.parallelFetchExecutor, this.lightsService.hueCommandScheduler));
+
+            Map<String, HueRoom> rooms = this.lightsService.getLightBulbsMappedByRoom();
+
+            assertEquals(Set.of("a-room", "b-room"), rooms.keySet());
+            assertEquals("b-light-0", rooms.get("b-room").getLightBulbs().getFirst().getLightId());
+
+            // Each bridge only takes its own key, so a command sent to the wrong one would fail
+            assertTrue(this.lightsService.toggleLight("b-light-0", false));
+            assertNull(bridges.get(0).getLastPutBody());
+            assertTrue(this.lightsService.toggleLightGroup("a-group", false).status());
+            assertEquals(Map.of("on", Map.of("on", false)), bridges.get(0).getLastPutBody());
+        }
+    }
+
+    @Test
+    public void testUnseenIdIsFoundByAskingEachBridge() throws Exception {
+        try (StubHueBridges bridges = StubHueBridges.start(3)) {
+            bridges.get(2).addBulb("c-device-0", "c-light-0", "Porch");
+            useBridges(bridges.hueBridges(this.parallelFetchExecutor, this.lightsService.hueCommandScheduler));
+
+            assertTrue(this.lightsService.modifyLightBrightness("c-light-0", 40d));
+            assertEquals(Map.of("dimming", Map.of("brightness", 40.0)), bridges.get(2).getLastPutBody());
+
+            // Remembered from then on
+            bridges.resetRequestCount();
+            assertTrue(this.lightsService.modifyLightBrightness("c-light-0", 60d));
+            assertEquals(1, bridges.getRequestCount());
+
+            assertFalse(this.lightsService.modifyLightBrightness("nowhere-light", 60d));
+        }
+    }
+
+    private void useBridges(HueBridges hueBridges) {
+        this.lightsService = lightsService(hueBridges, this.lightsService.hueCommandScheduler,
+            this.lightsService.hueStateRegistry);
+    }
+
+    private void useRegistry(HueStateRegistry hueStateRegistry) {
+        this.lightsService = lightsService(this.lightsService.hueBridges, this.lightsService.hueCommandScheduler,
+            hueStateRegistry);
+    }
+
+    private boolean cachedIsOn(String lightId, String deviceId) {
+        return this.lightsService.lightStateWriteBuffer.overlay(track(lightId, deviceId)).getIsOn();
+    }
+
+    private void awaitCachedIsOn(String lightId, String deviceId, boolean expected) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (cachedIsOn(lightId, deviceId) != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(expected, cachedIsOn(lightId, deviceId));
+    }
+
+    @Test
+    public void testModifyLightStateSendsOneRequest() {
+        boolean status = this.lightsService.modifyLightState("light-1", true, 40d,
+            new RgbToXyDto(0.3, 0.3));
+
+        assertTrue(status);
+        assertEquals(1, this.bridge.getRequestCount());
+        assertEquals(Set.of("on", "dimming", "color"), this.bridge.getLastPutBody().keySet());
+
+        LightBulbTrack cached = this.lightsService.lightStateWriteBuffer.overlay(track("light-1", "device-1"));
+        assertTrue(cached.getIsOn());
+        assertEquals(40d, cached.getBrightness());
+        assertEquals(1, this.lightsService.lightStateWriteBuffer.getPendingCount());
+    }
+
+    @Test
+    public void testModifyLightColorClampsToTheLightsGamut() {
+        this.lightsService.getAllLightBulbs();
+        assertEquals(ColorGamut.C, this.lightsService.getGamut("light-1"));
+        assertEquals(ColorGamut.C, this.lightsService.getGamut("device-1"));
+
+        // Well past gamut C's red corner
+        assertTrue(this.lightsService.modifyLightColor("light-1", new RgbToXyDto(0.8, 0.25)));
+
+        Map<String, Object> xy = (Map<String, Object>) ((Map<String, Object>) this.bridge.getLastPutBody()
+            .get("color")).get("xy");
+        assertEquals(0.6915, (Double) xy.get("x"), 0.01);
+        assertEquals(0.3083, (Double) xy.get("y"), 0.01);
+    }
+
+    @Test
+    public void testGroupColorCachesWhatEachLightShows() {
+        this.bridge.addRoom("room-1", "group-1", "Kitchen", List.of("device-0", "device-1"));
+        this.lightsService.getAllLightBulbs();
+
+        // Past gamut C's red corner, so each light shows the clamped colour instead
+        assertTrue(this.lightsService.modifyGroupColor("group-1", new RgbToXyDto(0.8, 0.25)));
+
+        RGB shown = new ColorConversionService().xyToRGB(0.6915, 0.3083, 1d);
+        LightBulbTrack cached = this.lightsService.lightStateWriteBuffer.overlay(track("light-1", "device-1"));
+        assertEquals(shown.getRed(), cached.getRed(), 2);
+        assertEquals(shown.getGreen(), cached.getGreen(), 2);
+        assertEquals(shown.getBlue(), cached.getBlue(), 2);
+    }
+
+    @Test
+    public void testApplySceneSendsEveryTargetAndReportsEach() {
+        this.bridge.addRoom("room-1", "group-1", "Kitchen", List.of("device-0", "device-1"));
+        this.bridge.resetRequestCount();
+
+        List<SceneTargetResult> results = this.lightsService.applyScene(List.of(
+            sceneTarget("light-2", null, false, null),
+            sceneTarget(null, "group-1", true, 25d),
+            sceneTarget("missing-light", null, true, null)));
+
+        assertEquals(List.of(
+            new SceneTargetResult("light-2", null, true),
+            new SceneTargetResult(null, "group-1", true),
+            new SceneTargetResult("missing-light", null, false)), results);
+
+        // Three commands plus the room lookup for the group's cached state
+        assertEquals(4, this.bridge.getRequestCount());
+        assertFalse(this.lightsService.lightStateWriteBuffer.overlay(track("light-2", "device-2")).getIsOn());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testApplySceneSendsTheSavedColourAsItIs() {
+        this.lightsService.getAllLightBulbs();
+        this.bridge.resetRequestCount();
+
+        // Clamped when the scene was saved, so it isn't looked at again
+        List<SceneTargetResult> results = this.lightsService.applyScene(List.of(
+            sceneTarget("light-1", null, null, null)));
+
+        assertTrue(results.getFirst().status());
+        Map<String, Object> xy = (Map<String, Object>) ((Map<String, Object>) this.bridge.getLastPutBody()
+            .get("color")).get("xy");
+        assertEquals(0.3, xy.get("x"));
+        assertEquals(0.3, xy.get("y"));
+        assertEquals(1, this.bridge.getRequestCount());
+
+        LightBulbTrack cached = this.lightsService.lightStateWriteBuffer.overlay(track("light-1", "device-1"));
+        assertEquals(new RGB(200d, 180d, 255d), new RGB(cached.getRed(), cached.getGreen(), cached.getBlue()));
+    }
+
+    @Test
+    public void testGetBulbsForGroupLoadsCachedBulbsInOneQuery() {
+        this.bridge.addRoom("room-1", "group-1", "Kitchen", List.of("device-0", "device-1"));
+        when(this.lightsService.lightBulbTrackRepo.findAllByIds(List.of("device-0", "device-1")))
+            .thenReturn(List.of(track("light-1", "device-1"), track("light-0", "device-0")));
+
+        GetBulbsForGroupResponse response = this.lightsService.getBulbsForGroup("group-1").getBody();
+
+        assertEquals(List.of("light-0", "light-1"), response.lightBulbs().stream()
+            .map(LightBulbTrack::getLightId).toList());
+        verify(this.lightsService.lightBulbTrackRepo).findAllByIds(any());
+        verify(this.lightsService.lightBulbTrackRepo, never()).getCachedBulb(any());
+    }
+
+    @Test
+    public void testMapBulbsToRooms() {
+        List<HueRoomDataDTO> rooms = List.of(
+            new HueRoomDataDTO("room-1",
+                List.of(new HueRoomServiceDTO("group-1", "grouped_light")),
+                List.of(new HueRoomChildDTO("device-0", "device"), new HueRoomChildDTO("device-9", "device")),
+                new HueRoomMetadataDTO("Kitchen")),
+            new HueRoomDataDTO("room-2",
+                List.of(),
+                List.of(new HueRoomChildDTO("device-1", "device")),
+                new HueRoomMetadataDTO("Office")));
+        List<LightBulb> lightBulbs = List.of(new LightBulb("device-0", "light-0"),
+            new LightBulb("device-1", "light-1"));
+
+        Map<String, HueRoom> mapped = LightsService.mapBulbsToRooms(rooms, lightBulbs);
+
+        assertEquals("group-1", mapped.get("room-1").getGroupToggleId());
+        assertEquals(List.of("light-0"), mapped.get("room-1").getLightBulbs().stream()
+            .map(LightBulb::getLightId).toList());
+        assertNull(mapped.get("room-2").getGroupToggleId());
+        assertEquals(1, mapped.get("room-2").getLightBulbs().size());
+    }
+
+    private static SceneTarget sceneTarget(String lightId, String groupId, Boolean on, Double brightness) {
+        SceneTarget target = new SceneTarget();
+        target.setLightId(lightId);
+        target.setGroupId(groupId);
+        target.setIsOn(on);
+        target.setBrightness(brightness);
+        target.setColorX(0.3);
+        target.setColorY(0.3);
+        target.setColorFromRGB(new RGB(200d, 180d, 255d));
+        return target;
+    }
+
+    private static LightBulbTrack track(String lightId, String deviceId) {
+        LightBulbTrack track = new LightBulbTrack();
+        track.setLightId(lightId);
+        track.setDeviceId(deviceId);
+        track.setName(lightId);
+        track.setBrightness(80d);
+        track.setRed(255d);
+        track.setGreen(200d);
+        track.setBlue(100d);
+        track.setIsOn(true);
+        return track;
+    }
+}
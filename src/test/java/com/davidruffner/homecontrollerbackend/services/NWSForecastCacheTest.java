@@ -0,0 +1,166 @@
+package com.davidruffner.homecontrollerbackend.services;
+
+import com.davidruffner.homecontrollerbackend.config.WeatherConfig;
+import com.davidruffner.homecontrollerbackend.entities.NWSGridpoint;
+import com.davidruffner.homecontrollerbackend.services.ForecastSnapshotStore.Snapshot;
+import com.davidruffner.homecontrollerbackend.services.NWSForecastCache.Product;
+import com.davidruffner.homecontrollerbackend.services.WeatherService.NWSHourlyResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestClient;
+import tools.jackson.databind.DeserializationFeature;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.client.ExpectedCount.times;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+public class NWSForecastCacheTest {
+
+    private static final String HOURLY_RESPONSE = """
+        {"properties": {"periods": [{
+            "number": 1, "startTime": "2026-10-18T10:00:00-04:00", "endTime": "2026-10-18T11:00:00-04:00",
+            "isDaytime": true, "temperature": 52, "temperatureUnit": "F",
+            "probabilityOfPrecipitation": {"unitCode": "wmoUnit:percent", "value": 10},
+            "relativeHumidity": {"unitCode": "wmoUnit:percent", "value": 70},
+            "windSpeed": "5 mph", "windDirection": "SW", "shortForecast": "Sunny"
+        }]}}
+        """;
+
+    private MockRestServiceServer nws;
+    private NWSForecastCache cache;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    public void setUp() {
+        RestClient.Builder builder = RestClient.builder().baseUrl("https://api.weather.gov");
+        this.nws = MockRestServiceServer.bindTo(builder).build();
+        this.meterRegistry = new SimpleMeterRegistry();
+
+        this.cache = new NWSForecastCache();
+        this.cache.nwsRestController = builder.build();
+        this.cache.nwsGridpointCache = Mockito.mock(NWSGridpointCache.class);
+        this.cache.weatherConfig = new WeatherConfig();
+        this.cache.jsonMapper = JsonMapper.builder()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+            .build();
+        this.cache.meterRegistry = this.meterRegistry;
+        this.cache.forecastSnapshotStore = Mockito.mock(ForecastSnapshotStore.class);
+
+        when(this.cache.nwsGridpointCache.get("42.3314", "-83.0457")).thenReturn(new NWSGridpoint(
+            "42.3314,-83.0457", "DTX", 65, 33, "/gridpoints/DTX/65,33/forecast",
+            "/gridpoints/DTX/65,33/forecast/hourly", LocalDateTime.now()));
+    }
+
+    @Test
+    public void testGridpointIsFetchedOnceUntilItExpires() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setCacheControl("public, max-age=600");
+        this.nws.expect(times(1), requestTo("https://api.weather.gov/gridpoints/DTX/65,33/forecast/hourly"))
+            .andRespond(withSuccess(HOURLY_RESPONSE, MediaType.APPLICATION_JSON).headers(headers));
+
+        NWSHourlyResponse first = this.cache.getHourlyForecast("42.3314", "-83.0457");
+        NWSHourlyResponse second = this.cache.getHourlyForecast("42.3314", "-83.0457");
+
+        this.nws.verify();
+        assertEquals(52, second.properties().periods().getFirst().getTemperatureInt());
+        // Each caller gets its own copy to fill in
+        assertNotSame(first.properties().periods().getFirst(), second.properties().periods().getFirst());
+        assertEquals(1, this.meterRegistry.get("nws.forecast.cache").tag("result", "miss").counter().count());
+        assertEquals(1, this.meterRegistry.get("nws.forecast.cache").tag("result", "hit").counter().count());
+        verify(this.cache.forecastSnapshotStore).save(any());
+    }
+
+    @Test
+    public void testStartsFromSavedSnapshots() {
+        when(this.cache.forecastSnapshotStore.getLatest(any())).thenReturn(List.of(new Snapshot("DTX/65,33",
+            Product.FORECAST_HOURLY, HOURLY_RESPONSE, Instant.now().plusSeconds(600))));
+
+        this.cache.warm();
+        NWSHourlyResponse response = this.cache.getHourlyForecast("42.3314", "-83.0457");
+
+        this.nws.verify();
+        assertEquals(52, response.properties().periods().getFirst().getTemperatureInt());
+    }
+
+    @Test
+    public void testExpiredForecastIsServedWhileItRefreshes() throws Exception {
+        this.cache.weatherConfig.getForecasts().setMinTtl(Duration.ZERO);
+        HttpHeaders expired = new HttpHeaders();
+        expired.setCacheControl("max-age=0");
+        this.nws.expect(requestTo("https://api.weather.gov/gridpoints/DTX/65,33/forecast/hourly"))
+            .andRespond(withSuccess(HOURLY_RESPONSE, MediaType.APPLICATION_JSON).headers(expired));
+        this.nws.expect(requestTo("https://api.weather.gov/gridpoints/DTX/65,33/forecast/hourly"))
+            .andRespond(withSuccess(HOURLY_RESPONSE.replace("\"temperature\": 52", "\"temperature\": 60"),
+                MediaType.APPLICATION_JSON));
+
+        this.cache.getHourlyForecast("42.3314", "-83.0457");
+        NWSHourlyResponse stale = this.cache.getHourlyForecast("42.3314", "-83.0457");
+        assertEquals(52, stale.properties().periods().getFirst().getTemperatureInt());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (this.cache.getHourlyForecast("42.3314", "-83.0457").properties().periods().getFirst()
+            .getTemperatureInt() != 60) {
+
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for the refresh");
+            Thread.sleep(10);
+        }
+        this.nws.verify();
+        // The reads while waiting may have been stale too
+        assertTrue(this.meterRegistry.get("nws.forecast.cache").tag("result", "stale").counter().count() >= 1);
+    }
+
+    @Test
+    public void testRefreshIfExpiringOnlyFetchesWhatIsAboutToExpire() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setCacheControl("max-age=60");
+        this.nws.expect(times(2), requestTo("https://api.weather.gov/gridpoints/DTX/65,33/forecast/hourly"))
+            .andRespond(withSuccess(HOURLY_RESPONSE, MediaType.APPLICATION_JSON).headers(headers));
+
+        assertTrue(this.cache.refreshIfExpiring("42.3314", "-83.0457", Product.FORECAST_HOURLY, Duration.ZERO));
+        assertFalse(this.cache.refreshIfExpiring("42.3314", "-83.0457", Product.FORECAST_HOURLY, Duration.ZERO));
+        assertTrue(this.cache.refreshIfExpiring("42.3314", "-83.0457", Product.FORECAST_HOURLY,
+            Duration.ofMinutes(2)));
+
+        this.nws.verify();
+        // Replaced before it expired, so nobody was kept waiting
+        assertEquals(0, this.meterRegistry.get("nws.forecast.refresh.lag").timer().totalTime(TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testTtlFollowsNWSHeaders() {
+        // Expires only goes to the second
+        Instant now = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+
+        HttpHeaders maxAge = new HttpHeaders();
+        maxAge.setCacheControl("public, max-age=900");
+        maxAge.set(HttpHeaders.AGE, "300");
+        assertEquals(Duration.ofMinutes(10), this.cache.ttlOf(maxAge, now));
+
+        HttpHeaders expires = new HttpHeaders();
+        expires.setExpires(now.plusSeconds(1200));
+        assertEquals(Duration.ofMinutes(20), this.cache.ttlOf(expires, now));
+
+        HttpHeaders noCache = new HttpHeaders();
+        noCache.setCacheControl("max-age=0");
+        assertEquals(Duration.ofSeconds(30), this.cache.ttlOf(noCache, now));
+
+        assertEquals(Duration.ofMinutes(15), this.cache.ttlOf(new HttpHeaders(), now));
+    }
+}
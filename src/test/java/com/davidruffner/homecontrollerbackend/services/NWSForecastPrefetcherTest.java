@@ -0,0 +1,72 @@
+package com.davidruffner.homecontrollerbackend.services;
+
+import com.davidruffner.homecontrollerbackend.config.WeatherConfig;
+import com.davidruffner.homecontrollerbackend.repositories.UserSettingsRepository;
+import com.davidruffner.homecontrollerbackend.repositories.UserSettingsRepository.UserLocation;
+import com.davidruffner.homecontrollerbackend.services.NWSForecastCache.Product;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class NWSForecastPrefetcherTest {
+
+    private NWSForecastPrefetcher prefetcher;
+
+    @BeforeEach
+    public void setUp() {
+        this.prefetcher = new NWSForecastPrefetcher();
+        this.prefetcher.userSettingsRepo = Mockito.mock(UserSettingsRepository.class);
+        this.prefetcher.nwsForecastCache = Mockito.mock(NWSForecastCache.class);
+        this.prefetcher.weatherConfig = new WeatherConfig();
+        this.prefetcher.weatherConfig.getPrefetch().setJitter(Duration.ofMillis(20));
+
+        when(this.prefetcher.userSettingsRepo.getDistinctLocations()).thenReturn(List.of(
+            location("42.331427", "-83.045754"), location("42.963795", "-85.670006")));
+    }
+
+    @Test
+    public void testEveryLocationIsRefreshedEvenIfOneFails() {
+        when(this.prefetcher.nwsForecastCache.refreshIfExpiring(eq("42.331427"), any(), any(), any()))
+            .thenThrow(new IllegalStateException("NWS said 503"));
+
+        this.prefetcher.prefetch();
+
+        Duration refreshAhead = this.prefetcher.weatherConfig.getPrefetch().getRefreshAhead();
+        for (Product product : Product.values()) {
+            verify(this.prefetcher.nwsForecastCache).refreshIfExpiring("42.331427", "-83.045754", product,
+                refreshAhead);
+            verify(this.prefetcher.nwsForecastCache).refreshIfExpiring("42.963795", "-85.670006", product,
+                refreshAhead);
+        }
+    }
+
+    @Test
+    public void testNothingIsFetchedWhenDisabled() {
+        this.prefetcher.weatherConfig.getPrefetch().setEnabled(false);
+
+        this.prefetcher.prefetch();
+
+        verifyNoInteractions(this.prefetcher.nwsForecastCache);
+    }
+
+    private static UserLocation location(String lat, String lon) {
+        return new UserLocation() {
+            @Override
+            public String getLat() {
+                return lat;
+            }
+
+            @Override
+            public String getLon() {
+                return lon;
+            }
+        };
+    }
+}
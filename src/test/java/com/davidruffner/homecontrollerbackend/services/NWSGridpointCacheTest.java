@@ -0,0 +1,104 @@
+package com.davidruffner.homecontrollerbackend.services;
+
+import com.davidruffner.homecontrollerbackend.config.WeatherConfig;
+import com.davidruffner.homecontrollerbackend.entities.NWSGridpoint;
+import com.davidruffner.homecontrollerbackend.repositories.NWSGridpointRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestClient;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withServerError;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+public class NWSGridpointCacheTest {
+
+    private static final String POINTS_RESPONSE = """
+        {"properties": {
+            "gridId": "DTX", "gridX": 65, "gridY": 33,
+            "forecast": "https://api.weather.gov/gridpoints/DTX/65,33/forecast",
+            "forecastHourly": "https://api.weather.gov/gridpoints/DTX/65,33/forecast/hourly"
+        }}
+        """;
+
+    private MockRestServiceServer nws;
+    private NWSGridpointCache cache;
+
+    @BeforeEach
+    public void setUp() {
+        RestClient.Builder builder = RestClient.builder().baseUrl("https://api.weather.gov");
+        this.nws = MockRestServiceServer.bindTo(builder).build();
+
+        this.cache = new NWSGridpointCache();
+        this.cache.nwsRestController = builder.build();
+        this.cache.gridpointRepo = Mockito.mock(NWSGridpointRepository.class);
+        this.cache.weatherConfig = new WeatherConfig();
+        when(this.cache.gridpointRepo.findById(any())).thenReturn(Optional.empty());
+    }
+
+    @Test
+    public void testLookedUpOnceThenServedFromMemory() {
+        this.nws.expect(requestTo("https://api.weather.gov/points/42.3314,-83.0457"))
+            .andRespond(withSuccess(POINTS_RESPONSE, MediaType.APPLICATION_JSON));
+
+        NWSGridpoint gridpoint = this.cache.get("42.331427", "-83.045754");
+        this.cache.get("42.331427", "-83.045754");
+
+        this.nws.verify();
+        assertEquals("DTX/65,33", gridpoint.getGridKey());
+        assertEquals("/gridpoints/DTX/65,33/forecast", gridpoint.getForecastPath());
+        assertEquals("/gridpoints/DTX/65,33/forecast/hourly", gridpoint.getForecastHourlyPath());
+        verify(this.cache.gridpointRepo, times(1)).save(any());
+    }
+
+    @Test
+    public void testSavedGridpointSkipsNWS() {
+        when(this.cache.gridpointRepo.findById("42.3314,-83.0457")).thenReturn(Optional.of(saved(LocalDateTime.now())));
+
+        NWSGridpoint gridpoint = this.cache.get("42.331427", "-83.045754");
+
+        this.nws.verify();
+        assertEquals("DTX/65,33", gridpoint.getGridKey());
+    }
+
+    @Test
+    public void testOldGridpointIsKeptWhileNWSIsDown() {
+        NWSGridpoint old = saved(LocalDateTime.now().minusDays(31));
+        when(this.cache.gridpointRepo.findById("42.3314,-83.0457")).thenReturn(Optional.of(old));
+        this.nws.expect(requestTo("https://api.weather.gov/points/42.3314,-83.0457"))
+            .andRespond(withServerError());
+
+        assertSame(old, this.cache.get("42.331427", "-83.045754"));
+        this.nws.verify();
+    }
+
+    @Test
+    public void testFetchedGridpointIsServedWhileTheDatabaseIsDown() {
+        when(this.cache.gridpointRepo.findById(any())).thenThrow(new DataAccessResourceFailureException("down"));
+        when(this.cache.gridpointRepo.save(any())).thenThrow(new DataAccessResourceFailureException("down"));
+        this.nws.expect(requestTo("https://api.weather.gov/points/42.3314,-83.0457"))
+            .andRespond(withSuccess(POINTS_RESPONSE, MediaType.APPLICATION_JSON));
+
+        NWSGridpoint gridpoint = this.cache.get("42.331427", "-83.045754");
+        NWSGridpoint again = this.cache.get("42.331427", "-83.045754");
+
+        this.nws.verify();
+        assertEquals("DTX/65,33", gridpoint.getGridKey());
+        assertSame(gridpoint, again);
+    }
+
+    private static NWSGridpoint saved(LocalDateTime fetchedTime) {
+        return new NWSGridpoint("42.3314,-83.0457", "DTX", 65, 33, "/gridpoints/DTX/65,33/forecast",
+            "/gridpoints/DTX/65,33/forecast/hourly", fetchedTime);
+    }
+}
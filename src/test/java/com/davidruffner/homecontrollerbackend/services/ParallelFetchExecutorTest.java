@@ -0,0 +1,62 @@
+package com.davidruffner.homecontrollerbackend.services;
+
+import com.davidruffner.homecontrollerbackend.stubs.HueFixtures;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ParallelFetchExecutorTest {
+
+    @Test
+    public void testResultsKeepInputOrderAndRespectCap() {
+        ParallelFetchExecutor executor = HueFixtures.executor(true, 3);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+
+        List<Callable<Integer>> fetches = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            int index = i;
+            fetches.add(() -> {
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                // Later fetches finish first, so order can't come from completion
+                Thread.sleep(5 + (12 - index) * 2L);
+                inFlight.decrementAndGet();
+                return index;
+            });
+        }
+
+        List<Integer> results = executor.fetchAll("test", fetches);
+
+        assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11), results);
+        assertTrue(maxInFlight.get() <= 3, "max in flight was " + maxInFlight.get());
+        assertTrue(maxInFlight.get() > 1);
+        assertEquals(1, executor.meterRegistry.get("hue.fetch").tag("mode", "parallel").timer().count());
+    }
+
+    @Test
+    public void testFailureIsRethrown() {
+        ParallelFetchExecutor executor = HueFixtures.executor(true, 4);
+
+        IllegalStateException ex = assertThrows(IllegalStateException.class, () ->
+            executor.fetchAll("test", List.<Callable<String>>of(
+                () -> "ok",
+                () -> { throw new IllegalStateException("bridge down"); })));
+
+        assertEquals("bridge down", ex.getMessage());
+    }
+
+    @Test
+    public void testSequentialMode() {
+        ParallelFetchExecutor executor = HueFixtures.executor(false, 4);
+
+        List<String> results = executor.fetchAll("test", List.<Callable<String>>of(() -> "a", () -> "b"));
+
+        assertEquals(List.of("a", "b"), results);
+        assertEquals(1, executor.meterRegistry.get("hue.fetch").tag("mode", "sequential").timer().count());
+    }
+}
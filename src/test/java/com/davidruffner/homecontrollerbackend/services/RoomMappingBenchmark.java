@@ -0,0 +1,101 @@
+package com.davidruffner.homecontrollerbackend.services;
+
+import com.davidruffner.homecontrollerbackend.entities.HueRoom;
+import com.davidruffner.homecontrollerbackend.entities.LightBulb;
+import com.davidruffner.homecontrollerbackend.services.LightsService.HueRoomChildDTO;
+import com.davidruffner.homecontrollerbackend.services.LightsService.HueRoomDataDTO;
+import com.davidruffner.homecontrollerbackend.services.LightsService.HueRoomMetadataDTO;
+import com.davidruffner.homecontrollerbackend.services.LightsService.HueRoomServiceDTO;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link LightsService#mapBulbsToRooms} over a synthetic topology, next to the old nested scan
+ * (every bulb checked for every room child) as a baseline. Bulbs are spread evenly over rooms.
+ *
+ * Run with: {@code mvn test-compile} and then the main method from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoomMappingBenchmark {
+
+    @Param({"50:5", "500:50"})
+    String bulbsAndRooms;
+
+    private List<HueRoomDataDTO> rooms;
+    private List<LightBulb> lightBulbs;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] parts = this.bulbsAndRooms.split(":");
+        int bulbCount = Integer.parseInt(parts[0]);
+        int roomCount = Integer.parseInt(parts[1]);
+
+        this.lightBulbs = new ArrayList<>();
+        List<List<HueRoomChildDTO>> children = new ArrayList<>();
+        for (int r = 0; r < roomCount; r++) {
+            children.add(new ArrayList<>());
+        }
+
+        for (int i = 0; i < bulbCount; i++) {
+            this.lightBulbs.add(new LightBulb("device-" + i, "light-" + i));
+            children.get(i % roomCount).add(new HueRoomChildDTO("device-" + i, "device"));
+        }
+
+        this.rooms = new ArrayList<>();
+        for (int r = 0; r < roomCount; r++) {
+            this.rooms.add(new HueRoomDataDTO("room-" + r,
+                List.of(new HueRoomServiceDTO("group-" + r, "grouped_light")),
+                children.get(r),
+                new HueRoomMetadataDTO("Room " + r)));
+        }
+    }
+
+    @Benchmark
+    public Map<String, HueRoom> hashJoin() {
+        return LightsService.mapBulbsToRooms(this.rooms, this.lightBulbs);
+    }
+
+    @Benchmark
+    public Map<String, HueRoom> nestedScan() {
+        Map<String, HueRoom> mappedLightBulbs = new HashMap<>();
+
+        this.rooms.forEach(room -> {
+            HueRoom hueRoom = new HueRoom(room.metadata().name());
+
+            Optional<HueRoomServiceDTO> groupService = room.services()
+                .stream().filter(s -> s.rtype().equals("grouped_light")).findFirst();
+            groupService.ifPresent(service -> hueRoom.setGroupToggleId(service.rid()));
+
+            room.children().forEach(child -> {
+                Optional<LightBulb> lightBulb = this.lightBulbs.stream()
+                    .filter(bulb -> bulb.getDeviceId().equals(child.rid()))
+                    .findFirst();
+
+                lightBulb.ifPresent(hueRoom::addLightBulb);
+            });
+            mappedLightBulbs.put(room.id(), hueRoom);
+        });
+
+        return mappedLightBulbs;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(RoomMappingBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}
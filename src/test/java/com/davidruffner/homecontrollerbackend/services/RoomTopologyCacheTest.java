@@ -0,0 +1,97 @@
+package com.davidruffner.homecontrollerbackend.services;
+
+import com.davidruffner.homecontrollerbackend.config.HueConfig;
+import com.davidruffner.homecontrollerbackend.events.HueTopologyChangedEvent;
+import com.davidruffner.homecontrollerbackend.services.LightsService.HueRoomChildDTO;
+import com.davidruffner.homecontrollerbackend.stubs.HueFixtures;
+import com.davidruffner.homecontrollerbackend.stubs.StubHueBridge;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RoomTopologyCacheTest {
+
+    private StubHueBridge bridge;
+    private RoomTopologyCache cache;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        this.bridge = StubHueBridge.withBulbs(4);
+        this.bridge.addRoom("room-1", "group-1", "Kitchen", List.of("device-0", "device-1"));
+        this.bridge.addRoom("room-2", "group-2", "Office", List.of("device-2", "device-3"));
+
+        ParallelFetchExecutor parallelFetchExecutor = HueFixtures.executor(true, 4);
+        // Never used: with only one bridge, nothing has to be looked for
+        HueBridges hueBridges = this.bridge.hueBridges(parallelFetchExecutor,
+            Mockito.mock(HueCommandScheduler.class));
+        this.cache = new RoomTopologyCache(hueBridges, new HueConfig(),
+            HueFixtures.unsyncedRegistry(hueBridges, parallelFetchExecutor, event -> {}));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        this.bridge.close();
+    }
+
+    @Test
+    public void testRoomsAreFetchedOnce() {
+        assertEquals(List.of("device-0", "device-1"), childIds("group-1"));
+        assertEquals(List.of("device-2", "device-3"), childIds("group-2"));
+        assertEquals(List.of("device-0", "device-1"), childIds("group-1"));
+
+        assertEquals(1, this.bridge.getRequestCount());
+    }
+
+    @Test
+    public void testTopologyChangeInvalidates() {
+        childIds("group-1");
+
+        this.bridge.addRoom("room-1", "group-1", "Kitchen", List.of("device-0"));
+        this.cache.onTopologyChanged(new HueTopologyChangedEvent("room"));
+
+        assertEquals(List.of("device-0"), childIds("group-1"));
+        assertEquals(2, this.bridge.getRequestCount());
+    }
+
+    @Test
+    public void testExpiredTopologyIsReloaded() throws Exception {
+        this.cache.hueConfig.getTopologyCache().setTtl(Duration.ofMillis(20));
+        childIds("group-1");
+
+        Thread.sleep(40);
+        childIds("group-1");
+
+        assertEquals(2, this.bridge.getRequestCount());
+    }
+
+    @Test
+    public void testUnknownGroupOnlyReloadsOncePerInterval() throws Exception {
+        this.cache.hueConfig.getTopologyCache().setMissReloadInterval(Duration.ofMillis(50));
+        childIds("group-1");
+
+        // Loaded just now, so there's no point looking again yet
+        assertTrue(this.cache.getChildren("group-9").isEmpty());
+        assertTrue(this.cache.getChildren("group-9").isEmpty());
+        assertEquals(1, this.bridge.getRequestCount());
+
+        this.bridge.addRoom("room-9", "group-9", "Attic", List.of("device-3"));
+        Thread.sleep(60);
+
+        assertEquals(List.of("device-3"), childIds("group-9"));
+        assertEquals(2, this.bridge.getRequestCount());
+    }
+
+    private List<String> childIds(String groupId) {
+        return this.cache.getChildren(groupId).orElseThrow().stream()
+            .map(HueRoomChildDTO::rid)
+            .sorted()
+            .toList();
+    }
+}
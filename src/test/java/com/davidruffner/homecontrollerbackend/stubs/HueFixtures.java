@@ -0,0 +1,109 @@
+package com.davidruffner.homecontrollerbackend.stubs;
+
+import com.davidruffner.homecontrollerbackend.config.HueConfig;
+import com.davidruffner.homecontrollerbackend.events.LightStateChangedEvent;
+import com.davidruffner.homecontrollerbackend.repositories.LightBulbTrackRepository;
+import com.davidruffner.homecontrollerbackend.repositories.LightBulbTrackRepositoryCustom.TrackDiff;
+import com.davidruffner.homecontrollerbackend.services.ColorConversionService;
+import com.davidruffner.homecontrollerbackend.services.GroupAggregateCache;
+import com.davidruffner.homecontrollerbackend.services.HueBridges;
+import com.davidruffner.homecontrollerbackend.services.HueCommandScheduler;
+import com.davidruffner.homecontrollerbackend.services.HueStateRegistry;
+import com.davidruffner.homecontrollerbackend.services.LightStateWriteBuffer;
+import com.davidruffner.homecontrollerbackend.services.LightsService;
+import com.davidruffner.homecontrollerbackend.services.ParallelFetchExecutor;
+import com.davidruffner.homecontrollerbackend.services.RoomTopologyCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.mockito.Mockito;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+/**
+ * The Hue services wired up the way the app does it, for tests and benchmarks that need more than
+ * the one they're about. Each call builds new instances, so nothing is shared between tests.
+ */
+public final class HueFixtures {
+
+    private HueFixtures() {}
+
+    public static ParallelFetchExecutor executor(boolean parallel, int maxConcurrency) {
+        HueConfig hueConfig = new HueConfig();
+        hueConfig.getFetch().setParallel(parallel);
+        hueConfig.getFetch().setMaxConcurrency(maxConcurrency);
+
+        return new ParallelFetchExecutor(hueConfig, new SimpleMeterRegistry());
+    }
+
+    /**
+     * A scheduler allowing {@code commandsPerSecond} of both light and grouped_light commands.
+     * Call {@link HueCommandScheduler#stop()} when done with it.
+     */
+    public static HueCommandScheduler scheduler(double commandsPerSecond, int queueCapacity) {
+        HueConfig hueConfig = new HueConfig();
+        hueConfig.getScheduler().setLightCommandsPerSecond(commandsPerSecond);
+        hueConfig.getScheduler().setGroupCommandsPerSecond(commandsPerSecond);
+        hueConfig.getScheduler().setQueueCapacity(queueCapacity);
+
+        return new HueCommandScheduler(hueConfig, new SimpleMeterRegistry());
+    }
+
+    /**
+     * A started registry following every bridge in {@code hueBridges}. It connects in the
+     * background, so wait for {@link HueStateRegistry#isSynced()} before relying on it.
+     */
+    public static HueStateRegistry registry(HueBridges hueBridges, ParallelFetchExecutor parallelFetchExecutor,
+        ApplicationEventPublisher eventPublisher) {
+
+        HueStateRegistry registry = unsyncedRegistry(hueBridges, parallelFetchExecutor, eventPublisher);
+        registry.start();
+
+        return registry;
+    }
+
+    /**
+     * A registry that's never started, as when the event stream is turned off, so everything
+     * goes to the bridges.
+     */
+    public static HueStateRegistry unsyncedRegistry(HueBridges hueBridges, ParallelFetchExecutor parallelFetchExecutor,
+        ApplicationEventPublisher eventPublisher) {
+
+        return new HueStateRegistry(hueBridges, new HueConfig(), eventPublisher, parallelFetchExecutor,
+            new ColorConversionService());
+    }
+
+    /**
+     * A LightsService and the caches under it, with a mock in place of the database. Its
+     * {@code syncAll} reports no changes until told otherwise.
+     */
+    public static LightsService lightsService(HueBridges hueBridges, ParallelFetchExecutor parallelFetchExecutor,
+        HueCommandScheduler hueCommandScheduler, HueStateRegistry hueStateRegistry,
+        ApplicationEventPublisher eventPublisher, HueConfig hueConfig) {
+
+        LightBulbTrackRepository lightBulbTrackRepo = Mockito.mock(LightBulbTrackRepository.class);
+        when(lightBulbTrackRepo.syncAll(any())).thenReturn(new TrackDiff(List.of(), List.of()));
+        LightStateWriteBuffer lightStateWriteBuffer = new LightStateWriteBuffer(lightBulbTrackRepo);
+
+        return new LightsService(
+            hueBridges,
+            new ColorConversionService(),
+            lightBulbTrackRepo,
+            hueStateRegistry,
+            new RoomTopologyCache(hueBridges, hueConfig, hueStateRegistry),
+            hueCommandScheduler,
+            parallelFetchExecutor,
+            new GroupAggregateCache(hueConfig, hueStateRegistry),
+            // As Spring would, the write buffer hears about every state change
+            event -> {
+                if (event instanceof LightStateChangedEvent changed) {
+                    lightStateWriteBuffer.onLightStateChanged(changed);
+                }
+                eventPublisher.publishEvent(event);
+            },
+            lightStateWriteBuffer,
+            hueConfig);
+    }
+}
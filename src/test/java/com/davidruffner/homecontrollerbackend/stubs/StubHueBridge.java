@@ -0,0 +1,478 @@
+package com.davidruffner.homecontrollerbackend.stubs;
+
+import com.davidruffner.homecontrollerbackend.services.HueBridges;
+import com.davidruffner.homecontrollerbackend.services.HueBridges.HueBridge;
+import com.davidruffner.homecontrollerbackend.services.HueCommandScheduler;
+import com.davidruffner.homecontrollerbackend.services.ParallelFetchExecutor;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.reactive.function.client.WebClient;
+import tools.jackson.core.type.TypeReference;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A tiny in-process stand-in for the Hue bridge's CLIP v2 API, served over plain HTTP on a
+ * random local port. Resources are kept as raw JSON maps keyed by type so the tests and
+ * benchmarks can shape whatever topology they need. It also serves /eventstream/clip/v2 as
+ * SSE; tests push events with {@link #publishEvent(String)}.
+ *
+ * Requests must carry {@link #getApplicationKey()} in hue-application-key, or get a 403 like
+ * the real bridge gives.
+ *
+ * For load tests it can also behave more like the real thing: added latency, injected errors,
+ * the bridge's command rate limits (429 past them), and commands that actually change state
+ * and are reported on the event stream. All of that is off unless asked for.
+ */
+public class StubHueBridge implements AutoCloseable {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final TypeReference<Map<String, Object>> JSON_OBJECT = new TypeReference<>() {};
+    private static final String RESOURCE_PATH = "/clip/v2/resource/";
+    private static final String EVENT_STREAM_PATH = "/eventstream/clip/v2";
+
+    static {
+        // Without this the JDK server's small responses sit behind delayed ACKs (~40ms each)
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final Map<String, Map<String, Map<String, Object>>> resources = new ConcurrentHashMap<>();
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final AtomicInteger eventStreamConnections = new AtomicInteger();
+    private final AtomicInteger eventId = new AtomicInteger();
+    private final List<EventStreamClient> eventStreamClients = new CopyOnWriteArrayList<>();
+    private volatile long latencyMillis;
+    private volatile String applicationKey = "stub-key";
+    private volatile double errorRate;
+    private final AtomicInteger failNext = new AtomicInteger();
+    private volatile int failNextStatus;
+    private final AtomicInteger injectedErrorCount = new AtomicInteger();
+    private volatile RateLimit lightRateLimit;
+    private volatile RateLimit groupRateLimit;
+    private final AtomicInteger throttledCount = new AtomicInteger();
+    private volatile boolean applyCommands;
+    private volatile Map<String, Object> lastPutBody;
+
+    private record EventStreamClient(HttpExchange exchange, CountDownLatch closed) {}
+
+    public StubHueBridge() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        this.server.createContext(RESOURCE_PATH, this::handleResource);
+        this.server.createContext(EVENT_STREAM_PATH, this::handleEventStream);
+        this.server.start();
+    }
+
+    /**
+     * Starts a bridge with {@code bulbCount} colour bulbs, each with its own device, plus the
+     * bridge device itself (which has no light service).
+     */
+    public static StubHueBridge withBulbs(int bulbCount) throws IOException {
+        StubHueBridge bridge = new StubHueBridge();
+        bridge.putResource("device", device("bridge-device", "bridge", "bridge-service"));
+
+        for (int i = 0; i < bulbCount; i++) {
+            bridge.addBulb("device-" + i, "light-" + i, "Bulb " + i);
+        }
+
+        return bridge;
+    }
+
+    public void addBulb(String deviceId, String lightId, String name) {
+        putResource("device", device(deviceId, "light", lightId));
+        putResource("light", light(lightId, deviceId, name));
+    }
+
+    /**
+     * Adds a room holding the given devices, along with the grouped_light service that toggles it.
+     */
+    public void addRoom(String roomId, String groupId, String name, List<String> deviceIds) {
+        Map<String, Object> room = new HashMap<>();
+        room.put("id", roomId);
+        room.put("type", "room");
+        room.put("metadata", Map.of("name", name));
+        room.put("services", List.of(Map.of("rid", groupId, "rtype", "grouped_light")));
+        room.put("children", deviceIds.stream()
+            .map(deviceId -> Map.of("rid", deviceId, "rtype", "device"))
+            .toList());
+        putResource("room", room);
+
+        Map<String, Object> group = new HashMap<>();
+        group.put("id", groupId);
+        group.put("type", "grouped_light");
+        group.put("owner", Map.of("rid", roomId, "rtype", "room"));
+        group.put("on", Map.of("on", true));
+        group.put("dimming", Map.of("brightness", 80.0));
+        putResource("grouped_light", group);
+    }
+
+    public void putResource(String type, Map<String, Object> resource) {
+        this.resources.computeIfAbsent(type, k -> new ConcurrentHashMap<>())
+            .put((String) resource.get("id"), resource);
+    }
+
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + this.server.getAddress().getPort();
+    }
+
+    public String getApplicationKey() {
+        return applicationKey;
+    }
+
+    public void setApplicationKey(String applicationKey) {
+        this.applicationKey = applicationKey;
+    }
+
+    /**
+     * A client for this bridge, as the app would build from app.hue.bridges.
+     */
+    public HueBridge hueBridge(String id) {
+        return new HueBridge(id, RestClient.builder().baseUrl(getBaseUrl()).build(),
+            WebClient.builder().baseUrl(getBaseUrl()).build(), this.applicationKey);
+    }
+
+    public HueBridges hueBridges(ParallelFetchExecutor parallelFetchExecutor,
+        HueCommandScheduler hueCommandScheduler) {
+
+        return new HueBridges(List.of(hueBridge("stub")), parallelFetchExecutor, hueCommandScheduler);
+    }
+
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    public void resetRequestCount() {
+        this.requestCount.set(0);
+    }
+
+    public Map<String, Object> getLastPutBody() {
+        return lastPutBody;
+    }
+
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * Fails this fraction of requests (0 to 1) at random with a 503, as the bridge does now and
+     * then when it's busy.
+     */
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * Fails the next {@code count} requests with {@code status}.
+     */
+    public void failNext(int count, int status) {
+        this.failNextStatus = status;
+        this.failNext.set(count);
+    }
+
+    public int getInjectedErrorCount() {
+        return injectedErrorCount.get();
+    }
+
+    /**
+     * Answers light and grouped_light commands past these rates with a 429, roughly as the
+     * bridge does (it takes bursts of up to a second's worth). Zero means no limit.
+     */
+    public void setRateLimits(double lightCommandsPerSecond, double groupCommandsPerSecond) {
+        this.lightRateLimit = lightCommandsPerSecond > 0 ? new RateLimit(lightCommandsPerSecond) : null;
+        this.groupRateLimit = groupCommandsPerSecond > 0 ? new RateLimit(groupCommandsPerSecond) : null;
+    }
+
+    public int getThrottledCount() {
+        return throttledCount.get();
+    }
+
+    /**
+     * Makes commands change the lights they're sent to (a grouped_light command changes every
+     * light in its room) and publish the update on the event stream, as the bridge does.
+     */
+    public void setApplyCommands(boolean applyCommands) {
+        this.applyCommands = applyCommands;
+    }
+
+    public Map<String, Object> getResource(String type, String id) {
+        return this.resources.getOrDefault(type, Map.of()).get(id);
+    }
+
+    public int getEventStreamConnections() {
+        return eventStreamConnections.get();
+    }
+
+    public int getConnectedEventStreamClients() {
+        return eventStreamClients.size();
+    }
+
+    /**
+     * Sends one SSE message to every connected client. {@code json} is the bridge's event array,
+     * e.g. {@code [{"type":"update","data":[{"id":"light-1","type":"light","on":{"on":false}}]}]}.
+     */
+    public void publishEvent(String json) {
+        byte[] message = ("id: " + this.eventId.incrementAndGet() + "\ndata: " + json + "\n\n")
+            .getBytes(StandardCharsets.UTF_8);
+
+        this.eventStreamClients.forEach(client -> {
+            try {
+                client.exchange().getResponseBody().write(message);
+                client.exchange().getResponseBody().flush();
+            } catch (IOException ex) {
+                disconnect(client);
+            }
+        });
+    }
+
+    /**
+     * Drops every event stream connection, as the bridge does when it restarts.
+     */
+    public void dropEventStreamClients() {
+        this.eventStreamClients.forEach(this::disconnect);
+    }
+
+    @Override
+    public void close() {
+        dropEventStreamClients();
+        this.server.stop(0);
+    }
+
+    private void handleEventStream(HttpExchange exchange) throws IOException {
+        if (!authorized(exchange)) {
+            return;
+        }
+        this.eventStreamConnections.incrementAndGet();
+
+        exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        exchange.getResponseBody().write(": hi\n\n".getBytes(StandardCharsets.UTF_8));
+        exchange.getResponseBody().flush();
+
+        EventStreamClient client = new EventStreamClient(exchange, new CountDownLatch(1));
+        this.eventStreamClients.add(client);
+
+        // Hold the exchange open until the test drops it
+        try {
+            client.closed().await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void disconnect(EventStreamClient client) {
+        if (this.eventStreamClients.remove(client)) {
+            client.exchange().close();
+            client.closed().countDown();
+        }
+    }
+
+    private void handleResource(HttpExchange exchange) throws IOException {
+        this.requestCount.incrementAndGet();
+        simulateLatency();
+
+        if (!authorized(exchange) || injectError(exchange)) {
+            return;
+        }
+
+        // /clip/v2/resource/{type} or /clip/v2/resource/{type}/{id}
+        String[] path = exchange.getRequestURI().getPath().substring(RESOURCE_PATH.length()).split("/");
+        Map<String, Map<String, Object>> ofType = this.resources.getOrDefault(path[0], Map.of());
+
+        Map<String, Object> putBody = null;
+        if (exchange.getRequestMethod().equals("PUT")) {
+            RateLimit rateLimit = path[0].equals("grouped_light") ? this.groupRateLimit : this.lightRateLimit;
+            if (rateLimit != null && !rateLimit.tryTake()) {
+                this.throttledCount.incrementAndGet();
+                respond(exchange, 429, Map.of("errors", List.of(Map.of("description", "Too many requests")),
+                    "data", List.of()));
+                return;
+            }
+
+            putBody = mapper.readValue(exchange.getRequestBody().readAllBytes(), JSON_OBJECT);
+            this.lastPutBody = putBody;
+        }
+
+        List<Object> data = new ArrayList<>();
+        if (path.length > 1) {
+            Map<String, Object> resource = ofType.get(path[1]);
+            if (resource == null) {
+                respond(exchange, 404, Map.of("errors", List.of(Map.of("description", "Not found")),
+                    "data", List.of()));
+                return;
+            }
+
+            if (putBody != null && this.applyCommands) {
+                applyCommand(path[0], path[1], putBody);
+            }
+            data.add(resource);
+        } else {
+            data.addAll(ofType.values());
+        }
+
+        respond(exchange, 200, Map.of("errors", List.of(), "data", data));
+    }
+
+    private boolean injectError(HttpExchange exchange) throws IOException {
+        int status;
+        if (this.failNext.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+            status = this.failNextStatus;
+        } else if (this.errorRate > 0 && ThreadLocalRandom.current().nextDouble() < this.errorRate) {
+            status = 503;
+        } else {
+            return false;
+        }
+
+        this.injectedErrorCount.incrementAndGet();
+        respond(exchange, status, Map.of("errors", List.of(Map.of("description", "Injected error")),
+            "data", List.of()));
+        return true;
+    }
+
+    private void applyCommand(String type, String id, Map<String, Object> body) {
+        List<String> lightIds = new ArrayList<>();
+        if (type.equals("light")) {
+            lightIds.add(id);
+        } else if (type.equals("grouped_light")) {
+            lightIds.addAll(lightsInRoomOf(id));
+            update(type, id, body);
+        }
+
+        List<Object> updates = new ArrayList<>();
+        lightIds.forEach(lightId -> {
+            update("light", lightId, body);
+
+            Map<String, Object> update = new HashMap<>(body);
+            update.put("id", lightId);
+            update.put("type", "light");
+            updates.add(update);
+        });
+
+        if (!updates.isEmpty()) {
+            publishEvent(mapper.writeValueAsString(List.of(Map.of("type", "update", "data", updates))));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<String> lightsInRoomOf(String groupId) {
+        Map<String, Object> group = getResource("grouped_light", groupId);
+        Map<String, Object> room = getResource("room", (String) ((Map<String, Object>) group.get("owner")).get("rid"));
+        if (room == null) {
+            return List.of();
+        }
+
+        Set<String> deviceIds = new HashSet<>();
+        ((List<Map<String, Object>>) room.get("children")).forEach(child -> deviceIds.add((String) child.get("rid")));
+
+        return this.resources.getOrDefault("light", Map.of()).values().stream()
+            .filter(light -> deviceIds.contains(((Map<String, Object>) light.get("owner")).get("rid")))
+            .map(light -> (String) light.get("id"))
+            .toList();
+    }
+
+    private void update(String type, String id, Map<String, Object> body) {
+        this.resources.getOrDefault(type, Map.of()).computeIfPresent(id, (k, resource) -> merge(resource, body));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> merge(Map<String, Object> target, Map<String, Object> update) {
+        Map<String, Object> merged = new HashMap<>(target);
+        update.forEach((key, value) -> {
+            if (value instanceof Map<?, ?> valueMap && merged.get(key) instanceof Map<?, ?> existing) {
+                merged.put(key, merge((Map<String, Object>) existing, (Map<String, Object>) valueMap));
+            } else {
+                merged.put(key, value);
+            }
+        });
+        return merged;
+    }
+
+    private boolean authorized(HttpExchange exchange) throws IOException {
+        if (this.applicationKey.equals(exchange.getRequestHeaders().getFirst("hue-application-key"))) {
+            return true;
+        }
+
+        respond(exchange, 403, Map.of("errors", List.of(Map.of("description", "unauthorized user")),
+            "data", List.of()));
+        return false;
+    }
+
+    private void simulateLatency() {
+        if (this.latencyMillis > 0) {
+            try {
+                Thread.sleep(this.latencyMillis);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Token bucket holding at most a second's worth, without waiting
+    private static final class RateLimit {
+        private final double perSecond;
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+
+        private RateLimit(double perSecond) {
+            this.perSecond = perSecond;
+            this.tokens = Math.max(1, perSecond);
+        }
+
+        private synchronized boolean tryTake() {
+            long now = System.nanoTime();
+            this.tokens = Math.min(Math.max(1, this.perSecond),
+                this.tokens + (now - this.lastRefill) * this.perSecond / TimeUnit.SECONDS.toNanos(1));
+            this.lastRefill = now;
+
+            if (this.tokens < 1) {
+                return false;
+            }
+
+            this.tokens -= 1;
+            return true;
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] bytes = mapper.writeValueAsString(body).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    public static Map<String, Object> device(String id, String serviceType, String serviceId) {
+        Map<String, Object> device = new HashMap<>();
+        device.put("id", id);
+        device.put("type", "device");
+        device.put("services", List.of(Map.of("rid", serviceId, "rtype", serviceType)));
+        return device;
+    }
+
+    public static Map<String, Object> light(String id, String deviceId, String name) {
+        Map<String, Object> light = new HashMap<>();
+        light.put("id", id);
+        light.put("type", "light");
+        light.put("owner", Map.of("rid", deviceId, "rtype", "device"));
+        light.put("metadata", Map.of("name", name));
+        light.put("on", Map.of("on", true));
+        light.put("dimming", Map.of("brightness", 80.0));
+        light.put("color", Map.of("xy", Map.of("x", 0.4573, "y", 0.41), "gamut_type", "C"));
+        return light;
+    }
+}
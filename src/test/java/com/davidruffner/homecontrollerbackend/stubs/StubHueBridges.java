@@ -0,0 +1,64 @@
+package com.davidruffner.homecontrollerbackend.stubs;
+
+import com.davidruffner.homecontrollerbackend.services.HueBridges;
+import com.davidruffner.homecontrollerbackend.services.HueCommandScheduler;
+import com.davidruffner.homecontrollerbackend.services.ParallelFetchExecutor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Several {@link StubHueBridge}s side by side, each wanting its own application key, for tests
+ * of routing across bridges. They start out empty; give each bridge's resources distinct IDs.
+ */
+public class StubHueBridges implements AutoCloseable {
+
+    private final List<StubHueBridge> bridges;
+
+    private StubHueBridges(List<StubHueBridge> bridges) {
+        this.bridges = bridges;
+    }
+
+    public static StubHueBridges start(int count) throws IOException {
+        List<StubHueBridge> bridges = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StubHueBridge bridge = new StubHueBridge();
+            bridge.setApplicationKey("stub-key-" + i);
+            bridges.add(bridge);
+        }
+
+        return new StubHueBridges(bridges);
+    }
+
+    public StubHueBridge get(int index) {
+        return this.bridges.get(index);
+    }
+
+    /**
+     * Clients for every bridge, with IDs bridge-0, bridge-1 and so on.
+     */
+    public HueBridges hueBridges(ParallelFetchExecutor parallelFetchExecutor,
+        HueCommandScheduler hueCommandScheduler) {
+
+        List<HueBridges.HueBridge> clients = new ArrayList<>(this.bridges.size());
+        for (int i = 0; i < this.bridges.size(); i++) {
+            clients.add(this.bridges.get(i).hueBridge("bridge-" + i));
+        }
+
+        return new HueBridges(clients, parallelFetchExecutor, hueCommandScheduler);
+    }
+
+    public int getRequestCount() {
+        return this.bridges.stream().mapToInt(StubHueBridge::getRequestCount).sum();
+    }
+
+    public void resetRequestCount() {
+        this.bridges.forEach(StubHueBridge::resetRequestCount);
+    }
+
+    @Override
+    public void close() {
+        this.bridges.forEach(StubHueBridge::close);
+    }
+}
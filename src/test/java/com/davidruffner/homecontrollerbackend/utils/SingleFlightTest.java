@@ -0,0 +1,88 @@
+package com.davidruffner.homecontrollerbackend.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SingleFlightTest {
+
+    private final SingleFlight<String, Integer> singleFlight = new SingleFlight<>();
+
+    @Test
+    public void testConcurrentCallersShareOneCall() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> results = new CopyOnWriteArrayList<>();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            threads.add(Thread.ofVirtual().start(() -> results.add(this.singleFlight.execute("DTX/65,33", () -> {
+                calls.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                return 42;
+            }))));
+        }
+        Thread.sleep(100);
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, calls.get());
+        assertEquals(10, results.size());
+        assertTrue(results.stream().allMatch(result -> result == 42));
+
+        // Nothing is kept afterwards
+        assertEquals(7, this.singleFlight.execute("DTX/65,33", () -> 7));
+    }
+
+    @Test
+    public void testWaitersGetTheLeadersException() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Thread leader = Thread.ofVirtual().start(() -> assertThrows(IllegalStateException.class, () ->
+            this.singleFlight.execute("DTX/65,33", () -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IllegalStateException("NWS said 503");
+            })));
+        started.await();
+
+        List<Throwable> thrown = new CopyOnWriteArrayList<>();
+        Thread waiter = Thread.ofVirtual().start(() -> {
+            try {
+                this.singleFlight.execute("DTX/65,33", () -> 1);
+            } catch (RuntimeException ex) {
+                thrown.add(ex);
+            }
+        });
+        Thread.sleep(50);
+        release.countDown();
+        leader.join();
+        waiter.join();
+
+        assertEquals(1, thrown.size());
+        assertInstanceOf(IllegalStateException.class, thrown.getFirst());
+    }
+
+    @Test
+    public void testDifferentKeysDontWaitOnEachOther() {
+        assertEquals(1, this.singleFlight.execute("DTX/65,33:forecast", () ->
+            this.singleFlight.execute("DTX/65,33:forecastHourly", () -> 1)));
+    }
+}